@@ -208,6 +208,9 @@ public class GameScreen {
 		
 		debugInfo.add("Time: " + TimeOfDay.getTimeString(ClientCore.getWorld().getDaylightOffset()));
 		
+		debugInfo.add(player.getPredictionStatus());
+		debugInfo.add(ClientCore.getWorld().getClient().getLevelEntryStatus());
+		
 		BitmapFont font = ClientCore.getFont();
 		if(GameCore.debug) font.setColor(Color.ORANGE);
 		else font.setColor(Color.WHITE);
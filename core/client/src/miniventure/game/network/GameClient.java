@@ -1,6 +1,7 @@
 package miniventure.game.network;
 
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import miniventure.game.core.AudioException;
 import miniventure.game.core.ClientCore;
@@ -27,18 +28,53 @@ import miniventure.game.world.tile.ClientTile;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.audio.Music;
 import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.IntSet;
 
 import static miniventure.game.network.GameProtocol.forPacket;
 
 /// this is a superclass for clients; the concrete class will determine if actual networking is used or not.
 public abstract class GameClient implements GameProtocol {
 	
+	private static final long ENTITY_RETRY_TIME = 1000; // in milliseconds
+	
 	private boolean suspendPackets = false;
 	
+	// when each entity the client has asked for was last asked for; until its addition comes, it isn't asked for again more than once a second.
+	private final HashMap<Integer, Long> entityRequests = new HashMap<>();
+	
+	// how long it took from hearing about the last level to being on it, for comparing how levels are sent.
+	private long levelStartTime;
+	private boolean levelShared;
+	private volatile String levelEntryStatus = "Level entry: none yet";
+	// level snapshots waiting for the libGDX thread; tile batches that come meanwhile go after them, so the older snapshot can't overwrite them.
+	private final AtomicInteger pendingSnapshots = new AtomicInteger();
+	
 	GameClient() {}
 	
+	public String getLevelEntryStatus() { return levelEntryStatus; }
+	
 	public abstract void send(Object obj);
 	
+	private static void applyTileBatch(ClientWorld world, TileUpdateBatch batch) {
+		ClientLevel level = world.getLevel(batch.levelId);
+		if(level == null) return; // the client has moved on
+		for(int i = 0; i < batch.positions.length; i++) {
+			ClientTile tile = level.getTile(batch.positions[i] >>> 16, batch.positions[i] & 0xFFFF);
+			if(tile != null)
+				level.serverUpdate(tile, batch.tileData[i], batch.updatedTypes[i]);
+		}
+	}
+	
+	// asks the server for an entity the client doesn't have, unless it was asked for in the last second; snapshots name it every tick until the addition comes.
+	private void requestEntity(int eid) {
+		final long now = System.currentTimeMillis();
+		Long last = entityRequests.get(eid);
+		if(last != null && now - last < ENTITY_RETRY_TIME)
+			return;
+		entityRequests.put(eid, now);
+		send(new EntityRequest(eid));
+	}
+	
 	void handlePacket(Object object, PacketPipeWriter connection) {
 		// GameCore.debug("Client got packet: "+object.getClass().getSimpleName());
 		
@@ -55,6 +91,9 @@ public abstract class GameClient implements GameProtocol {
 			world.init((WorldData)object);
 		
 		forPacket(object, LevelInfo.class, info -> {
+			entityRequests.clear(); // anything still coming is for the old level
+			levelStartTime = System.nanoTime();
+			levelShared = false;
 			Gdx.app.postRunnable(() -> {
 				LoadingScreen loader = new LoadingScreen();
 				loader.pushMessage("reading level data", true);
@@ -65,10 +104,23 @@ public abstract class GameClient implements GameProtocol {
 		
 		forPacket(object, LevelChunk.class, chunk -> {
 			ClientLevel level = world.getLevel();
-			if(level == null) return;
+			// chunks can get here before the level they're for is made; the level asks for them again once it's showing.
+			if(level == null || !level.getLevelId().equals(chunk.levelId)) return;
 			level.setTiles(chunk);
 		});
 		
+		forPacket(object, LevelSnapshot.class, snapshot -> {
+			levelShared = true;
+			pendingSnapshots.incrementAndGet();
+			// the level is made on the libGDX thread when the level info comes, so it's there by the time this runs.
+			Gdx.app.postRunnable(() -> {
+				ClientLevel level = world.getLevel();
+				if(level != null && level.getLevelId().equals(snapshot.getLevelId()))
+					level.setTiles(snapshot);
+				pendingSnapshots.decrementAndGet();
+			});
+		});
+		
 		/*if(object instanceof LevelData) {
 			GameCore.debug("client received level");
 			LoadingScreen loader;
@@ -117,6 +169,8 @@ public abstract class GameClient implements GameProtocol {
 			SpawnData data = (SpawnData) object;
 			world.spawnPlayer(data, () -> { // hopefully nothing bad can come of reading packets before this is finished.
 				ClientCore.removeScreen(true);
+				levelEntryStatus = "Level entry: "+(System.nanoTime() - levelStartTime) / 1_000_000+"ms ("+(levelShared ? "shared" : "streamed")+')';
+				MyUtils.debug(levelEntryStatus);
 				if(ClientCore.PLAY_MUSIC) {
 					try {
 						Music song = ClientCore.setMusicTrack(Gdx.files.internal("audio/music/game.mp3"));
@@ -143,6 +197,14 @@ public abstract class GameClient implements GameProtocol {
 				level.serverUpdate(tile, update.tileData, update.updatedType);
 		}
 		
+		forPacket(object, TileUpdateBatch.class, batch -> {
+			// until the level is made and any snapshot of it set, the batch waits its turn on the libGDX thread.
+			if(pendingSnapshots.get() > 0 || world.getLevel(batch.levelId) == null)
+				Gdx.app.postRunnable(() -> applyTileBatch(world, batch));
+			else
+				applyTileBatch(world, batch);
+		});
+		
 		if(object instanceof Hurt) {
 			//System.out.println("client received object hurt");
 			Hurt hurt = (Hurt) object;
@@ -167,10 +229,17 @@ public abstract class GameClient implements GameProtocol {
 		if(object instanceof EntityAddition) {
 			//System.out.println("client received entity addition");
 			EntityAddition addition = (EntityAddition) object;
-			
-			if(world.getEntity(addition.eid) != null) return; // entity is already loaded.
+			entityRequests.remove(addition.eid);
 			
 			if(player != null && addition.eid == player.getId()) return; // shouldn't pay attention to trying to set the client player like this.
+			
+			Entity loaded = world.getEntity(addition.eid);
+			if(loaded != null) {
+				// entity is already loaded; the server is starting its deltas over from here, so catch up to it.
+				if(loaded instanceof ClientEntity)
+					((ClientEntity) loaded).resync(addition);
+				return;
+			}
 			// ClientLevel level = world.getLevel(addition.positionUpdate.levelId);
 			// if(level == null || (player != null && !level.equals(player.getLevel()))) return;
 			
@@ -181,9 +250,21 @@ public abstract class GameClient implements GameProtocol {
 		if(object instanceof EntityRemoval) {
 			//System.out.println("client received entity removal");
 			int eid = ((EntityRemoval)object).eid;
+			entityRequests.remove(eid);
 			world.deregisterEntity(eid);
 		}
 		
+		if(object instanceof EntitySnapshot) {
+			EntityDeltas.Reader delta = new EntityDeltas.Reader((EntitySnapshot) object);
+			while(delta.next()) {
+				Entity e = world.getEntity(delta.getEid());
+				if(e instanceof ClientEntity)
+					((ClientEntity) e).applyDelta(delta);
+				else
+					requestEntity(delta.getEid()); // the deltas are no use without it; the addition will have its current state
+			}
+		}
+		
 		if(object instanceof EntityUpdate) {
 			EntityUpdate update = (EntityUpdate) object;
 			PositionUpdate newPos = update.positionUpdate;
@@ -195,7 +276,7 @@ public abstract class GameClient implements GameProtocol {
 				// if(!isPositionLoaded(newPos)) return;
 				
 				// chunk is loaded, but entity doesn't exist; ask for it from the server
-				send(new EntityRequest(update.tag.eid));
+				requestEntity(update.tag.eid);
 				return;
 			}
 			
@@ -237,10 +318,20 @@ public abstract class GameClient implements GameProtocol {
 				return;
 			}
 			
+			// when the list only covers some regions, entities elsewhere are left alone.
+			IntSet regions = null;
+			if(list.regions != null) {
+				regions = new IntSet(list.regions.length);
+				regions.addAll(list.regions);
+			}
+			final IntSet listedRegions = regions;
 			HashMap<Integer, Entity> loaded = new HashMap<>();
 			level.forEachEntity(e -> {
-				if(e != player && !(e instanceof ClientParticle))
-					loaded.put(e.getId(), e);
+				if(e == player || e instanceof ClientParticle)
+					return;
+				if(listedRegions != null && !(e instanceof ClientEntity && listedRegions.contains(((ClientEntity) e).getNetRegion())))
+					return;
+				loaded.put(e.getId(), e);
 			});
 			
 			for(int i = 0; i < list.ids.length; i++) {
@@ -252,7 +343,7 @@ public abstract class GameClient implements GameProtocol {
 				
 				if(!entityLoaded) {
 					//System.out.println("client requesting entity due to validation");
-					send(new EntityRequest(list.ids[i]));
+					requestEntity(list.ids[i]);
 				}
 				
 				loaded.remove(list.ids[i]);
@@ -264,6 +355,21 @@ public abstract class GameClient implements GameProtocol {
 			for(Entity e: loaded.values())
 				e.remove();
 		});
+		
+		forPacket(object, EntityDigest.class, digest -> {
+			ClientLevel level = world.getLevel();
+			if(player == null || level == null || level.getLevelId() != digest.levelId)
+				return; // the server will send another once the level is loaded
+			
+			RegionDigest local = new RegionDigest();
+			level.forEachEntity(e -> {
+				if(e != player && e instanceof ClientEntity && !(e instanceof ClientParticle))
+					((ClientEntity) e).addTo(local);
+			});
+			int[] mismatches = local.getMismatches(digest);
+			if(mismatches.length > 0)
+				send(new EntityDigestMismatch(digest.levelId, mismatches));
+		});
 				
 		/*forPacket(object, HotbarUpdate.class, update -> {
 			if(player == null || ClientCore.getScreen() instanceof InventoryScreen)
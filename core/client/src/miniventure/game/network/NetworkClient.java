@@ -17,6 +17,7 @@ import com.badlogic.gdx.Gdx;
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.FrameworkMessage.KeepAlive;
 import com.esotericsoftware.kryonet.Listener;
+import com.esotericsoftware.kryonet.Listener.LagListener;
 import com.esotericsoftware.kryonet.MiniventureClient;
 
 import org.jetbrains.annotations.NotNull;
@@ -45,12 +46,17 @@ public class NetworkClient extends GameClient {
 			}
 		});
 		
-		client = new MiniventureClient(clientWriteBufferSize, objectBufferSize);
-		client.addListener(new Listener() {
+		CompressingSerialization serialization = new CompressingSerialization();
+		client = new MiniventureClient(clientWriteBufferSize, objectBufferSize, serialization);
+		Listener listener = new Listener() {
 			@Override
 			public void received(Connection connection, Object object) {
 				if(object instanceof KeepAlive)
 					return; // we don't care about these.
+				if(object == DatalessRequest.Compression) {
+					serialization.setCompressing(client, true);
+					return;
+				}
 				
 				handlePacket(object, sendPipe.getPipeWriter());
 			}
@@ -61,7 +67,8 @@ public class NetworkClient extends GameClient {
 				Gdx.app.postRunnable(() -> ClientCore.addScreen(new ErrorScreen("Lost connection with server.")));
 				packetSendQueue.close();
 			}
-		});
+		};
+		client.addListener(lag ? new LagListener(lagMin, lagMax, listener) : listener);
 		
 		GameProtocol.registerClasses(client.getKryo());
 		packetSendQueue.start(); // starts the loop that checks for packets to process
@@ -104,13 +111,13 @@ public class NetworkClient extends GameClient {
 		logger.editMessage("Logging in");
 		if(personalServer != null) {
 			this.username = HOST;
-			send(new Login(username, Version.CURRENT));
+			send(new Login(username, Version.CURRENT, true));
 			callback.act(true);
 		}
 		else {
 			Gdx.app.postRunnable(() -> ClientCore.addScreen(new InputScreen("Player name:", username -> {
 				this.username = username;
-				send(new Login(username, Version.CURRENT));
+				send(new Login(username, Version.CURRENT, true));
 				
 				logger.editMessage("Logging in as '"+username+'\'');
 				ClientCore.addScreen(logger);
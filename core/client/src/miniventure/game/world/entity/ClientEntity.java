@@ -1,6 +1,8 @@
 package miniventure.game.world.entity;
 
 import miniventure.game.core.ClientCore;
+import miniventure.game.network.EntityDeltas;
+import miniventure.game.network.RegionDigest;
 import miniventure.game.network.GameProtocol.EntityAddition;
 import miniventure.game.util.MyUtils;
 import miniventure.game.util.blinker.FrameBlinker;
@@ -31,13 +33,17 @@ public class ClientEntity extends Entity {
 	private final boolean cutHeight;
 	private final boolean canFloat;
 	
+	// the last position and sprite from the server, which snapshot deltas are applied to. Position is quantized; see EntityDeltas.
+	private int netX, netY, netZ;
+	private String[] netSprite;
+	
 	public ClientEntity(EntityAddition data) {
 		super(ClientCore.getWorld(), data.eid, data.positionUpdate);
 		this.permeable = data.permeable;
 		this.descriptor = data.descriptor;
 		this.cutHeight = data.cutHeight;
 		this.canFloat = data.canFloat;
-		setRenderer(ClientEntityRenderer.deserialize(data.spriteUpdate.rendererData));
+		resync(data);
 	}
 	
 	// for locally updated entities. Assumes traits of a particle.
@@ -105,6 +111,40 @@ public class ClientEntity extends Entity {
 		setBlinker(Color.RED, Mob.HURT_COOLDOWN, true, new FrameBlinker(5, 1, false));
 	}
 	
+	/// sets the position and sprite to those in the addition; the server bases the deltas it sends on it from then on.
+	public void resync(EntityAddition data) {
+		netX = EntityDeltas.quantize(data.positionUpdate.x);
+		netY = EntityDeltas.quantize(data.positionUpdate.y);
+		netZ = EntityDeltas.quantize(data.positionUpdate.z);
+		moveTo(data.positionUpdate.x, data.positionUpdate.y, data.positionUpdate.z);
+		netSprite = data.spriteUpdate.rendererData;
+		setRenderer(ClientEntityRenderer.deserialize(netSprite));
+	}
+	
+	/// adds this entity to the digest, at the last position the server sent.
+	public void addTo(RegionDigest digest) {
+		digest.add(getId(), netX, netY, netZ, netSprite);
+	}
+	
+	/// the region this entity is in, going by the last position the server sent.
+	public int getNetRegion() {
+		return RegionDigest.getRegion(netX, netY);
+	}
+	
+	public void applyDelta(EntityDeltas.Reader delta) {
+		if(delta.getDx() != 0 || delta.getDy() != 0 || delta.getDz() != 0) {
+			netX += delta.getDx();
+			netY += delta.getDy();
+			netZ += delta.getDz();
+			moveTo(EntityDeltas.dequantize(netX), EntityDeltas.dequantize(netY), EntityDeltas.dequantize(netZ));
+		}
+		String[] sprite = delta.getSprite();
+		if(sprite != null) {
+			netSprite = EntityDeltas.applySprite(netSprite, sprite, delta.isFullSprite());
+			setRenderer(ClientEntityRenderer.deserialize(netSprite));
+		}
+	}
+	
 	public boolean move(boolean validate, Vector2 moveDist) { return move(validate, moveDist.x, moveDist.y); }
 	public boolean move(boolean validate, Vector3 moveDist) { return move(validate, moveDist.x, moveDist.y, moveDist.z); }
 	public boolean move(boolean validate, float xd, float yd) { return move(validate, xd, yd, 0); }
@@ -1,7 +1,10 @@
 package miniventure.game.world.entity.mob.player;
 
+import java.util.ArrayDeque;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
 import miniventure.game.core.GameCore;
 import miniventure.game.core.ClientCore;
@@ -83,6 +86,36 @@ public class ClientPlayer extends ClientEntity implements Player {
 	private final MobAnimationController<ClientPlayer> animator;
 	private final KnockbackController knockbackController;
 	
+	// a move sent to the server, with where it was predicted to leave the player.
+	private static class PendingMove {
+		private final int seq;
+		private final boolean validate;
+		private final float xd, yd, zd;
+		private PositionUpdate endPos;
+		
+		private PendingMove(int seq, boolean validate, float xd, float yd, float zd, PositionUpdate endPos) {
+			this.seq = seq;
+			this.validate = validate;
+			this.xd = xd;
+			this.yd = yd;
+			this.zd = zd;
+			this.endPos = endPos;
+		}
+	}
+	
+	// the most moves kept for replay; more than a few seconds' worth means the server isn't answering anyway.
+	private static final int MAX_PENDING_MOVES = 512;
+	// how far the server's position can be from the predicted one before the player is moved back to it.
+	private static final float CORRECTION_TOLERANCE = 0.05f;
+	
+	// moves the server hasn't acknowledged yet, oldest first.
+	private final ArrayDeque<PendingMove> pendingMoves = new ArrayDeque<>();
+	private final AtomicReference<MoveAck> latestAck = new AtomicReference<>();
+	// only used on the update thread.
+	private int moveSeq = 0, ackSeq = 0;
+	private long ackCount = 0, correctionCount = 0;
+	private float correctionDistance = 0;
+	
 	public ClientPlayer(SpawnData data, InventoryOverlay invScreen) {
 		super(data.playerData);
 		
@@ -147,6 +180,8 @@ public class ClientPlayer extends ClientEntity implements Player {
 	public void update(float delta) {
 		super.update(delta);
 		
+		reconcile();
+		
 		knockbackController.update(delta);
 		
 		// update things like hunger, stamina, etc.
@@ -251,11 +286,61 @@ public class ClientPlayer extends ClientEntity implements Player {
 		
 		boolean moved = super.move(validate, xd, yd, zd);
 		
-		ClientCore.getClient().send(new MovementRequest(prevPos, xd, yd, zd, new PositionUpdate(this)));
+		PositionUpdate endPos = new PositionUpdate(this);
+		final int seq = ++moveSeq;
+		synchronized (pendingMoves) {
+			if(pendingMoves.size() == MAX_PENDING_MOVES)
+				pendingMoves.pollFirst();
+			pendingMoves.addLast(new PendingMove(seq, validate, xd, yd, zd, endPos));
+		}
+		ClientCore.getClient().send(new MovementRequest(seq, ackSeq, prevPos, xd, yd, zd, endPos));
 		
 		return moved;
 	}
 	
+	// brings the player in line with the latest MoveAck, if one came since last time; if the server put the player somewhere other than predicted, the player goes there and the moves made since are done again from there.
+	private void reconcile() {
+		MoveAck ack = latestAck.getAndSet(null);
+		if(ack == null)
+			return;
+		
+		PendingMove predicted = null;
+		PendingMove[] replay;
+		synchronized (pendingMoves) {
+			while(!pendingMoves.isEmpty() && pendingMoves.peekFirst().seq <= ack.seq)
+				predicted = pendingMoves.pollFirst();
+			replay = pendingMoves.toArray(new PendingMove[0]);
+		}
+		ackSeq = ack.seq;
+		ackCount++;
+		
+		if(getLevel() == null || !getLevel().getLevelId().equals(ack.pos.levelId))
+			return; // a level change is on its way, which moves the player anyway
+		if(predicted != null && predicted.endPos.levelId.equals(ack.pos.levelId) && Vector2.dst(predicted.endPos.x, predicted.endPos.y, ack.pos.x, ack.pos.y) <= CORRECTION_TOLERANCE)
+			return;
+		
+		correctionCount++;
+		Vector2 pos = getPosition();
+		correctionDistance += pos.dst(ack.pos.x, ack.pos.y);
+		VectorPool.POOL.free(pos);
+		
+		moveTo(ack.pos.x, ack.pos.y, ack.pos.z);
+		for(PendingMove move: replay) {
+			super.move(move.validate, move.xd, move.yd, move.zd);
+			move.endPos = new PositionUpdate(this);
+		}
+	}
+	
+	/// how often the server has had to correct where the player predicted it would be.
+	public String getPredictionStatus() {
+		final int pending;
+		synchronized (pendingMoves) {
+			pending = pendingMoves.size();
+		}
+		return String.format(Locale.ROOT, "Moves: %d acked, %d corrected (%.1f%%, avg %.2f tiles), %d pending",
+			ackCount, correctionCount, ackCount == 0 ? 0 : correctionCount * 100f / ackCount, correctionCount == 0 ? 0 : correctionDistance / correctionCount, pending);
+	}
+	
 	@Override
 	public void hurt(WorldObject source, float power) {
 		super.hurt(source, power);
@@ -274,9 +359,18 @@ public class ClientPlayer extends ClientEntity implements Player {
 		});
 		
 		forPacket(object, PositionUpdate.class, newPos -> {
+			// the server moved the player itself; the moves not yet acknowledged were made from somewhere else.
+			synchronized (pendingMoves) {
+				pendingMoves.clear();
+			}
 			moveTo(newPos.x, newPos.y, newPos.z);
 		});
 		
+		forPacket(object, MoveAck.class, ack -> {
+			// acks only ever move forward, so only the latest matters; it's handled on the next update.
+			latestAck.set(ack);
+		});
+		
 		forPacket(object, StatUpdate.class, update -> {
 			changeStat(update.stat, update.amount);
 		});
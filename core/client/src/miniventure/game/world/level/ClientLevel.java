@@ -1,5 +1,6 @@
 package miniventure.game.world.level;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -7,7 +8,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import miniventure.game.core.ClientCore;
+import miniventure.game.network.GameProtocol.ChunkRequest;
 import miniventure.game.network.GameProtocol.LevelChunk;
+import miniventure.game.network.LevelSnapshot;
 import miniventure.game.screen.RespawnScreen;
 import miniventure.game.util.pool.RectPool;
 import miniventure.game.world.entity.Entity;
@@ -27,8 +30,14 @@ import org.jetbrains.annotations.Nullable;
 
 public class ClientLevel extends RenderLevel {
 	
+	// how long to wait for a requested chunk before asking again.
+	private static final long CHUNK_RETRY_TIME = 1000; // in milliseconds
+	
 	@NotNull private ClientWorld world;
-	private final boolean[][] loaded;
+	// the chunks the server has sent; the level streams in over time, and chunks can be missed while changing levels.
+	private final int chunksX, chunksY;
+	private final boolean[] loaded;
+	private final long[] requestTimes;
 	
 	private final Map<ClientTile, CachedTileUpdate> tileUpdates = Collections.synchronizedMap(new HashMap<>());
 	
@@ -36,7 +45,10 @@ public class ClientLevel extends RenderLevel {
 		super(world, levelId, width, height, ClientTile::new);
 		this.world = world;
 		
-		loaded = new boolean[width][height];
+		chunksX = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		chunksY = (height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		loaded = new boolean[chunksX * chunksY];
+		requestTimes = new long[loaded.length];
 	}
 	
 	@Override @NotNull
@@ -52,6 +64,7 @@ public class ClientLevel extends RenderLevel {
 		applyTileUpdates();
 		
 		renderSpace = RectPool.POOL.obtain(Math.max(0, renderSpace.x), Math.max(0, renderSpace.y), Math.min(getWidth()-renderSpace.x, renderSpace.width), Math.min(getHeight()-renderSpace.y, renderSpace.height));
+		requestMissingChunks(renderSpace);
 		// pass the offset vector to all objects being rendered.
 		
 		Array<Tile> tiles = getOverlappingTiles(renderSpace);
@@ -69,6 +82,40 @@ public class ClientLevel extends RenderLevel {
 				getTile(data.offset.x + i, data.offset.y + j).apply(data.tileData[i][j], null);
 			}
 		}
+		synchronized (loaded) {
+			loaded[data.offset.x / CHUNK_SIZE + data.offset.y / CHUNK_SIZE * chunksX] = true;
+		}
+	}
+	
+	/// fills in the whole level at once, from a server in the same JVM.
+	public void setTiles(LevelSnapshot snapshot) {
+		final int height = snapshot.getHeight();
+		for(int x = 0; x < snapshot.getWidth(); x++)
+			for(int y = 0; y < height; y++)
+				getTile(x, y).apply(snapshot, x * height + y);
+		synchronized (loaded) {
+			Arrays.fill(loaded, true);
+		}
+	}
+	
+	// asks the server for the chunks in view that haven't come yet, so they come before the rest of the level.
+	private void requestMissingChunks(Rectangle area) {
+		final int minX = Math.max(0, (int) area.x / CHUNK_SIZE);
+		final int minY = Math.max(0, (int) area.y / CHUNK_SIZE);
+		final int maxX = Math.min(chunksX - 1, (int) (area.x + area.width) / CHUNK_SIZE);
+		final int maxY = Math.min(chunksY - 1, (int) (area.y + area.height) / CHUNK_SIZE);
+		final long now = System.currentTimeMillis();
+		synchronized (loaded) {
+			for(int x = minX; x <= maxX; x++) {
+				for(int y = minY; y <= maxY; y++) {
+					final int chunk = x + y * chunksX;
+					if(loaded[chunk] || now - requestTimes[chunk] < CHUNK_RETRY_TIME)
+						continue;
+					requestTimes[chunk] = now;
+					world.getClient().send(new ChunkRequest(getLevelId(), x, y));
+				}
+			}
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -33,6 +33,13 @@ public abstract class LevelWorldManager extends WorldManager {
 		this.level = level;
 	}
 	
+	@Override
+	protected void clearEntityIdMap() {
+		super.clearEntityIdMap();
+		if(level != null)
+			level.clearEntityGrid();
+	}
+	
 	
 	/*  --- ENTITY MANAGEMENT --- */
 	
@@ -40,6 +47,16 @@ public abstract class LevelWorldManager extends WorldManager {
 	@Override
 	public void registerEntity(Entity e) {
 		registerEntity(e, e instanceof ClientParticle);
+		if(level != null)
+			level.entityMoved(e);
+	}
+	
+	@Override
+	public void deregisterEntity(int eid) {
+		Entity e = getEntity(eid);
+		super.deregisterEntity(eid);
+		if(e != null && level != null)
+			level.entityRemoved(e);
 	}
 	
 	
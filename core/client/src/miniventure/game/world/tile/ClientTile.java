@@ -1,5 +1,6 @@
 package miniventure.game.world.tile;
 
+import miniventure.game.network.LevelSnapshot;
 import miniventure.game.world.level.ClientLevel;
 import miniventure.game.world.level.Level;
 import miniventure.game.world.tile.TileStack.TileData;
@@ -38,4 +39,18 @@ public class ClientTile extends RenderTile {
 		}
 		setTileStack(newStack);
 	}
+	
+	/// sets the stack straight from the server's level; layers without data of their own get a new map, rather than parsing one.
+	public void apply(LevelSnapshot snapshot, int index) {
+		final int count = snapshot.getLayerCount(index);
+		TileTypeEnum[] types = new TileTypeEnum[count];
+		TileTypeDataMap[] dataMaps = new TileTypeDataMap[count];
+		for(int i = 0; i < count; i++) {
+			types[i] = snapshot.getType(index, i);
+			TileType type = getWorld().getTileType(types[i]);
+			String data = snapshot.getData(index, i);
+			dataMaps[i] = data == null ? type.createDataMap() : type.parseDataMap(data, null);
+		}
+		setTileStack(makeStack(types, dataMaps));
+	}
 }
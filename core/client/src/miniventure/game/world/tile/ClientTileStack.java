@@ -4,7 +4,7 @@ import miniventure.game.core.ClientCore;
 
 import org.jetbrains.annotations.Nullable;
 
-public class ClientTileStack extends TileStack<ClientTileType> {
+public class ClientTileStack extends ArrayTileStack<ClientTileType> {
 	
 	// private LinkedList<ClientTileType> opaqueStack; // opaque tiles only
 	
@@ -26,12 +26,12 @@ public class RenderTile extends Tile {
 	// spriteLock is unnecessary because all access occurs in the same thread: the libGDX render thread.
 	// private final Object spriteLock = new Object();
 	
+	// the TileType array is ALWAYS expected in order of bottom to top.
 	public RenderTile(@NotNull Level level, int x, int y, @NotNull TileTypeEnum[] types, @Nullable TileTypeDataMap[] data) {
-		super(level, x, y, types, data);
+		super(level, x, y, makeStack(types, data));
 	}
 	
-	@Override
-	ClientTileStack makeStack(@NotNull TileTypeEnum[] types, @Nullable TileTypeDataMap[] dataMaps) {
+	static ClientTileStack makeStack(@NotNull TileTypeEnum[] types, @Nullable TileTypeDataMap[] dataMaps) {
 		return new ClientTileStack(types, dataMaps);
 	}
 	
@@ -3,17 +3,30 @@ package com.esotericsoftware.kryonet;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
 
+import miniventure.game.chat.MessageBuilder;
+import miniventure.game.network.SendLane;
 import miniventure.game.util.MyUtils;
 
+/**
+ * Holds packets back in send lanes while the write buffer is over half full, and sends them as it empties; see SendLane for which packets go where.
+ */
 public class MiniventureConnection extends Connection {
 	
-	private final LinkedList<Object> sendQueue = new LinkedList<>();
+	private final LaneQueue[] lanes;
 	private final Object queueLock = new Object();
+	private int queuedCount = 0; // guarded by queueLock
 	
 	protected MiniventureConnection() {
 		super();
+		SendLane[] values = SendLane.values();
+		lanes = new LaneQueue[values.length];
+		for(int i = 0; i < lanes.length; i++)
+			lanes[i] = new LaneQueue(values[i]);
+		
 		addListener(new Listener() {
 			@Override
 			public void connected(Connection connection) {
@@ -23,11 +36,14 @@ public class MiniventureConnection extends Connection {
 			@Override
 			public void idle(Connection connection) {
 				synchronized (queueLock) {
-					if(sendQueue.size() == 0)
-						return;
-					
-					while(isIdle() && sendQueue.size() > 0)
-						MiniventureConnection.super.sendTCP(sendQueue.pollFirst());
+					while(queuedCount > 0 && isIdle()) {
+						for(LaneQueue lane: lanes) {
+							if(lane.isEmpty()) continue;
+							MiniventureConnection.super.sendTCP(lane.poll());
+							queuedCount--;
+							break;
+						}
+					}
 				}
 			}
 		});
@@ -48,16 +64,52 @@ public class MiniventureConnection extends Connection {
 		return null;
 	}
 	
+	/// the number of packets waiting for the write buffer to empty.
+	public int getQueuedCount() {
+		synchronized (queueLock) {
+			return queuedCount;
+		}
+	}
+	
+	/// prints how deep each lane is and has been, and how many packets were replaced by newer ones or dropped.
+	public void printStatus(MessageBuilder out) {
+		synchronized (queueLock) {
+			for(LaneQueue lane: lanes)
+				out.println("    "+lane);
+		}
+	}
+	
 	private int maxSize = 0;
 	
 	@Override
 	public int sendTCP(Object object) {
+		boolean overflow = false;
 		synchronized (queueLock) {
-			if(sendQueue.size() > 0 || !isIdle()) {
-				sendQueue.addLast(object);
-				return 0;
+			if(queuedCount > 0 || !isIdle()) {
+				LaneQueue lane = lanes[SendLane.of(object).ordinal()];
+				if(lane.replace(object))
+					return 0;
+				if(lane.size() < lane.lane.capacity) {
+					lane.add(object);
+					queuedCount++;
+					return 0;
+				}
+				lane.dropped++;
+				if(lane.lane.droppable)
+					return 0;
+				
+				// the client is too far behind to catch up; these packets can't be dropped, so the client can't be kept either.
+				for(LaneQueue other: lanes)
+					other.clear();
+				queuedCount = 0;
+				overflow = true;
 			}
 		}
+		if(overflow) {
+			System.err.println("Send queue for "+this+" is full, closing connection.");
+			close();
+			return 0;
+		}
 		
 		int sent = super.sendTCP(object);
 		if(sent > maxSize) {
@@ -77,4 +129,82 @@ public class MiniventureConnection extends Connection {
 		}*/
 		return sent;
 	}
+	
+	// one lane of packets waiting to be sent; all guarded by queueLock.
+	private static class LaneQueue {
+		private final SendLane lane;
+		// replaced entries are left in place with no packet, and skipped when they come up.
+		private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+		private final HashMap<Object, Entry> replaceable = new HashMap<>();
+		private int size = 0; // the entries that still have a packet
+		
+		private int peakDepth = 0;
+		private long queued = 0, replaced = 0, dropped = 0;
+		
+		private LaneQueue(SendLane lane) { this.lane = lane; }
+		
+		int size() { return size; }
+		boolean isEmpty() { return size == 0; }
+		
+		/// if the packet is a newer state of one already queued, the two are merged, and go to the back of the lane, behind anything the old one was queued before; it may depend on those going first.
+		boolean replace(Object packet) {
+			Object key = SendLane.getReplaceKey(packet);
+			Entry old = key == null ? null : replaceable.get(key);
+			if(old == null)
+				return false;
+			queued++;
+			replaced++;
+			Entry entry = new Entry(SendLane.replace(old.packet, packet), key);
+			old.packet = null;
+			queue.addLast(entry);
+			replaceable.put(key, entry);
+			// a lane that doesn't empty would fill with replaced entries, so they're cleared out once they make up half of it.
+			if(queue.size() > size * 2 + 16)
+				queue.removeIf(e -> e.packet == null);
+			return true;
+		}
+		
+		void add(Object packet) {
+			queued++;
+			Object key = SendLane.getReplaceKey(packet);
+			Entry entry = new Entry(packet, key);
+			queue.addLast(entry);
+			if(key != null)
+				replaceable.put(key, entry);
+			size++;
+			peakDepth = Math.max(peakDepth, size);
+		}
+		
+		Object poll() {
+			Entry entry = queue.pollFirst();
+			while(entry.packet == null)
+				entry = queue.pollFirst();
+			if(entry.key != null)
+				replaceable.remove(entry.key);
+			size--;
+			return entry.packet;
+		}
+		
+		void clear() {
+			dropped += size;
+			queue.clear();
+			replaceable.clear();
+			size = 0;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s lane: %d waiting, peak %d of %d, %d queued, %d replaced by newer, %d dropped", lane, size, peakDepth, lane.capacity, queued, replaced, dropped);
+		}
+	}
+	
+	private static class Entry {
+		private Object packet;
+		private final Object key;
+		
+		private Entry(Object packet, Object key) {
+			this.packet = packet;
+			this.key = key;
+		}
+	}
 }
@@ -0,0 +1,183 @@
+package miniventure.game.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import miniventure.game.chat.MessageBuilder;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.KryoSerialization;
+
+/**
+ * Kryo serialization that deflates packets at or above a size threshold, for connections that have said they can take them.
+ * Every packet starts with a byte saying whether the rest is compressed, so either end can always read what the other sends; a connection only gets compressed packets once compression is turned on for it, which the server does when the client asks for it in its login.
+ * Packets that don't get any smaller are sent as they are.
+ * Keeps the bytes and time spent for each packet type, to show what compression is buying.
+ */
+public class CompressingSerialization extends KryoSerialization {
+	
+	private static final byte RAW = 0, COMPRESSED = 1;
+	// bigger than any real packet; guards against a bad length making us allocate something huge.
+	private static final int MAX_INFLATED_SIZE = 1 << 24;
+	
+	private final int threshold;
+	
+	// everything below is guarded by this, like the Kryo instance.
+	private final Output output = new Output(1024, -1);
+	private final Input input = new Input();
+	private byte[] deflated = new byte[1024];
+	private byte[] inflated = new byte[1024];
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final Inflater inflater = new Inflater();
+	
+	private final Set<Connection> compressing = Collections.newSetFromMap(new WeakHashMap<>());
+	private final HashMap<Class<?>, PacketStats> stats = new HashMap<>();
+	
+	public CompressingSerialization() { this(GameProtocol.compressionThreshold); }
+	public CompressingSerialization(int threshold) {
+		this.threshold = threshold;
+	}
+	
+	/// sets whether packets sent to the given connection may be compressed.
+	public synchronized void setCompressing(Connection connection, boolean compress) {
+		if(compress)
+			compressing.add(connection);
+		else
+			compressing.remove(connection);
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized void write(Connection connection, ByteBuffer buffer, Object object) {
+		getKryo().getContext().put("connection", connection);
+		output.clear();
+		getKryo().writeClassAndObject(output, object);
+		final int size = output.position();
+		PacketStats packetStats = getStats(object.getClass());
+		
+		if(size >= threshold && compressing.contains(connection)) {
+			final long start = System.nanoTime();
+			final int length = deflate(output.getBuffer(), size);
+			packetStats.deflateTime += System.nanoTime() - start;
+			packetStats.attempts++;
+			if(length >= 0) {
+				buffer.put(COMPRESSED);
+				buffer.putInt(size);
+				buffer.put(deflated, 0, length);
+				packetStats.add(size, length + 5);
+				packetStats.compressed++;
+				return;
+			}
+		}
+		
+		buffer.put(RAW);
+		buffer.put(output.getBuffer(), 0, size);
+		packetStats.add(size, size + 1);
+	}
+	
+	// deflates into the deflated array; returns the compressed length, or -1 if it came out no smaller.
+	private int deflate(byte[] data, int size) {
+		if(deflated.length < size)
+			deflated = new byte[Math.max(size, deflated.length * 2)];
+		deflater.reset();
+		deflater.setInput(data, 0, size);
+		deflater.finish();
+		final int length = deflater.deflate(deflated, 0, size);
+		return deflater.finished() && length < size ? length : -1;
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized Object read(Connection connection, ByteBuffer buffer) {
+		getKryo().getContext().put("connection", connection);
+		final byte type = buffer.get();
+		if(type == RAW) {
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			input.setBuffer(data);
+		}
+		else if(type == COMPRESSED) {
+			final int size = buffer.getInt();
+			if(size < 0 || size > MAX_INFLATED_SIZE)
+				throw new KryoException("Invalid size for compressed packet: "+size);
+			if(inflated.length < size)
+				inflated = new byte[Math.max(size, inflated.length * 2)];
+			
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			final long start = System.nanoTime();
+			inflater.reset();
+			inflater.setInput(data);
+			try {
+				if(inflater.inflate(inflated, 0, size) != size || !inflater.finished())
+					throw new KryoException("Compressed packet did not match its size of "+size);
+			} catch(DataFormatException e) {
+				throw new KryoException("Corrupt compressed packet", e);
+			}
+			final long time = System.nanoTime() - start;
+			input.setBuffer(inflated, 0, size);
+			Object object = getKryo().readClassAndObject(input);
+			getStats(object.getClass()).inflateTime += time;
+			return object;
+		}
+		else
+			throw new KryoException("Unknown packet encoding: "+type);
+		
+		return getKryo().readClassAndObject(input);
+	}
+	
+	private PacketStats getStats(Class<?> type) {
+		return stats.computeIfAbsent(type, t -> new PacketStats(t.getSimpleName()));
+	}
+	
+	/// prints the size and compression of each type of packet sent, biggest total first; also the time spent inflating each type received.
+	public synchronized void printStatus(MessageBuilder out) {
+		ArrayList<PacketStats> list = new ArrayList<>(stats.values());
+		list.sort((s1, s2) -> Long.compare(s2.rawBytes, s1.rawBytes));
+		long raw = 0, sent = 0;
+		for(PacketStats s: list) {
+			raw += s.rawBytes;
+			sent += s.sentBytes;
+		}
+		out.println(String.format(Locale.ROOT, "Packets sent: %d bytes as %d on the wire (ratio %.2f), threshold %d bytes", raw, sent, ratio(raw, sent), threshold));
+		for(PacketStats s: list)
+			out.println("    "+s);
+	}
+	
+	private static float ratio(long raw, long sent) {
+		return sent == 0 ? 1 : raw / (float) sent;
+	}
+	
+	private static class PacketStats {
+		private final String name;
+		private long count, attempts, compressed;
+		private long rawBytes, sentBytes;
+		private long deflateTime, inflateTime; // in nanoseconds
+		
+		private PacketStats(String name) { this.name = name; }
+		
+		private void add(int raw, int sent) {
+			count++;
+			rawBytes += raw;
+			sentBytes += sent;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s: %d sent, %d compressed, %d -> %d bytes (ratio %.2f), deflate %.1f us/packet, inflate %.1f ms total",
+				name, count, compressed, rawBytes, sentBytes, ratio(rawBytes, sentBytes),
+				attempts == 0 ? 0 : deflateTime / 1E3 / attempts, inflateTime / 1E6);
+		}
+	}
+}
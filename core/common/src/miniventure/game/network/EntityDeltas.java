@@ -0,0 +1,122 @@
+package miniventure.game.network;
+
+import miniventure.game.network.GameProtocol.EntitySnapshot;
+
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Writes and reads the entity records of an EntitySnapshot.
+ * Each record is the entity id, a byte of flags for what changed, and then the change in each coordinate that moved, as a variable length int in 1/256ths of a tile.
+ * Both ends keep the last position sent as the same quantized ints, so rounding never builds up; the client is always within half a step of the server.
+ * Sprites go in the snapshot's own array, one entry for each record with a sprite flag.
+ */
+public class EntityDeltas {
+	
+	public static final int X = 1, Y = 2, Z = 4;
+	// the sprite entry only has the fields that changed; the rest are null.
+	public static final int SPRITE = 8;
+	// the sprite entry is the whole sprite, used when the number of fields changed.
+	public static final int SPRITE_FULL = 16;
+	
+	private static final float STEPS_PER_TILE = 256;
+	
+	public static int quantize(float pos) { return Math.round(pos * STEPS_PER_TILE); }
+	public static float dequantize(int pos) { return pos / STEPS_PER_TILE; }
+	
+	/// gives the fields of the current sprite that differ from the last one, with the rest null; or null if they're the same. Only for sprites with the same number of fields.
+	@Nullable
+	public static String[] diffSprite(String[] last, String[] current) {
+		String[] diff = null;
+		for(int i = 0; i < current.length; i++) {
+			if(current[i] == null ? last[i] == null : current[i].equals(last[i]))
+				continue;
+			if(diff == null)
+				diff = new String[current.length];
+			diff[i] = current[i];
+		}
+		return diff;
+	}
+	
+	/// applies the fields of a sprite entry to the last sprite, giving the new one.
+	public static String[] applySprite(String[] last, String[] fields, boolean full) {
+		if(full)
+			return fields;
+		String[] sprite = last.clone();
+		for(int i = 0; i < fields.length; i++)
+			if(fields[i] != null)
+				sprite[i] = fields[i];
+		return sprite;
+	}
+	
+	public static class Writer {
+		private final Output data = new Output(64, -1);
+		private final Array<String[]> sprites = new Array<>(String[].class);
+		private int count = 0;
+		
+		/// adds a record; deltas are in quantized steps.
+		public void write(int eid, int dx, int dy, int dz, @Nullable String[] sprite, boolean fullSprite) {
+			int flags = 0;
+			if(dx != 0) flags |= X;
+			if(dy != 0) flags |= Y;
+			if(dz != 0) flags |= Z;
+			if(sprite != null) flags |= fullSprite ? SPRITE_FULL : SPRITE;
+			
+			data.writeVarInt(eid, true);
+			data.writeByte(flags);
+			if(dx != 0) data.writeVarInt(dx, false);
+			if(dy != 0) data.writeVarInt(dy, false);
+			if(dz != 0) data.writeVarInt(dz, false);
+			if(sprite != null) sprites.add(sprite);
+			count++;
+		}
+		
+		public int getCount() { return count; }
+		
+		/// makes the snapshot and clears this writer for the next one.
+		public EntitySnapshot finish() {
+			EntitySnapshot snapshot = new EntitySnapshot(data.toBytes(), sprites.toArray());
+			data.clear();
+			sprites.clear();
+			count = 0;
+			return snapshot;
+		}
+	}
+	
+	public static class Reader {
+		private final Input data;
+		private final String[][] sprites;
+		private int spriteIdx = 0;
+		
+		private int eid, flags, dx, dy, dz;
+		private String[] sprite;
+		
+		public Reader(EntitySnapshot snapshot) {
+			data = new Input(snapshot.data);
+			sprites = snapshot.sprites;
+		}
+		
+		/// moves to the next record; returns false once there are none left.
+		public boolean next() {
+			if(data.position() >= data.limit())
+				return false;
+			eid = data.readVarInt(true);
+			flags = data.readByte();
+			dx = (flags & X) != 0 ? data.readVarInt(false) : 0;
+			dy = (flags & Y) != 0 ? data.readVarInt(false) : 0;
+			dz = (flags & Z) != 0 ? data.readVarInt(false) : 0;
+			sprite = (flags & (SPRITE | SPRITE_FULL)) != 0 ? sprites[spriteIdx++] : null;
+			return true;
+		}
+		
+		public int getEid() { return eid; }
+		public int getDx() { return dx; }
+		public int getDy() { return dy; }
+		public int getDz() { return dz; }
+		@Nullable public String[] getSprite() { return sprite; }
+		public boolean isFullSprite() { return (flags & SPRITE_FULL) != 0; }
+	}
+}
@@ -55,7 +55,9 @@ public interface GameProtocol {
 	int objectBufferSize = 5000;
 	int clientWriteBufferSize = 1000;
 	int serverWriteBufferSize = 10_000;
+	int compressionThreshold = 512; // packets this many bytes or bigger are compressed, for connections that allow it.
 	
+	// when true, network packets are held back for lagMin to lagMax ms on arrival, at both ends; for testing how the game plays over a slow connection.
 	boolean lag = false;
 	int lagMin = lag?10:0, lagMax = lag?100:0;
 	
@@ -88,6 +90,8 @@ public interface GameProtocol {
 		
 		registerNestedClasses(kryo, GameProtocol.class);
 		registerNestedClasses(kryo, ParticleData.class, true);
+		// replaces the field serializer it was given above; the id stays the same.
+		kryo.register(LevelChunk.class, new LevelChunkSerializer());
 		
 		kryo.register(TileData.class);
 		kryo.register(TileData[].class);
@@ -106,6 +110,7 @@ public interface GameProtocol {
 		kryo.register(InfoMessageLine[].class);
 		kryo.register(InfoMessage.class);
 		kryo.register(TileTypeEnum.class);
+		kryo.register(TileTypeEnum[].class);
 		kryo.register(ItemTextureSource.class);
 		kryo.register(SerialItem[].class);
 		kryo.register(SerialItemStack[].class);
@@ -116,6 +121,7 @@ public interface GameProtocol {
 		kryo.register(String[].class);
 		kryo.register(String[][].class);
 		kryo.register(int[].class);
+		kryo.register(byte[].class);
 		kryo.register(Integer.class);
 		kryo.register(Integer[].class);
 		
@@ -127,11 +133,14 @@ public interface GameProtocol {
 	class Login {
 		public final String username;
 		public final Version version;
+		public final boolean compression; // whether the client can take compressed packets
 		
 		private Login() { this(null, null); }
-		public Login(String username, Version version) {
+		public Login(String username, Version version) { this(username, version, false); }
+		public Login(String username, Version version, boolean compression) {
 			this.username = username;
 			this.version = version;
+			this.compression = compression;
 		}
 	}
 	
@@ -149,7 +158,8 @@ public interface GameProtocol {
 		Level_Loading, // notifies the client that a level must be loaded before they can be added to it, allowed a loading message to be shown client-side.
 		Level_Ready, // when the server has sent all the entities to the client.
 		Death, // player died, show respawn screen.
-		Recipes // client asking for recipes they can make without a crafter
+		Recipes, // client asking for recipes they can make without a crafter
+		Compression // server tells a client that asked for compression at login that it can send compressed packets too
 	}
 	
 	// pings always end up being started from the server.
@@ -232,11 +242,13 @@ public interface GameProtocol {
 	}
 	
 	class LevelChunk {
+		public final LevelId levelId;
 		public final Point offset;
 		public final TileData[][] tileData;
 		
-		private LevelChunk() { this(null, null); }
-		public LevelChunk(Point offset, int width, int height, TileData[][] allData) {
+		private LevelChunk() { this(null, null, null); }
+		public LevelChunk(LevelId levelId, Point offset, int width, int height, TileData[][] allData) {
+			this.levelId = levelId;
 			this.offset = offset;
 			this.tileData = new TileData[width][height];
 			for (int i = 0; i < width; i++) {
@@ -245,7 +257,8 @@ public interface GameProtocol {
 				}
 			}
 		}
-		public LevelChunk(Point offset, TileData[][] tileData) {
+		public LevelChunk(LevelId levelId, Point offset, TileData[][] tileData) {
+			this.levelId = levelId;
 			this.offset = offset;
 			this.tileData = tileData;
 		}
@@ -320,18 +333,36 @@ public interface GameProtocol {
 		}
 	}
 	
+	// every tile of a level that changed in one tick, as it was at the end of the tick; each position is (x << 16) | y. The updated type of a tile may be null.
+	class TileUpdateBatch {
+		public final LevelId levelId;
+		public final int[] positions;
+		public final TileData[] tileData;
+		public final TileTypeEnum[] updatedTypes;
+		
+		private TileUpdateBatch() { this(null, null, null, null); }
+		public TileUpdateBatch(LevelId levelId, int[] positions, TileData[] tileData, TileTypeEnum[] updatedTypes) {
+			this.levelId = levelId;
+			this.positions = positions;
+			this.tileData = tileData;
+			this.updatedTypes = updatedTypes;
+		}
+	}
+	
 	// sent by client to ask for a chunk. Server assumes level to be the client's current level.
-	/*class ChunkRequest {
+	// sent by the client for a chunk of its level that it doesn't have yet; x and y are in chunks, not tiles.
+	class ChunkRequest {
+		public final LevelId levelId;
 		public final int x;
 		public final int y;
 		
-		private ChunkRequest() { this(0, 0); }
-		public ChunkRequest(Point p) { this(p.x, p.y); }
-		public ChunkRequest(int x, int y) {
+		private ChunkRequest() { this(null, 0, 0); }
+		public ChunkRequest(LevelId levelId, int x, int y) {
+			this.levelId = levelId;
 			this.x = x;
 			this.y = y;
 		}
-	}*/
+	}
 	
 	class SpawnData {
 		public final EntityAddition playerData;
@@ -417,6 +448,18 @@ public interface GameProtocol {
 		@Override public String toString() { return "EntityUpdate("+positionUpdate+","+spriteUpdate+")"; }
 	}
 	
+	// every change to the entities a client knows about during one tick; see EntityDeltas for the format.
+	class EntitySnapshot {
+		public final byte[] data;
+		public final String[][] sprites;
+		
+		private EntitySnapshot() { this(null, null); }
+		public EntitySnapshot(byte[] data, String[][] sprites) {
+			this.data = data;
+			this.sprites = sprites;
+		}
+	}
+	
 	class MobUpdate {
 		public final EntityTag tag;
 		public final Direction newDir;
@@ -428,14 +471,17 @@ public interface GameProtocol {
 		}
 	}
 	
-	// sent by the server every 10 seconds or so with all entities in the 5x5 chunks surrounding the client. The client can use this to validate all the entities that it has loaded; if there are any listed that it doesn't have loaded (and the chunk it's on is loaded), it can send back an entity request to get it loaded. Also, if it finds that there are entities it has loaded, which aren't present in the list, it can unload them.
+	// sent by the server with all the entities the client should have in some regions of its level, in answer to an EntityDigestMismatch. If there are any listed that the client doesn't have loaded, it can send back an entity request to get it loaded. Also, if it finds that there are entities it has loaded in those regions, which aren't present in the list, it can unload them.
 	class EntityValidation {
 		public final LevelId levelId;
+		// the regions the list covers, as in RegionDigest; null if it covers the whole level.
+		public final int[] regions;
 		public final int[] ids;
 		
-		private EntityValidation() { this((LevelId)null, null); }
+		private EntityValidation() { this(null, null, null); }
 		public EntityValidation(Level level, Entity... excluded) {
 			this.levelId = level.getLevelId();
+			regions = null;
 			// get relevant entities
 			LinkedList<Entity> entities = new LinkedList<>();
 			List<Entity> excludedEntities = Arrays.asList(excluded);
@@ -446,12 +492,40 @@ public interface GameProtocol {
 			// map to ids
 			ids = ArrayUtils.mapArray(entities.toArray(), int.class, int[].class, e -> ((Entity)e).getId());
 		}
-		public EntityValidation(LevelId levelId, int[] ids) {
+		public EntityValidation(LevelId levelId, int[] ids) { this(levelId, null, ids); }
+		public EntityValidation(LevelId levelId, int[] regions, int[] ids) {
 			this.levelId = levelId;
+			this.regions = regions;
 			this.ids = ids;
 		}
 	}
 	
+	// sent by the server every few seconds with a digest of the entities the client should have in each region of its level; see RegionDigest. The client replies with the regions where its own digest is different, if there are any.
+	class EntityDigest {
+		public final LevelId levelId;
+		public final int[] regions;
+		public final int[] digests;
+		
+		private EntityDigest() { this(null, null, null); }
+		public EntityDigest(LevelId levelId, int[] regions, int[] digests) {
+			this.levelId = levelId;
+			this.regions = regions;
+			this.digests = digests;
+		}
+	}
+	
+	// sent by the client when its entities don't match an EntityDigest. The server sends the entities in those regions again, followed by an EntityValidation for them.
+	class EntityDigestMismatch {
+		public final LevelId levelId;
+		public final int[] regions;
+		
+		private EntityDigestMismatch() { this(null, null); }
+		public EntityDigestMismatch(LevelId levelId, int[] regions) {
+			this.levelId = levelId;
+			this.regions = regions;
+		}
+	}
+	
 	// sent by the client when it receives an entity update that is in the loaded chunks, but isn't loaded for some reason.
 	class EntityRequest {
 		public int eid;
@@ -528,15 +602,19 @@ public interface GameProtocol {
 	}
 	
 	class MovementRequest {
+		public final int seq; // counts up from 1 with each move the client makes.
+		public final int ackSeq; // the seq of the last MoveAck the client had applied when it made this move.
 		public final PositionUpdate startPos; // where the player was before movement. The server will update to this as long as it is a valid position.
 		public final float xd, yd, zd; // this is useful to the server because it can do things like getting hurt by touching something that the player can't actually run into.
-		public final PositionUpdate endPos; // where the player ended up after movement. If this doesn't match where the server thinks the player should have ended up, it will end back a position update to correct it.
+		public final PositionUpdate endPos; // where the player ended up after movement. If this doesn't match where the server thinks the player should have ended up, the server's next MoveAck will correct it.
 		
-		private MovementRequest() { this(null, 0, 0, 0, null); }
-		public MovementRequest(PositionUpdate startPos, Vector2 moveDist, PositionUpdate endPos) { this(startPos, moveDist.x, moveDist.y, 0, endPos); }
-		public MovementRequest(PositionUpdate startPos, Vector3 moveDist, PositionUpdate endPos) { this(startPos, moveDist.x, moveDist.y, moveDist.z, endPos); }
-		public MovementRequest(PositionUpdate startPos, float xd, float yd, float zd, PositionUpdate endPos) {
+		private MovementRequest() { this(0, 0, null, 0, 0, 0, null); }
+		public MovementRequest(int seq, int ackSeq, PositionUpdate startPos, Vector2 moveDist, PositionUpdate endPos) { this(seq, ackSeq, startPos, moveDist.x, moveDist.y, 0, endPos); }
+		public MovementRequest(int seq, int ackSeq, PositionUpdate startPos, Vector3 moveDist, PositionUpdate endPos) { this(seq, ackSeq, startPos, moveDist.x, moveDist.y, moveDist.z, endPos); }
+		public MovementRequest(int seq, int ackSeq, PositionUpdate startPos, float xd, float yd, float zd, PositionUpdate endPos) {
 			//System.out.println("made movement request, starting "+);
+			this.seq = seq;
+			this.ackSeq = ackSeq;
 			this.startPos = startPos;
 			this.xd = xd;
 			this.yd = yd;
@@ -547,6 +625,21 @@ public interface GameProtocol {
 		public Vector3 getMoveDist() { return Vector3Pool.POOL.obtain(xd, yd, zd); }
 	}
 	
+	// sent by the server for the last MovementRequest it handled, with where that left the player. Sent right away if it had to correct the client, and every so often otherwise.
+	// The client goes back to this position and replays the moves it has made since, if it doesn't match where the client thought it would be.
+	class MoveAck {
+		public final int seq;
+		public final PositionUpdate pos;
+		public final boolean corrected; // true if the move's end position didn't match where the server put the player.
+		
+		private MoveAck() { this(0, null, false); }
+		public MoveAck(int seq, PositionUpdate pos, boolean corrected) {
+			this.seq = seq;
+			this.pos = pos;
+			this.corrected = corrected;
+		}
+	}
+	
 	// sent by client to interact or attack.
 	class InteractRequest {
 		public final boolean attack;
@@ -0,0 +1,196 @@
+package miniventure.game.network;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import miniventure.game.network.GameProtocol.LevelChunk;
+import miniventure.game.world.Point;
+import miniventure.game.world.level.LevelId;
+import miniventure.game.world.tile.TileStack.TileData;
+
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Writes a LevelChunk as a palette of the distinct tile stacks in it, followed by which palette entry each tile uses.
+ * Most tiles in a chunk share a handful of stacks, so each stack's types and data are only written once.
+ * The tile indices are written either as runs of the same entry, or packed into as few bits as the palette size needs, whichever is smaller for the chunk.
+ * Tiles are in x-major order, the same as the chunk's arrays. Tiles that share an entry are given the same TileData on read.
+ */
+public class LevelChunkSerializer extends Serializer<LevelChunk> {
+	
+	private static final byte RUNS = 0, PACKED = 1;
+	
+	public LevelChunkSerializer() {
+		super(false, true);
+	}
+	
+	@Override
+	public void write(Kryo kryo, Output output, LevelChunk chunk) {
+		kryo.writeObjectOrNull(output, chunk.levelId, LevelId.class);
+		output.writeVarInt(chunk.offset.x, true);
+		output.writeVarInt(chunk.offset.y, true);
+		
+		final int width = chunk.tileData.length;
+		final int height = width == 0 ? 0 : chunk.tileData[0].length;
+		output.writeVarInt(width, true);
+		output.writeVarInt(height, true);
+		
+		// build the palette
+		HashMap<PaletteKey, Integer> paletteIndices = new HashMap<>();
+		Array<TileData> palette = new Array<>(TileData.class);
+		int[] indices = new int[width * height];
+		int runs = 0;
+		for(int x = 0; x < width; x++) {
+			for(int y = 0; y < height; y++) {
+				TileData tile = chunk.tileData[x][y];
+				PaletteKey key = new PaletteKey(tile);
+				Integer idx = paletteIndices.get(key);
+				if(idx == null) {
+					idx = palette.size;
+					paletteIndices.put(key, idx);
+					palette.add(tile);
+				}
+				final int i = x * height + y;
+				indices[i] = idx;
+				if(i == 0 || indices[i - 1] != idx)
+					runs++;
+			}
+		}
+		
+		output.writeVarInt(palette.size, true);
+		for(TileData tile: palette) {
+			output.writeVarInt(tile.typeOrdinals.length, true);
+			for(int i = 0; i < tile.typeOrdinals.length; i++) {
+				output.writeVarInt(tile.typeOrdinals[i], true);
+				output.writeString(tile.data[i]);
+			}
+		}
+		
+		// a run is two varints, and with palettes of under 128 stacks, those are a byte each.
+		final int bits = getBits(palette.size);
+		final long packedBytes = ((long) indices.length * bits + 7) / 8;
+		if(runs * 2L <= packedBytes) {
+			output.writeByte(RUNS);
+			writeRuns(output, indices);
+		} else {
+			output.writeByte(PACKED);
+			writePacked(output, indices, bits);
+		}
+	}
+	
+	@Override
+	public LevelChunk read(Kryo kryo, Input input, Class<LevelChunk> type) {
+		LevelId levelId = kryo.readObjectOrNull(input, LevelId.class);
+		Point offset = new Point(input.readVarInt(true), input.readVarInt(true));
+		final int width = input.readVarInt(true);
+		final int height = input.readVarInt(true);
+		
+		TileData[] palette = new TileData[input.readVarInt(true)];
+		for(int p = 0; p < palette.length; p++) {
+			final int layers = input.readVarInt(true);
+			int[] typeOrdinals = new int[layers];
+			String[] data = new String[layers];
+			for(int i = 0; i < layers; i++) {
+				typeOrdinals[i] = input.readVarInt(true);
+				data[i] = input.readString();
+			}
+			palette[p] = new TileData(typeOrdinals, data);
+		}
+		
+		int[] indices = new int[width * height];
+		if(input.readByte() == RUNS)
+			readRuns(input, indices);
+		else
+			readPacked(input, indices, getBits(palette.length));
+		
+		TileData[][] tileData = new TileData[width][height];
+		for(int x = 0; x < width; x++)
+			for(int y = 0; y < height; y++)
+				tileData[x][y] = palette[indices[x * height + y]];
+		
+		return new LevelChunk(levelId, offset, tileData);
+	}
+	
+	// the bits needed to tell apart the given number of palette entries; 0 if there's only one.
+	private static int getBits(int paletteSize) {
+		return paletteSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+	}
+	
+	private static void writeRuns(Output output, int[] indices) {
+		int start = 0;
+		for(int i = 1; i <= indices.length; i++) {
+			if(i < indices.length && indices[i] == indices[start])
+				continue;
+			output.writeVarInt(i - start, true);
+			output.writeVarInt(indices[start], true);
+			start = i;
+		}
+	}
+	
+	private static void readRuns(Input input, int[] indices) {
+		int pos = 0;
+		while(pos < indices.length) {
+			final int length = input.readVarInt(true);
+			final int idx = input.readVarInt(true);
+			Arrays.fill(indices, pos, pos + length, idx);
+			pos += length;
+		}
+	}
+	
+	private static void writePacked(Output output, int[] indices, int bits) {
+		if(bits == 0) return;
+		long buffer = 0;
+		int buffered = 0;
+		for(int idx: indices) {
+			buffer |= (long) idx << buffered;
+			buffered += bits;
+			while(buffered >= 8) {
+				output.writeByte((byte) buffer);
+				buffer >>>= 8;
+				buffered -= 8;
+			}
+		}
+		if(buffered > 0)
+			output.writeByte((byte) buffer);
+	}
+	
+	private static void readPacked(Input input, int[] indices, int bits) {
+		if(bits == 0) return; // every tile uses the only entry, which is already 0.
+		final long mask = (1L << bits) - 1;
+		long buffer = 0;
+		int buffered = 0;
+		for(int i = 0; i < indices.length; i++) {
+			while(buffered < bits) {
+				buffer |= (input.readByte() & 0xFFL) << buffered;
+				buffered += 8;
+			}
+			indices[i] = (int) (buffer & mask);
+			buffer >>>= bits;
+			buffered -= bits;
+		}
+	}
+	
+	private static class PaletteKey {
+		private final TileData tile;
+		private final int hash;
+		
+		private PaletteKey(TileData tile) {
+			this.tile = tile;
+			hash = Arrays.hashCode(tile.typeOrdinals) * 31 + Arrays.hashCode(tile.data);
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof PaletteKey)) return false;
+			PaletteKey other = (PaletteKey) o;
+			return hash == other.hash && Arrays.equals(tile.typeOrdinals, other.tile.typeOrdinals) && Arrays.equals(tile.data, other.tile.data);
+		}
+		
+		@Override
+		public int hashCode() { return hash; }
+	}
+}
@@ -0,0 +1,48 @@
+package miniventure.game.network;
+
+import miniventure.game.world.level.LevelId;
+import miniventure.game.world.tile.TileTypeEnum;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A copy of every tile stack in a server level at one moment, as flat arrays; it's never changed once made.
+ * Sent instead of the level's chunks when the client is in the same JVM as the server, so the level arrives in one go, with no packets built or read for it; changes after it was taken come in the usual tile updates.
+ * Saves take one too, with the data in save form, so the tick only has to wait for the copy, and not for the file to be written.
+ * It's never sent over a network, so it isn't part of GameProtocol and isn't registered with Kryo.
+ *
+ * Tiles are indexed as x * height + y, the same as the server's TileLayers.
+ */
+public class LevelSnapshot {
+	
+	private final LevelId levelId;
+	private final int width, height;
+	private final byte[] layerCounts;
+	private final byte[][] layerTypes;
+	// each layer's data, for the layers that have any of their own; null for the rest, or for a whole layer if none do.
+	private final String[][] layerData;
+	
+	/// the arrays are kept, not copied; the caller gives up any other reference to them.
+	public LevelSnapshot(LevelId levelId, int width, int height, byte[] layerCounts, byte[][] layerTypes, String[][] layerData) {
+		this.levelId = levelId;
+		this.width = width;
+		this.height = height;
+		this.layerCounts = layerCounts;
+		this.layerTypes = layerTypes;
+		this.layerData = layerData;
+	}
+	
+	public LevelId getLevelId() { return levelId; }
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	
+	public int getLayerCount(int index) { return layerCounts[index]; }
+	
+	public TileTypeEnum getType(int index, int layer) { return TileTypeEnum.value(layerTypes[layer][index]); }
+	
+	@Nullable
+	public String getData(int index, int layer) {
+		String[] data = layerData[layer];
+		return data == null ? null : data[index];
+	}
+}
@@ -1,55 +1,248 @@
 package miniventure.game.network;
 
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import miniventure.game.chat.MessageBuilder;
 import miniventure.game.util.MyUtils;
+import miniventure.game.util.RollingSamples;
 import miniventure.game.util.function.ValueAction;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * Passes packets from one part of the game to another, in order, on a separate thread.
+ * Packets go into a ring buffer, and are handed to the listener in batches by a small pool of dispatch threads shared by every pipe, so idle pipes don't cost a thread each.
+ * The buffer is bounded: once it's full, senders wait for the listener to catch up. Senders can check isCongested first to hold back packets that can be skipped.
+ */
 public class PacketPipe {
 	
+	public static final int DEFAULT_CAPACITY = 4096;
+	// the most packets given to a listener in one turn, so one busy pipe doesn't keep a dispatch thread from the rest.
+	private static final int BATCH_SIZE = 64;
+	
+	private static final int SAMPLE_COUNT = 1000;
+	private static final float[] PERCENTILES = {50, 95, 99};
+	
+	private static final int DISPATCH_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static final ThreadLocal<Boolean> isDispatchThread = ThreadLocal.withInitial(() -> false);
+	private static final ExecutorService dispatcher;
+	static {
+		AtomicInteger threadCount = new AtomicInteger();
+		dispatcher = Executors.newFixedThreadPool(DISPATCH_THREADS, action -> {
+			Thread thread = new Thread(() -> {
+				isDispatchThread.set(true);
+				action.run();
+			}, "Packet Dispatcher "+threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
 	@FunctionalInterface
 	public interface PacketHandler extends ValueAction<Object> {
 		default void onDisconnect() {}
 	}
 	
-	// this is the list of packets that have been "sent" and have yet to be processed.
-	private final LinkedList<Object> packetQueue;
-	// A locking object for the new thread
+	private enum State { NEW, RUNNING, CLOSED }
+	
+	@Nullable
+	private final String label;
+	private final int capacity;
+	
+	// everything below is guarded by the lock.
 	private final Object lock = new Object();
+	private State state = State.NEW;
+	// packets that have been "sent" and have yet to be processed, with the time each was sent.
+	private Object[] packets;
+	private long[] sendTimes;
+	private int head = 0, size = 0;
+	// true while a dispatch is queued or running, so only one thread ever calls the listener at a time.
+	private boolean scheduled = false;
 	
-	private boolean running = false; // whether the packet pipe is running and processing packets / is ready to process packets
+	// only touched by the dispatch that's running.
+	private final Object[] batch = new Object[BATCH_SIZE];
+	
+	private final RollingSamples latencies = new RollingSamples(SAMPLE_COUNT);
+	private int peakDepth = 0;
+	private long delivered = 0;
+	private long blockedSends = 0;
 	
 	private final PacketPipeReader reader;
 	private final PacketPipeWriter writer;
 	
 	public PacketPipe() { this(null); }
-	public PacketPipe(@Nullable String readerThreadLabel) {
-		packetQueue = new LinkedList<>(); // I need pollFirst, so I can't use collections synchronization.
+	public PacketPipe(@Nullable String label) { this(label, DEFAULT_CAPACITY); }
+	public PacketPipe(@Nullable String label, int capacity) {
+		this.label = label;
+		this.capacity = capacity;
+		packets = new Object[capacity];
+		sendTimes = new long[capacity];
 		
-		reader = new PacketPipeReader(readerThreadLabel);
+		reader = new PacketPipeReader();
 		writer = new PacketPipeWriter();
 	}
 	
 	public PacketPipeReader getPipeReader() { return reader; }
 	public PacketPipeWriter getPipeWriter() { return writer; }
 	
+	private void add(Object packet) {
+		boolean dispatch;
+		synchronized (lock) {
+			if(state == State.CLOSED)
+				return; // nothing will read it
+			
+			if(size == packets.length) {
+				// a dispatch thread waiting here could be the one that would have emptied the pipe, and the pipe won't empty at all if it hasn't started; in those cases the buffer grows instead.
+				if(state == State.NEW || isDispatchThread.get())
+					grow();
+				else {
+					blockedSends++;
+					while(size == packets.length && state == State.RUNNING) {
+						try {
+							lock.wait();
+						} catch(InterruptedException e) {
+							Thread.currentThread().interrupt();
+							grow();
+						}
+					}
+					if(state == State.CLOSED)
+						return;
+				}
+			}
+			
+			final int idx = (head + size) % packets.length;
+			packets[idx] = packet;
+			sendTimes[idx] = System.nanoTime();
+			size++;
+			peakDepth = Math.max(peakDepth, size);
+			
+			dispatch = state == State.RUNNING && !scheduled;
+			if(dispatch)
+				scheduled = true;
+		}
+		if(dispatch)
+			dispatcher.execute(this::dispatch);
+	}
+	
+	private void grow() {
+		Object[] newPackets = new Object[packets.length * 2];
+		long[] newTimes = new long[newPackets.length];
+		for(int i = 0; i < size; i++) {
+			newPackets[i] = packets[(head + i) % packets.length];
+			newTimes[i] = sendTimes[(head + i) % packets.length];
+		}
+		packets = newPackets;
+		sendTimes = newTimes;
+		head = 0;
+	}
+	
+	// runs on a dispatch thread; hands over one batch, then queues itself again if there's more, so other pipes get a turn.
+	private void dispatch() {
+		int count = 0;
+		boolean closed;
+		synchronized (lock) {
+			closed = state == State.CLOSED;
+			if(!closed) {
+				count = Math.min(size, BATCH_SIZE);
+				final long now = System.nanoTime();
+				for(int i = 0; i < count; i++) {
+					batch[i] = packets[head];
+					latencies.add(now - sendTimes[head]);
+					packets[head] = null;
+					head = (head + 1) % packets.length;
+				}
+				size -= count;
+				delivered += count;
+				if(count > 0)
+					lock.notifyAll(); // there's room for anyone waiting to send
+			}
+		}
+		
+		for(int i = 0; i < count; i++) {
+			Object packet = batch[i];
+			batch[i] = null;
+			if(closed) continue;
+			try {
+				// GameCore.debug("PacketPipe \""+label+"\" got packet: "+packet.getClass().getSimpleName());
+				reader.listener.act(packet);
+			} catch(Throwable t) {
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+				System.err.println("closing "+this+" after an error handling "+packet.getClass().getSimpleName());
+				reader.close();
+				closed = true;
+			}
+		}
+		
+		boolean again;
+		synchronized (lock) {
+			closed = state == State.CLOSED;
+			again = !closed && size > 0;
+			scheduled = again;
+		}
+		if(again)
+			dispatcher.execute(this::dispatch);
+		else if(closed) {
+			reader.listener.onDisconnect();
+			MyUtils.debug("Pipe ending: "+label);
+		}
+	}
+	
+	@Override
+	public String toString() { return "PacketPipe["+label+']'; }
+	
 	/// below are classes to restrict access to the pipe, so one end may be passed to part of the code without letting that code use the other end too.
 	
 	// simple way to define methods common to both ends in one place.
 	private class PacketPipeInterface {
 		public void close() {
-			running = false;
+			boolean dispatch;
 			synchronized (lock) {
-				// wake up the reader thread so that it can realize it should shut down
-				lock.notify();
+				if(state == State.CLOSED)
+					return;
+				// if it was running, a dispatch has to run once more to tell the listener.
+				dispatch = state == State.RUNNING && !scheduled;
+				if(dispatch)
+					scheduled = true;
+				state = State.CLOSED;
+				size = 0;
+				head = 0;
+				Arrays.fill(packets, null);
+				lock.notifyAll(); // wake up anyone waiting to send, so they can give up
 			}
+			if(dispatch)
+				dispatcher.execute(PacketPipe.this::dispatch);
 		}
 		
 		public boolean isOpen() {
-			return running;
+			synchronized (lock) {
+				return state == State.RUNNING;
+			}
+		}
+		
+		/// the number of packets waiting to be handled.
+		public int getDepth() {
+			synchronized (lock) {
+				return size;
+			}
+		}
+		
+		/// true once the pipe is three quarters full; packets that can be skipped, like particles, should be held back while this is true.
+		public boolean isCongested() {
+			return getDepth() >= capacity - capacity / 4;
+		}
+		
+		public void printStatus(MessageBuilder out) {
+			long[] latency = latencies.getPercentiles(PERCENTILES);
+			synchronized (lock) {
+				out.println(PacketPipe.this+": "+size+" waiting, peak "+peakDepth+" of "+capacity+", "+delivered+" handled, senders blocked "+blockedSends+" time"+MyUtils.plural((int)blockedSends));
+			}
+			out.println(String.format(Locale.ROOT, "    latency ms (p50 / p95 / p99): %.3f / %.3f / %.3f", latency[0]/1E6, latency[1]/1E6, latency[2]/1E6));
 		}
 		
 		@Override
@@ -61,67 +254,38 @@ public class PacketPipe {
 	
 	// can only send through this end
 	public class PacketPipeWriter extends PacketPipeInterface {
+		/// adds the packet to the pipe; if the pipe is full, this waits until there's room, unless it's called from a dispatch thread.
 		public void send(Object packet) {
-			// GameCore.debug("sending packet from pipe: "+readerThreadLabel+"; packet type: "+packet.getClass().getSimpleName());
-			synchronized (lock) {
-				packetQueue.add(packet);
-				// Start the thread again to read a new packet
-				lock.notify();
-			}
+			// GameCore.debug("sending packet from pipe: "+label+"; packet type: "+packet.getClass().getSimpleName());
+			add(packet);
 		}
 	}
 	
 	// can only read/listen through this end
-	public class PacketPipeReader extends PacketPipeInterface implements Runnable {
-		
-		@Nullable
-		private final String readerThreadLabel;
+	public class PacketPipeReader extends PacketPipeInterface {
 		
 		@NotNull
 		private PacketHandler listener = obj -> {};
 		
-		PacketPipeReader(@Nullable String readerThreadLabel) {
-			this.readerThreadLabel = readerThreadLabel;
-		}
+		PacketPipeReader() {}
 		
 		public void setListener(@NotNull PacketHandler handler) {
 			this.listener = handler;
 		}
 		
+		/// starts handing packets to the listener, including any sent before now.
 		public void start() {
-			if(readerThreadLabel != null)
-				new Thread(this, readerThreadLabel).start();
-			else
-				new Thread(this).start();
-		}
-		
-		@Override
-		public void run() {
-			running = true;
-			MyUtils.debug("Starting pipe flow: "+readerThreadLabel);
-			
-			while(running) {
-				Object packet;
-				synchronized (lock) {
-					packet = packetQueue.pollFirst();
-					if(packet == null) {
-						// Wait until a new packet
-						// to avoid executing the thread yet
-						try {
-							lock.wait();
-						} catch (InterruptedException ignored) {
-						}
-						continue;
-					}
-				}
-				
-				// GameCore.debug("PacketPipeReader \""+readerThreadLabel+"\" got packet: "+packet.getClass().getSimpleName());
-				listener.act(packet);
+			boolean dispatch;
+			synchronized (lock) {
+				if(state != State.NEW)
+					return;
+				state = State.RUNNING;
+				dispatch = size > 0;
+				scheduled = dispatch;
 			}
-			
-			listener.onDisconnect();
-			
-			MyUtils.debug("Pipe ending: "+readerThreadLabel);
+			MyUtils.debug("Starting pipe flow: "+label);
+			if(dispatch)
+				dispatcher.execute(PacketPipe.this::dispatch);
 		}
 	}
 }
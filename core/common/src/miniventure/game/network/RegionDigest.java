@@ -0,0 +1,70 @@
+package miniventure.game.network;
+
+import java.util.Arrays;
+
+import miniventure.game.network.GameProtocol.EntityDigest;
+import miniventure.game.world.level.Level;
+import miniventure.game.world.level.LevelId;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntIntMap;
+import com.badlogic.gdx.utils.IntIntMap.Entry;
+
+/**
+ * Sums up the entities of a level by region, so the server and a client can find where they disagree without listing every entity.
+ * Regions are a chunk square, and an entity's region comes from its last position sent, quantized, which both ends hold exactly; so both ends always put an entity in the same region.
+ * A region's digest is the sum of a hash of each entity's id, position and sprite in it, so the order entities are added in doesn't matter; a change to an entity's sprite that doesn't move it is caught as well as one that does.
+ */
+public class RegionDigest {
+	
+	private static final int REGION_SIZE = EntityDeltas.quantize(Level.CHUNK_SIZE);
+	
+	private final IntIntMap digests = new IntIntMap();
+	
+	/// the region that holds the given quantized position, packed as x << 16 | y.
+	public static int getRegion(int x, int y) {
+		return Math.floorDiv(x, REGION_SIZE) << 16 | Math.floorDiv(y, REGION_SIZE) & 0xFFFF;
+	}
+	
+	private static int hash(int eid, int x, int y, int z, String[] sprite) {
+		int h = eid * 0x9E3779B9;
+		h = (h ^ x) * 0x85EBCA6B;
+		h = (h ^ y) * 0xC2B2AE35;
+		h = (h ^ z) * 0x9E3779B9;
+		h = (h ^ Arrays.hashCode(sprite)) * 0x85EBCA6B; // strings hash the same on every JVM
+		return h ^ h >>> 16;
+	}
+	
+	/// adds an entity at the given quantized position, with the sprite data it was last sent.
+	public void add(int eid, int x, int y, int z, String[] sprite) {
+		final int region = getRegion(x, y);
+		digests.put(region, digests.get(region, 0) + hash(eid, x, y, z, sprite));
+	}
+	
+	public EntityDigest toPacket(LevelId levelId) {
+		int[] regions = new int[digests.size];
+		int[] values = new int[digests.size];
+		int i = 0;
+		for(Entry entry: digests) {
+			regions[i] = entry.key;
+			values[i] = entry.value;
+			i++;
+		}
+		return new EntityDigest(levelId, regions, values);
+	}
+	
+	/// the regions where this and the given digest differ, including regions that only one of them has entities in.
+	public int[] getMismatches(EntityDigest other) {
+		IntArray mismatches = new IntArray();
+		IntIntMap remaining = new IntIntMap(digests.size);
+		remaining.putAll(digests);
+		for(int i = 0; i < other.regions.length; i++) {
+			final int region = other.regions[i];
+			if(!remaining.containsKey(region) || remaining.remove(region, 0) != other.digests[i])
+				mismatches.add(region);
+		}
+		for(Entry entry: remaining)
+			mismatches.add(entry.key);
+		return mismatches.toArray();
+	}
+}
@@ -0,0 +1,81 @@
+package miniventure.game.network;
+
+import miniventure.game.network.GameProtocol.*;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The queues a server connection holds packets in while its write buffer is too full to take them; lanes earlier in the list are emptied first.
+ * Only packets that nothing else depends on the order of go in the priority lane; everything else keeps its order in the world lane.
+ * Some world packets are only the latest state of one thing, like an entity's facing; a newer one is merged with one that hasn't been sent yet, and the two go out as one at the newer one's place in the lane.
+ */
+public enum SendLane {
+	
+	// chat, pings and tab completion; none of them change what the client knows of the world, so it doesn't matter what they pass, or if a few are lost.
+	PRIORITY(512, true),
+	
+	// everything else, in order.
+	WORLD(8192, false);
+	
+	/// the most packets the lane holds.
+	public final int capacity;
+	/// whether packets that come once the lane is full are dropped; otherwise the client is too far behind to catch up, and is disconnected.
+	public final boolean droppable;
+	
+	SendLane(int capacity, boolean droppable) {
+		this.capacity = capacity;
+		this.droppable = droppable;
+	}
+	
+	public static SendLane of(Object packet) {
+		// inventory and stat updates, and move acks, have to stay behind the spawn data and position updates queued before them.
+		if(packet instanceof Message || packet instanceof Ping || packet instanceof TabResponse)
+			return PRIORITY;
+		return WORLD;
+	}
+	
+	/// packets with equal keys are the state of the same thing, so only the newest needs to be sent. Null if the packet can't be replaced.
+	@Nullable
+	public static Object getReplaceKey(Object packet) {
+		if(packet instanceof PositionUpdate) // the player's own position; one on another level has to stay in order with the level change.
+			return new ReplaceKey(PositionUpdate.class, ((PositionUpdate)packet).levelId);
+		if(packet instanceof MobUpdate)
+			return new ReplaceKey(MobUpdate.class, ((MobUpdate)packet).tag.eid);
+		if(packet instanceof EntityUpdate && ((EntityUpdate)packet).tag != null)
+			return new ReplaceKey(EntityUpdate.class, ((EntityUpdate)packet).tag.eid);
+		return null;
+	}
+	
+	/// what to send in place of a queued packet that a newer one with the same key has come for.
+	public static Object replace(Object queued, Object newer) {
+		if(queued instanceof EntityUpdate) {
+			// each part is optional, so keep any the newer one doesn't have.
+			EntityUpdate old = (EntityUpdate) queued, update = (EntityUpdate) newer;
+			return new EntityUpdate(update.tag,
+				update.positionUpdate == null ? old.positionUpdate : update.positionUpdate,
+				update.spriteUpdate == null ? old.spriteUpdate : update.spriteUpdate
+			);
+		}
+		return newer;
+	}
+	
+	private static class ReplaceKey {
+		private final Class<?> type;
+		private final Object id;
+		
+		private ReplaceKey(Class<?> type, Object id) {
+			this.type = type;
+			this.id = id;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof ReplaceKey)) return false;
+			ReplaceKey other = (ReplaceKey) o;
+			return type == other.type && (id == null ? other.id == null : id.equals(other.id));
+		}
+		
+		@Override
+		public int hashCode() { return type.hashCode() * 31 + (id == null ? 0 : id.hashCode()); }
+	}
+}
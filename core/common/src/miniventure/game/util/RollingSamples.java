@@ -0,0 +1,68 @@
+package miniventure.game.util;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent samples of some measurement in a ring, and gives percentiles over them.
+ * Adding a sample is cheap; getting percentiles sorts a copy, so that's meant for status output, not every frame.
+ */
+public class RollingSamples {
+	
+	private final long[] samples;
+	private int nextIdx = 0;
+	private boolean looped = false;
+	
+	public RollingSamples(int capacity) {
+		samples = new long[capacity];
+	}
+	
+	public synchronized void add(long sample) {
+		samples[nextIdx] = sample;
+		nextIdx = (nextIdx + 1) % samples.length;
+		if(nextIdx == 0)
+			looped = true;
+	}
+	
+	public synchronized int size() { return looped ? samples.length : nextIdx; }
+	
+	public synchronized void clear() {
+		nextIdx = 0;
+		looped = false;
+	}
+	
+	public synchronized long getMax() {
+		long max = 0;
+		for(int i = 0; i < size(); i++)
+			max = Math.max(max, samples[i]);
+		return max;
+	}
+	
+	public synchronized double getAverage() {
+		final int size = size();
+		if(size == 0) return 0;
+		long total = 0;
+		for(int i = 0; i < size; i++)
+			total += samples[i];
+		return total / (double) size;
+	}
+	
+	/// percentiles are given from 0 to 100; the result has the sample at each one, in the same order. Returns all zeros if there are no samples yet.
+	public long[] getPercentiles(float... percentiles) {
+		long[] sorted;
+		synchronized (this) {
+			sorted = Arrays.copyOf(samples, size());
+		}
+		Arrays.sort(sorted);
+		
+		long[] result = new long[percentiles.length];
+		if(sorted.length == 0)
+			return result;
+		
+		for(int i = 0; i < percentiles.length; i++) {
+			int idx = (int) Math.ceil(percentiles[i] / 100f * sorted.length) - 1;
+			result[i] = sorted[MyUtils.clamp(idx, 0, sorted.length - 1)];
+		}
+		
+		return result;
+	}
+}
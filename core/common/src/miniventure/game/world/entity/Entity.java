@@ -74,6 +74,10 @@ public abstract class Entity implements WorldObject {
 		this.renderer = renderer;
 		if(blinker != null)
 			blinker.setRenderer(renderer);
+		// the size may have changed
+		Level level = getLevel();
+		if(level != null)
+			level.entityMoved(this);
 	}
 	public void setBlinker(@Nullable Color blinkColor, float initialDuration, boolean blinkFirst, Blinker blinker) {
 		this.blinker = new BlinkRenderer(renderer, blinkColor, initialDuration, blinkFirst, blinker);
@@ -260,6 +264,9 @@ public abstract class Entity implements WorldObject {
 		this.x = x;
 		this.y = y;
 		this.z = z;
+		
+		if(level != null)
+			level.entityMoved(this);
 	}
 	public void moveTo(@NotNull Tile tile) {
 		Vector2 pos = tile.getCenter();
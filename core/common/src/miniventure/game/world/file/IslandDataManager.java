@@ -71,6 +71,9 @@ public class IslandDataManager {
 		return map.serialize();
 	}
 	
+	// a copy that won't see later events, for saves written after the fact.
+	public IslandDataManager copy() { return new IslandDataManager(Version.CURRENT, serialize()); }
+	
 	/// -- ISLAND DATA EVENTS --
 	
 	public void onGenerate(boolean surface) {
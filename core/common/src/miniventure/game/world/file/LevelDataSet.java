@@ -7,6 +7,7 @@ import miniventure.game.world.level.LevelId;
 import miniventure.game.world.tile.TileStack.TileData;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class LevelDataSet {
 	
@@ -18,13 +19,24 @@ public class LevelDataSet {
 	public final Version dataVersion;
 	public final TileData[][] tileData;
 	public final List<String> entityData;
+	/*
+		The entities in each region of the level (see Level.REGION_SIZE), indexed by region.
+		When saving, only the regions that aren't null are written, and tileData only has to be filled in for those; when loading, it's what each region file had.
+		Null for the whole level means it isn't split into regions: every region is written, with all the entities in the first.
+	 */
+	@Nullable
+	public final List<String>[] regionEntities;
 	
 	public LevelDataSet(@NotNull Version dataVersion, LevelId levelId, int width, int height, TileData[][] tileData, List<String> entityData) {
+		this(dataVersion, levelId, width, height, tileData, entityData, null);
+	}
+	public LevelDataSet(@NotNull Version dataVersion, LevelId levelId, int width, int height, TileData[][] tileData, List<String> entityData, @Nullable List<String>[] regionEntities) {
 		this.dataVersion = dataVersion;
 		this.levelId = levelId;
 		this.width = width;
 		this.height = height;
 		this.tileData = tileData;
 		this.entityData = entityData;
+		this.regionEntities = regionEntities;
 	}
 }
@@ -0,0 +1,361 @@
+package miniventure.game.world.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import miniventure.game.util.Version;
+import miniventure.game.util.Version.VersionFormatException;
+import miniventure.game.world.file.RegionReader.TileSink;
+import miniventure.game.world.level.Level;
+import miniventure.game.world.level.LevelId;
+import miniventure.game.world.tile.TileStack.TileData;
+import miniventure.game.world.tile.TileTypeEnum;
+
+import com.badlogic.gdx.utils.Array;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The binary formats a level is saved in.
+ * Levels are saved in a folder of region files (see Level.REGION_SIZE), so a save only has to write the regions that changed; a header file next to them has the level's size and data version.
+ * The header is written last when a whole level is saved, so a folder without one is from a save that never finished, and the older single file, if any, is still the one read.
+ * Older worlds have each level in one file, in format 1, which is read but no longer written.
+ *
+ * Each region, or a whole level in format 1, has its entities, then a palette of the distinct tile stacks in it, then which palette entry each tile uses, x-major like the level's arrays.
+ * Tile types are written by name, in a table the palette refers to, so the file doesn't depend on the order of TileTypeEnum.
+ * Palette indices take one, two or four bytes each, whichever fits the palette size; it's usually one.
+ *
+ * Layout, in big-endian order; strings are an int byte count (-1 for null) then UTF-8:
+ * <pre>
+ * header:   int magic, int format version (2), string data version, int width, int height, int region size
+ * region:   int magic, int format version (2), string data version, int x, int y, int width, int height, body
+ * format 1: int magic, int format version (1), string data version, int width, int height, body
+ * body:
+ *   int entity count, string[] entities
+ *   int type count, string[] type names
+ *   int palette size, per entry: byte layer count, per layer: short type, string data
+ *   byte index size, then width * height indices
+ * </pre>
+ * Files are read whole into one buffer, and tiles with the same stack share one TileData.
+ */
+class LevelFile {
+	
+	static final String EXTENSION = ".lvl";
+	static final String HEADER_FILE = "level"+EXTENSION;
+	
+	private static final int MAGIC = 0x4D564C56; // "MVLV"
+	// bumped whenever the layout changes; files of other versions are refused rather than misread.
+	private static final int SINGLE_FORMAT_VERSION = 1;
+	private static final int FORMAT_VERSION = 2;
+	
+	private LevelFile() {}
+	
+	static String getRegionFileName(int regionX, int regionY) {
+		return "region-"+regionX+'-'+regionY+EXTENSION;
+	}
+	
+	static void writeHeader(Path path, LevelDataSet levelData) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			writeString(out, levelData.dataVersion.serialize());
+			out.writeInt(levelData.width);
+			out.writeInt(levelData.height);
+			out.writeInt(Level.REGION_SIZE);
+		}
+	}
+	
+	static void writeRegion(Path path, LevelDataSet levelData, int regionX, int regionY, List<String> entities) throws IOException {
+		final int x0 = regionX * Level.REGION_SIZE, y0 = regionY * Level.REGION_SIZE;
+		final int width = Math.min(Level.REGION_SIZE, levelData.width - x0);
+		final int height = Math.min(Level.REGION_SIZE, levelData.height - y0);
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 14))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			writeString(out, levelData.dataVersion.serialize());
+			out.writeInt(x0);
+			out.writeInt(y0);
+			out.writeInt(width);
+			out.writeInt(height);
+			writeBody(out, levelData.tileData, x0, y0, width, height, entities);
+		}
+	}
+	
+	private static void writeBody(DataOutputStream out, TileData[][] tileData, int x0, int y0, int width, int height, List<String> entities) throws IOException {
+		// build the palette, and the type table it uses
+		HashMap<StackKey, Integer> paletteIndices = new HashMap<>();
+		Array<TileData> palette = new Array<>(TileData.class);
+		int[] typeIndices = new int[TileTypeEnum.values().length];
+		Arrays.fill(typeIndices, -1);
+		ArrayList<TileTypeEnum> types = new ArrayList<>();
+		int[] indices = new int[width * height];
+		for(int x = 0; x < width; x++) {
+			for(int y = 0; y < height; y++) {
+				TileData tile = tileData[x0 + x][y0 + y];
+				StackKey key = new StackKey(tile);
+				Integer idx = paletteIndices.get(key);
+				if(idx == null) {
+					idx = palette.size;
+					paletteIndices.put(key, idx);
+					palette.add(tile);
+					for(int ord: tile.typeOrdinals) {
+						if(typeIndices[ord] < 0) {
+							typeIndices[ord] = types.size();
+							types.add(TileTypeEnum.value(ord));
+						}
+					}
+				}
+				indices[x * height + y] = idx;
+			}
+		}
+		
+		out.writeInt(entities.size());
+		for(String entity: entities)
+			writeString(out, entity);
+		
+		out.writeInt(types.size());
+		for(TileTypeEnum type: types)
+			writeString(out, type.name());
+		
+		out.writeInt(palette.size);
+		for(TileData tile: palette) {
+			out.writeByte(tile.typeOrdinals.length);
+			for(int i = 0; i < tile.typeOrdinals.length; i++) {
+				out.writeShort(typeIndices[tile.typeOrdinals[i]]);
+				writeString(out, tile.data[i]);
+			}
+		}
+		
+		final int indexSize = getIndexSize(palette.size);
+		out.writeByte(indexSize);
+		for(int idx: indices) {
+			if(indexSize == 1) out.writeByte(idx);
+			else if(indexSize == 2) out.writeShort(idx);
+			else out.writeInt(idx);
+		}
+	}
+	
+	/// reads the header of a level saved in regions, from the folder it's saved in.
+	static RegionReader openRegions(Path folder, LevelId levelId) throws IOException, WorldFormatException {
+		Path headerPath = folder.resolve(HEADER_FILE);
+		ByteBuffer header = read(headerPath);
+		try {
+			Version dataVersion = readHeader(header, headerPath, FORMAT_VERSION);
+			return new RegionReader(folder, levelId, dataVersion, header.getInt(), header.getInt(), header.getInt());
+		} catch(RuntimeException e) {
+			throw new WorldFormatException("Level file "+headerPath.getFileName()+" is corrupt", e);
+		}
+	}
+	
+	/// reads a level saved in regions whole, for when it isn't going straight into a level.
+	static LevelDataSet readRegions(Path folder, LevelId levelId) throws IOException, WorldFormatException {
+		RegionReader reader = openRegions(folder, levelId);
+		TileData[][] tileData = new TileData[reader.width][reader.height];
+		LevelDataSet levelData = readRegions(reader, new TileSink<TileData>() {
+			@Override
+			public TileData prepare(Version dataVersion, int[] typeOrdinals, String[] data) {
+				return new TileData(dataVersion, typeOrdinals, data);
+			}
+			
+			@Override
+			public void put(int x, int y, TileData stack) { tileData[x][y] = stack; }
+		}, null);
+		return new LevelDataSet(levelData.dataVersion, levelId, levelData.width, levelData.height, tileData, levelData.entityData, levelData.regionEntities);
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	static <S> LevelDataSet readRegions(RegionReader reader, TileSink<S> sink, @Nullable ExecutorService executor) throws IOException, WorldFormatException {
+		final int regionSize = reader.regionSize;
+		final int regionsWide = (reader.width + regionSize - 1) / regionSize;
+		final int regionsHigh = (reader.height + regionSize - 1) / regionSize;
+		List<String>[] regionEntities = new List[regionsWide * regionsHigh];
+		
+		if(executor == null) {
+			for(int rx = 0; rx < regionsWide; rx++)
+				for(int ry = 0; ry < regionsHigh; ry++)
+					regionEntities[rx * regionsHigh + ry] = readRegion(reader, rx, ry, sink);
+		}
+		else {
+			Future<List<String>>[] regions = new Future[regionEntities.length];
+			for(int rx = 0; rx < regionsWide; rx++) {
+				for(int ry = 0; ry < regionsHigh; ry++) {
+					final int regionX = rx, regionY = ry;
+					regions[rx * regionsHigh + ry] = executor.submit(() -> readRegion(reader, regionX, regionY, sink));
+				}
+			}
+			
+			for(int i = 0; i < regions.length; i++) {
+				try {
+					regionEntities[i] = regions[i].get();
+				} catch(ExecutionException e) {
+					// the rest are left to finish on their own; the level they're going into won't be used.
+					if(e.getCause() instanceof WorldFormatException)
+						throw (WorldFormatException) e.getCause();
+					if(e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new WorldFormatException("Error reading level "+reader.levelId, e.getCause());
+				} catch(InterruptedException e) {
+					throw new WorldFormatException("Interrupted while reading level "+reader.levelId, e);
+				}
+			}
+		}
+		
+		ArrayList<String> entityData = new ArrayList<>();
+		for(List<String> entities: regionEntities)
+			entityData.addAll(entities);
+		
+		// regions of another size can't be rewritten one at a time, so the first save of the level writes the whole thing again.
+		return new LevelDataSet(reader.dataVersion, reader.levelId, reader.width, reader.height, null, entityData, regionSize == Level.REGION_SIZE ? regionEntities : null);
+	}
+	
+	// reads the region's tiles into the sink, and returns its entities.
+	private static <S> List<String> readRegion(RegionReader reader, int regionX, int regionY, TileSink<S> sink) throws IOException, WorldFormatException {
+		final int regionSize = reader.regionSize;
+		Path path = reader.folder.resolve(getRegionFileName(regionX, regionY));
+		if(!Files.exists(path))
+			throw new WorldFormatException("Level "+reader.levelId+" is missing region file "+path.getFileName());
+		ByteBuffer in = read(path);
+		try {
+			// if a save was cut short, a region can be of another version than the header; its tiles go by their own.
+			Version regionVersion = readHeader(in, path, FORMAT_VERSION);
+			final int x0 = in.getInt(), y0 = in.getInt(), w = in.getInt(), h = in.getInt();
+			if(x0 != regionX * regionSize || y0 != regionY * regionSize || w != Math.min(regionSize, reader.width - x0) || h != Math.min(regionSize, reader.height - y0))
+				throw new WorldFormatException("Level file "+path.getFileName()+" doesn't cover the region it's named for");
+			return readBody(in, regionVersion, sink, x0, y0, w, h);
+		} catch(RuntimeException e) {
+			throw new WorldFormatException("Level file "+path.getFileName()+" is corrupt", e);
+		}
+	}
+	
+	/// reads a level saved in a single file, as worlds were before regions.
+	static LevelDataSet read(Path path, LevelId levelId) throws IOException, WorldFormatException {
+		ByteBuffer in = read(path);
+		try {
+			final Version dataVersion = readHeader(in, path, SINGLE_FORMAT_VERSION);
+			final int width = in.getInt();
+			final int height = in.getInt();
+			TileData[][] tileData = new TileData[width][height];
+			List<String> entityData = readBody(in, dataVersion, new TileSink<TileData>() {
+				@Override
+				public TileData prepare(Version dataVersion, int[] typeOrdinals, String[] data) {
+					return new TileData(dataVersion, typeOrdinals, data);
+				}
+				
+				@Override
+				public void put(int x, int y, TileData stack) { tileData[x][y] = stack; }
+			}, 0, 0, width, height);
+			return new LevelDataSet(dataVersion, levelId, width, height, tileData, entityData);
+		} catch(RuntimeException e) { // BufferUnderflowException, or bad indices or type names
+			throw new WorldFormatException("Level file "+path.getFileName()+" is corrupt", e);
+		}
+	}
+	
+	private static ByteBuffer read(Path path) throws IOException {
+		// read in one go rather than mapped; a mapped file can't be replaced on Windows until the map is collected, and saves replace it.
+		return ByteBuffer.wrap(Files.readAllBytes(path));
+	}
+	
+	private static Version readHeader(ByteBuffer in, Path path, int expectedFormat) throws WorldFormatException {
+		if(in.getInt() != MAGIC)
+			throw new WorldFormatException("Level file "+path.getFileName()+" is not a level file");
+		final int format = in.getInt();
+		if(format != expectedFormat)
+			throw new WorldFormatException("Level file "+path.getFileName()+" has unknown format version "+format);
+		
+		try {
+			return new Version(readString(in));
+		} catch(VersionFormatException e) {
+			throw new WorldFormatException("Level file "+path.getFileName()+" has a bad data version", e);
+		}
+	}
+	
+	// reads the entities, which are returned, and the tiles, which go to the sink as being in the given area.
+	@SuppressWarnings("unchecked")
+	private static <S> List<String> readBody(ByteBuffer in, Version dataVersion, TileSink<S> sink, int x0, int y0, int width, int height) {
+		final int entityCount = in.getInt();
+		ArrayList<String> entityData = new ArrayList<>(entityCount);
+		for(int i = 0; i < entityCount; i++)
+			entityData.add(readString(in));
+		
+		int[] typeOrdinals = new int[in.getInt()];
+		for(int i = 0; i < typeOrdinals.length; i++)
+			typeOrdinals[i] = TileTypeEnum.valueOf(readString(in)).ordinal();
+		
+		Object[] palette = new Object[in.getInt()];
+		for(int p = 0; p < palette.length; p++) {
+			final int layers = in.get();
+			int[] ordinals = new int[layers];
+			String[] data = new String[layers];
+			for(int i = 0; i < layers; i++) {
+				ordinals[i] = typeOrdinals[in.getShort()];
+				data[i] = readString(in);
+			}
+			palette[p] = sink.prepare(dataVersion, ordinals, data);
+		}
+		
+		final int indexSize = in.get();
+		for(int x = 0; x < width; x++) {
+			for(int y = 0; y < height; y++) {
+				final int idx = indexSize == 1 ? in.get() & 0xFF : indexSize == 2 ? in.getShort() & 0xFFFF : in.getInt();
+				sink.put(x0 + x, y0 + y, (S) palette[idx]);
+			}
+		}
+		
+		return entityData;
+	}
+	
+	private static int getIndexSize(int paletteSize) {
+		return paletteSize <= 1 << 8 ? 1 : paletteSize <= 1 << 16 ? 2 : 4;
+	}
+	
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		if(str == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(ByteBuffer in) {
+		final int length = in.getInt();
+		if(length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static class StackKey {
+		private final TileData tile;
+		private final int hash;
+		
+		private StackKey(TileData tile) {
+			this.tile = tile;
+			hash = Arrays.hashCode(tile.typeOrdinals) * 31 + Arrays.hashCode(tile.data);
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof StackKey)) return false;
+			StackKey other = (StackKey) o;
+			return hash == other.hash && Arrays.equals(tile.typeOrdinals, other.tile.typeOrdinals) && Arrays.equals(tile.data, other.tile.data);
+		}
+		
+		@Override
+		public int hashCode() { return hash; }
+	}
+}
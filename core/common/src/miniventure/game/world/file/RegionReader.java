@@ -0,0 +1,46 @@
+package miniventure.game.world.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+
+import miniventure.game.util.Version;
+import miniventure.game.world.level.LevelId;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads a level saved in regions straight into wherever the level keeps its tiles, without building the whole level as TileData first.
+ * Regions don't depend on each other, so they can be decoded in parallel.
+ */
+public class RegionReader {
+	
+	/**
+	 * Takes the tiles of a level as they're read. Each region's distinct stacks are prepared once, then put on every tile in the region that has them.
+	 * When regions are read in parallel, both are called from several threads at once, though never for the same tile.
+	 */
+	public interface TileSink<S> {
+		S prepare(Version dataVersion, int[] typeOrdinals, String[] data);
+		void put(int x, int y, S stack);
+	}
+	
+	public final LevelId levelId;
+	public final Version dataVersion;
+	public final int width, height;
+	final Path folder;
+	final int regionSize;
+	
+	RegionReader(Path folder, LevelId levelId, Version dataVersion, int width, int height, int regionSize) {
+		this.folder = folder;
+		this.levelId = levelId;
+		this.dataVersion = dataVersion;
+		this.width = width;
+		this.height = height;
+		this.regionSize = regionSize;
+	}
+	
+	/// reads every region into the sink, on the executor if there is one, or else on this thread. The data set returned has the entities, but no tile data; that's all gone to the sink.
+	public <S> LevelDataSet read(TileSink<S> sink, @Nullable ExecutorService executor) throws IOException, WorldFormatException {
+		return LevelFile.readRegions(this, sink, executor);
+	}
+}
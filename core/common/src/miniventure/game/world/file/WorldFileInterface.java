@@ -5,6 +5,9 @@ import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -14,7 +17,10 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
@@ -25,6 +31,7 @@ import miniventure.game.util.SerialHashMap;
 import miniventure.game.util.Version;
 import miniventure.game.util.Version.VersionFormatException;
 import miniventure.game.util.function.ValueAction;
+import miniventure.game.world.level.Level;
 import miniventure.game.world.level.LevelId;
 import miniventure.game.world.management.TimeOfDay;
 import miniventure.game.world.tile.TileStack.TileData;
@@ -57,18 +64,30 @@ public class WorldFileInterface {
 	
 	private static final String VERSION_FILE = "version.txt";
 	
+	// each player is saved in a file of their own in this folder, so saving one doesn't mean saving them all.
+	private static final String PLAYER_FOLDER = "players";
+	// all the players used to be saved in this one file; it's only read, and split into the folder above, when a world that has it is opened.
 	private static final String PLAYER_FILE = "players.txt";
 	private static final String GAME_FILE = "game.txt";
 	
-	private static final String ISLAND_FILE_REGEX = "island-\\d+-(surface|caves)\\.txt";
-	private static String getIslandFileName(LevelId id) {
-		return getIslandFileName(id.getIslandId(), id.isSurface());
+	// levels are saved in folders of LevelFile regions; the single binary and text files are from before that, and are only read, until the level is next saved.
+	private static final String ISLAND_FILE_REGEX = "island-\\d+-(surface|caves)(\\.(txt|lvl))?";
+	private static String getIslandFolderName(LevelId id) {
+		return getIslandFileBase(id.getIslandId(), id.isSurface());
 	}
-	private static String getIslandFileName(int id, boolean surface) {
-		return "island-"+(id<10?"0":"")+id+'-'+(surface?"surface":"caves")+".txt";
+	private static String getSingleIslandFileName(LevelId id) {
+		return getIslandFileBase(id.getIslandId(), id.isSurface())+LevelFile.EXTENSION;
+	}
+	private static String getTextIslandFileName(LevelId id) {
+		return getIslandFileBase(id.getIslandId(), id.isSurface())+".txt";
+	}
+	private static String getIslandFileBase(int id, boolean surface) {
+		return "island-"+(id<10?"0":"")+id+'-'+(surface?"surface":"caves");
 	}
 	
 	private static final String LOCK_FILE = "session.lock";
+	// files are written under this suffix first, then moved over the real file; one left behind is from a save that never finished.
+	private static final String TEMP_SUFFIX = ".tmp";
 	
 	private static Path dataImportSource; // stores the source location of auto-imported game data
 	public static Path getDataImportSource() { return dataImportSource; }
@@ -246,13 +265,14 @@ public class WorldFileInterface {
 		return worldData;
 	}
 	
-	public static boolean saveWorld(WorldDataSet worldData) {
+	/// returns the number of bytes written, or -1 if any file couldn't be.
+	public static long saveWorld(WorldDataSet worldData) {
 		Path main = worldData.worldFile;
-		boolean good;
+		long bytes;
 		
-		good = writeFile(main.resolve(VERSION_FILE), list -> list.add(Version.CURRENT.serialize()));
+		bytes = writeFile(main.resolve(VERSION_FILE), list -> list.add(Version.CURRENT.serialize()));
 		
-		good = writeFile(main.resolve(GAME_FILE), list -> {
+		bytes = addBytes(bytes, writeFile(main.resolve(GAME_FILE), list -> {
 			SerialHashMap map = new SerialHashMap();
 			map.add("seed", worldData.seed);
 			map.add("gt", (int)worldData.gameTime); // accuracy isn't worth the extra space
@@ -264,19 +284,55 @@ public class WorldFileInterface {
 			for(IslandDataManager island: worldData.islandManagers)
 				list.add(island.serialize());
 			
-		}) && good;
+		}));
 		
 		for(LevelDataSet levelData: worldData.loadedLevels) {
-			good = saveLevel(main, levelData) && good;
+			bytes = addBytes(bytes, saveLevel(main, levelData));
 		}
 		
-		good = writeFile(main.resolve(PLAYER_FILE), list -> {
-			for(PlayerData p: worldData.playerInfo) {
-				p.serialize(list);
-			}
-		}) && good;
+		// only the players given are written; the rest are as they were when last saved.
+		for(PlayerData p: worldData.playerInfo) {
+			bytes = addBytes(bytes, savePlayer(main, p));
+		}
 		
-		return good;
+		return bytes;
+	}
+	
+	/// writes the one player's file; returns its size, or -1 if it couldn't be written.
+	public static long savePlayer(Path worldFolder, PlayerData player) {
+		try {
+			Files.createDirectories(worldFolder.resolve(PLAYER_FOLDER));
+		} catch(IOException e) {
+			System.err.println("error creating player folder");
+			e.printStackTrace();
+			return -1;
+		}
+		return writeFile(worldFolder.resolve(PLAYER_FOLDER).resolve(getPlayerFileName(player.name)), player::serialize);
+	}
+	
+	// names can have any characters, and some file systems don't tell case apart, so anything but lowercase letters, digits, '-' and '_' is written as %XX, in UTF-8.
+	private static String getPlayerFileName(String name) {
+		StringBuilder str = new StringBuilder(name.length() + 4);
+		for(byte b: name.getBytes(StandardCharsets.UTF_8)) {
+			if(b >= 'a' && b <= 'z' || b >= '0' && b <= '9' || b == '-' || b == '_')
+				str.append((char) b);
+			else
+				str.append('%').append(String.format("%02X", b & 0xFF));
+		}
+		return str.append(".txt").toString();
+	}
+	
+	private static PlayerData readPlayer(LinkedList<String> lines) {
+		String name = lines.pop();
+		String passhash = lines.pop();
+		LevelId level = LevelId.getId(Integer.parseInt(lines.pop()));
+		String data = lines.pop();
+		boolean op = Boolean.parseBoolean(lines.pop());
+		return new PlayerData(name, passhash, data, level, op);
+	}
+	
+	private static long addBytes(long total, long written) {
+		return total < 0 || written < 0 ? -1 : total + written;
 	}
 	
 	// todo add a ProgressLogger parameter so load progress can be tracked... assuming the whole method takes more than half a second, at least. -- which I've confirmed it does.
@@ -319,19 +375,31 @@ public class WorldFileInterface {
 			// }
 			
 			// read player data
-			readFile(folder.resolve(PLAYER_FILE), lines);
-			PlayerData[] players = new PlayerData[lines.size() / 5];
-			
-			for(int i = 0; i < players.length; i++) {
-				String name = lines.pop();
-				String passhash = lines.pop();
-				LevelId level = LevelId.getId(Integer.parseInt(lines.pop()));
-				String data = lines.pop();
-				boolean op = Boolean.parseBoolean(lines.pop());
-				players[i] = new PlayerData(name, passhash, data, level, op);
+			LinkedHashMap<String, PlayerData> players = new LinkedHashMap<>();
+			final Path playerFolder = folder.resolve(PLAYER_FOLDER);
+			if(Files.isDirectory(playerFolder)) {
+				try(DirectoryStream<Path> playerFiles = Files.newDirectoryStream(playerFolder, "*.txt")) {
+					for(Path playerFile: playerFiles) {
+						readFile(playerFile, lines);
+						PlayerData player = readPlayer(lines);
+						players.put(player.name, player);
+					}
+				}
+			}
+			final Path playerList = folder.resolve(PLAYER_FILE);
+			if(Files.exists(playerList)) {
+				// from before players had files of their own; split up now, so no one is left only in the list once players are saved one at a time.
+				readFile(playerList, lines);
+				while(lines.size() >= 5) {
+					PlayerData player = readPlayer(lines);
+					if(!players.containsKey(player.name) && savePlayer(folder, player) < 0)
+						throw new IOException("could not move player "+player.name+" out of "+PLAYER_FILE);
+					players.putIfAbsent(player.name, player);
+				}
+				Files.delete(playerList);
 			}
 			
-			return WorldDataSet.fromFile(folder, lockRef, seed, gameTime, daytime, version, players, islands);
+			return WorldDataSet.fromFile(folder, lockRef, seed, gameTime, daytime, version, players.values().toArray(new PlayerData[0]), islands);
 		} catch(FileNotFoundException e) {
 			throw new WorldFormatException("Missing file", e);
 		} catch(IOException e) {
@@ -349,8 +417,51 @@ public class WorldFileInterface {
 		}
 	}
 	
-	public static boolean saveLevel(Path worldFolder, LevelDataSet levelData) {
-		return writeFile(worldFolder.resolve(getIslandFileName(levelData.levelId)), lines -> {
+	/// writes the regions of the level that its data set has, or all of them if it isn't split into regions; returns the number of bytes written, or -1 if any of it couldn't be.
+	public static long saveLevel(Path worldFolder, LevelDataSet levelData) {
+		final Path folder = worldFolder.resolve(getIslandFolderName(levelData.levelId));
+		final int regionsWide = Level.getRegionsAcross(levelData.width);
+		final int regionsHigh = Level.getRegionsAcross(levelData.height);
+		long bytes = 0;
+		try {
+			Files.createDirectories(folder);
+			boolean whole = true;
+			for(int rx = 0; rx < regionsWide; rx++) {
+				for(int ry = 0; ry < regionsHigh; ry++) {
+					final int region = rx * regionsHigh + ry;
+					final List<String> entities;
+					if(levelData.regionEntities == null)
+						entities = region == 0 ? levelData.entityData : Collections.emptyList();
+					else if(levelData.regionEntities[region] == null) {
+						whole = false;
+						continue;
+					}
+					else
+						entities = levelData.regionEntities[region];
+					
+					final int regionX = rx, regionY = ry;
+					bytes += replaceFile(folder.resolve(LevelFile.getRegionFileName(rx, ry)), file -> LevelFile.writeRegion(file, levelData, regionX, regionY, entities));
+				}
+			}
+			
+			if(whole) {
+				// last, so the folder isn't read until every region is in it; until then the old files are.
+				bytes += replaceFile(folder.resolve(LevelFile.HEADER_FILE), file -> LevelFile.writeHeader(file, levelData));
+				// the folder is read first now, but the old files would only be taking up space.
+				Files.deleteIfExists(worldFolder.resolve(getSingleIslandFileName(levelData.levelId)));
+				Files.deleteIfExists(worldFolder.resolve(getTextIslandFileName(levelData.levelId)));
+			}
+		} catch(IOException e) {
+			System.err.println("error writing level files");
+			e.printStackTrace();
+			return -1;
+		}
+		return bytes;
+	}
+	
+	/// saves the level in the text format from before LevelFile; only for comparing the two.
+	public static long saveTextLevel(Path worldFolder, LevelDataSet levelData) {
+		return writeFile(worldFolder.resolve(getTextIslandFileName(levelData.levelId)), lines -> {
 			SerialHashMap map = new SerialHashMap();
 			map.add("w", levelData.width);
 			map.add("h", levelData.height);
@@ -365,35 +476,57 @@ public class WorldFileInterface {
 		});
 	}
 	
+	/// opens a level saved in regions, to be read straight into a level; null if it's saved in an older format, which loadLevel has to read whole.
+	@Nullable
+	public static RegionReader openLevel(Path worldFolder, LevelId levelId) throws WorldFormatException {
+		Path levelFolder = worldFolder.resolve(getIslandFolderName(levelId));
+		if(!Files.exists(levelFolder.resolve(LevelFile.HEADER_FILE)))
+			return null;
+		try {
+			return LevelFile.openRegions(levelFolder, levelId);
+		} catch(IOException e) {
+			throw new WorldFormatException("Error loading level", e);
+		}
+	}
+	
 	// note, the version is only ever not the current version when updating old level files.
 	public static LevelDataSet loadLevel(Path worldFolder, LevelId levelId, Version dataVersion) throws WorldFormatException {
+		Path levelFolder = worldFolder.resolve(getIslandFolderName(levelId));
+		Path levelFile = worldFolder.resolve(getSingleIslandFileName(levelId));
 		try {
-			LinkedList<String> lines = new LinkedList<>();
-			String filename = getIslandFileName(levelId);
-			readFile(worldFolder.resolve(filename), lines);
-			
-			SerialHashMap map = new SerialHashMap(lines.pop());
-			final int width = map.get("w", Integer::parseInt);
-			final int height = map.get("h", Integer::parseInt);
-			final int entityCount = map.get("ec", Integer::parseInt);
-			
-			ArrayList<String> entityData = new ArrayList<>(entityCount);
-			for(int i = 0; i < entityCount; i++)
-				entityData.add(lines.pop());
-			
-			TileData[][] tileData = new TileData[width][height];
-			// TODO here is where I can check for compressed tiles
-			for(int xp = 0; xp < width; xp++)
-				for(int yp = 0; yp < height; yp++)
-					tileData[xp][yp] = new TileData(dataVersion, lines.pop());
-			
-			return new LevelDataSet(dataVersion, levelId, width, height, tileData, entityData);
-			
+			if(Files.exists(levelFolder.resolve(LevelFile.HEADER_FILE)))
+				return LevelFile.readRegions(levelFolder, levelId);
+			else if(Files.exists(levelFile))
+				return LevelFile.read(levelFile, levelId);
+			else
+				return loadTextLevel(worldFolder, levelId, dataVersion);
 		} catch(IOException e) {
 			throw new WorldFormatException("Error loading level", e);
 		}
 	}
 	
+	private static LevelDataSet loadTextLevel(Path worldFolder, LevelId levelId, Version dataVersion) throws IOException {
+		LinkedList<String> lines = new LinkedList<>();
+		String filename = getTextIslandFileName(levelId);
+		readFile(worldFolder.resolve(filename), lines);
+		
+		SerialHashMap map = new SerialHashMap(lines.pop());
+		final int width = map.get("w", Integer::parseInt);
+		final int height = map.get("h", Integer::parseInt);
+		final int entityCount = map.get("ec", Integer::parseInt);
+		
+		ArrayList<String> entityData = new ArrayList<>(entityCount);
+		for(int i = 0; i < entityCount; i++)
+			entityData.add(lines.pop());
+		
+		TileData[][] tileData = new TileData[width][height];
+		for(int xp = 0; xp < width; xp++)
+			for(int yp = 0; yp < height; yp++)
+				tileData[xp][yp] = new TileData(dataVersion, lines.pop());
+		
+		return new LevelDataSet(dataVersion, levelId, width, height, tileData, entityData);
+	}
+	
 	// removes all possibly useful files from the worldFiles set, so that remaining files are considered "extra".
 	// returns a collection of the names of the missing files.
 	static Collection<String> validateWorldFiles(Set<Path> worldFiles) {
@@ -401,15 +534,23 @@ public class WorldFileInterface {
 		
 		// todo add the surface and cavern files for every island in IslandType (except menu)
 		for(String file: new String[] {
-				VERSION_FILE, GAME_FILE, PLAYER_FILE,
-				getIslandFileName(FIRST_ISLAND_ID, true)
+				VERSION_FILE, GAME_FILE
 		})
 			if(!worldFiles.removeIf(path -> path.getFileName().toString().equals(file)))
 				// this executes if the above command doesn't remove the file, i.e. the file wasn't found
 				missing.add(file);
 		
+		// the starting island can be in either format.
+		final String firstIsland = getIslandFileBase(FIRST_ISLAND_ID, true);
+		if(!worldFiles.removeIf(path -> path.getFileName().toString().matches(firstIsland+"(\\.(txt|lvl))?")))
+			missing.add(firstIsland);
+		
 		// remove all files that look like an island file so they aren't considered "extra"
 		worldFiles.removeIf(path -> path.getFileName().toString().matches(ISLAND_FILE_REGEX));
+		// a world without players has no player folder, and an older one has the list instead.
+		worldFiles.removeIf(path -> path.getFileName().toString().equals(PLAYER_FOLDER) || path.getFileName().toString().equals(PLAYER_FILE));
+		// the same goes for what's left of an unfinished save; the real files it was replacing are still whole.
+		worldFiles.removeIf(path -> path.getFileName().toString().endsWith(TEMP_SUFFIX));
 		
 		return missing;
 	}
@@ -433,21 +574,39 @@ public class WorldFileInterface {
 		return true;*/
 	}
 	
-	private static boolean writeFile(Path path, @NotNull ValueAction<LinkedList<String>> populator) {
-		try (BufferedWriter writer = Files.newBufferedWriter(path)) {
-			
+	// returns the size of the file written, or -1 if it couldn't be.
+	private static long writeFile(Path path, @NotNull ValueAction<LinkedList<String>> populator) {
+		try {
 			LinkedList<String> data = new LinkedList<>();
 			populator.act(data);
-			for(String s: data) {
-				writer.write(s);
-				writer.newLine();
-			}
-			
+			return replaceFile(path, file -> {
+				try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+					for(String s: data) {
+						writer.write(s);
+						writer.newLine();
+					}
+				}
+			});
 		} catch(IOException e) {
 			System.err.println("error writing file");
 			e.printStackTrace();
-			return false;
+			return -1;
+		}
+	}
+	
+	private interface FileWriter {
+		void write(Path file) throws IOException;
+	}
+	
+	// writes the file next to where it goes, then moves it into place, so a save that dies partway leaves the old file whole rather than half of the new one. Returns the size of the file.
+	private static long replaceFile(Path path, FileWriter writer) throws IOException {
+		Path temp = path.resolveSibling(path.getFileName()+TEMP_SUFFIX);
+		writer.write(temp);
+		try {
+			Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
 		}
-		return true;
+		return Files.size(path);
 	}
 }
@@ -2,9 +2,9 @@ package miniventure.game.world.level;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.function.Predicate;
 
 import miniventure.game.util.MyUtils;
-import miniventure.game.util.ValueWrapper;
 import miniventure.game.util.function.ValueAction;
 import miniventure.game.util.pool.RectPool;
 import miniventure.game.util.pool.VectorPool;
@@ -30,13 +30,23 @@ import org.jetbrains.annotations.Nullable;
 public abstract class Level implements Taggable<Level> {
 	
 	// public static final int X_LOAD_RADIUS = 4, Y_LOAD_RADIUS = 2;
+	// levels are simulated on the server, and streamed to clients, in squares of this many tiles.
+	public static final int CHUNK_SIZE = 20;
+	// and saved in squares of this many, so a save only has to write the squares that changed. Regions are indexed x-major, like tiles.
+	public static final int REGION_SIZE = CHUNK_SIZE * 2;
+	
+	public static int getRegionsAcross(int tiles) { return (tiles + REGION_SIZE - 1) / REGION_SIZE; }
 	
 	private final LevelId levelId;
 	private final int width;
 	private final int height;
 	
 	@NotNull private final WorldManager world;
-	@NotNull private final Tile[][] tiles;
+	// null if the subclass keeps its tiles some other way, and overrides fetchTile.
+	@Nullable private final Tile[][] tiles;
+	@NotNull private final SpatialGrid<Entity> entityGrid;
+	// the players in the entity grid, kept separately so finding the closest player only has to look at players.
+	private final Array<Player> players = new Array<>(false, 4, Player.class);
 	// final SynchronizedAccessor<Map<Point, Chunk>> loadedChunks = new SynchronizedAccessor<>(Collections.synchronizedMap(new HashMap<>(X_LOAD_RADIUS*2*Y_LOAD_RADIUS*2)));
 	//private int tileCount;
 	private int mobCount;
@@ -62,17 +72,22 @@ public abstract class Level implements Taggable<Level> {
 		Tile get(Level level, int x, int y);
 	}
 	
-	private Level(@NotNull WorldManager world, LevelId levelId, int width, int height) {
+	private Level(@NotNull WorldManager world, LevelId levelId, int width, int height, boolean storeTiles) {
 		this.world = world;
 		this.levelId = levelId;
 		this.width = width;
 		this.height = height;
 		
-		tiles = new Tile[width][height];
+		tiles = storeTiles ? new Tile[width][height] : null;
+		entityGrid = new SpatialGrid<>(width, height);
+	}
+	
+	protected Level(@NotNull WorldManager world, LevelId levelId, int width, int height) {
+		this(world, levelId, width, height, false);
 	}
 	
 	protected Level(@NotNull WorldManager world, LevelId levelId, @NotNull TileTypeEnum[][][] tileTypes, @NotNull TileMaker tileFetcher) {
-		this(world, levelId, tileTypes.length, tileTypes.length == 0 ? 0 : tileTypes[0].length);
+		this(world, levelId, tileTypes.length, tileTypes.length == 0 ? 0 : tileTypes[0].length, true);
 		
 		MyUtils.debug(world.getClass().getSimpleName()+": fetching level "+levelId+" initial tile data...");
 		for(int x = 0; x < tiles.length; x++)
@@ -83,7 +98,7 @@ public abstract class Level implements Taggable<Level> {
 	}
 	
 	protected Level(@NotNull WorldManager world, LevelId levelId, TileData[][] tileData, TileLoader tileFetcher) {
-		this(world, levelId, tileData.length, tileData.length == 0 ? 0 : tileData[0].length);
+		this(world, levelId, tileData.length, tileData.length == 0 ? 0 : tileData[0].length, true);
 		
 		MyUtils.debug(world.getClass().getSimpleName()+": loading level "+levelId+" tile data...");
 		for(int x = 0; x < tileData.length; x++) {
@@ -96,7 +111,7 @@ public abstract class Level implements Taggable<Level> {
 	}
 	
 	protected Level(@NotNull WorldManager world, LevelId levelId, int width, int height, TileFetcher tileFetcher) {
-		this(world, levelId, width, height);
+		this(world, levelId, width, height, true);
 		MyUtils.debug(world.getClass().getSimpleName()+": loading level "+levelId+" tile placeholders...");
 		for(int x = 0; x < width; x++) {
 			for(int y = 0; y < height; y++) {
@@ -116,12 +131,47 @@ public abstract class Level implements Taggable<Level> {
 	
 	public abstract void forEachEntity(ValueAction<Entity> action);
 	
+	// these keep the spatial index of entities in sync with the level; they should be called whenever an entity is added to, moves in, or is removed from this level.
+	public void entityMoved(@NotNull Entity entity) {
+		if(entityGrid.update(entity) && entity instanceof Player) {
+			synchronized (players) {
+				players.add((Player) entity);
+			}
+		}
+	}
+	public void entityRemoved(@NotNull Entity entity) {
+		if(entityGrid.remove(entity) && entity instanceof Player) {
+			synchronized (players) {
+				players.removeValue((Player) entity, true);
+			}
+		}
+	}
+	public void clearEntityGrid() {
+		entityGrid.clear();
+		synchronized (players) {
+			players.clear();
+		}
+	}
+	
+	public int getPlayerCount() {
+		synchronized (players) {
+			return players.size;
+		}
+	}
+	
+	protected void forEachPlayer(ValueAction<Player> action) {
+		synchronized (players) {
+			for(int i = 0; i < players.size; i++)
+				action.act(players.get(i));
+		}
+	}
+	
 	public TileData[][] getTileData(boolean save) {
 		TileData[][] data = new TileData[width][height];
 		
-		for(int x = 0; x < tiles.length; x++)
-			for(int y = 0; y < tiles[x].length; y++)
-				data[x][y] = new TileData(tiles[x][y], save);
+		for(int x = 0; x < width; x++)
+			for(int y = 0; y < height; y++)
+				data[x][y] = new TileData(getTile(x, y), save);
 		
 		return data;
 	}
@@ -186,12 +236,16 @@ public abstract class Level implements Taggable<Level> {
 	public void update(float delta) {
 		mobCount = 0;
 		forEachEntity(e -> {
-			e.update(delta);
+			if(prepareUpdate(e, delta))
+				e.update(delta);
 			if(e.isMob())
 				mobCount++;
 		});
 	}
 	
+	// called just before each entity is updated; returning false skips the entity for this frame.
+	protected boolean prepareUpdate(Entity e, float delta) { return true; }
+	
 	public Tile getTile(Rectangle rect) { return getTile(rect, false); }
 	public Tile getTile(Rectangle rect, boolean free) {
 		Tile tile = getTile(rect.getCenter(VectorPool.POOL.obtain()), true);
@@ -214,7 +268,7 @@ public abstract class Level implements Taggable<Level> {
 		// int xt = (int)x;//MyUtils.clamp((int)x, 0, getWidth()-1);
 		// int yt = (int)y;//MyUtils.clamp((int)y, 0, getHeight()-1);
 		
-		return tiles[x][y];
+		return fetchTile(x, y);
 		
 		// int chunkX = xt / Chunk.SIZE;
 		// int chunkY = yt / Chunk.SIZE;
@@ -228,6 +282,12 @@ public abstract class Level implements Taggable<Level> {
 		// return null;
 	}
 	
+	// called with coordinates already checked to be in bounds.
+	protected Tile fetchTile(int x, int y) {
+		//noinspection ConstantConditions // levels without a tile array override this.
+		return tiles[x][y];
+	}
+	
 	public Tile getClosestTile(Rectangle rect) { return getClosestTile(rect, false); }
 	public Tile getClosestTile(Rectangle rect, boolean free) {
 		Tile tile = getClosestTile(rect.getCenter(VectorPool.POOL.obtain()), true);
@@ -306,12 +366,7 @@ public abstract class Level implements Taggable<Level> {
 	public Array<Entity> getOverlappingEntities(Rectangle rect, Entity... exclude) { return getOverlappingEntities(rect, false, exclude); }
 	public Array<Entity> getOverlappingEntities(Rectangle rect, boolean free, Entity... exclude) {
 		Array<Entity> overlapping = new Array<>(Entity.class);
-		forEachEntity(entity -> {
-			Rectangle bounds = entity.getBounds();
-			if(bounds.overlaps(rect))
-				overlapping.add(entity);
-			RectPool.POOL.free(bounds);
-		});
+		entityGrid.getOverlapping(rect, overlapping);
 		
 		if(exclude.length > 0) {
 			for(Entity e: exclude)
@@ -322,6 +377,25 @@ public abstract class Level implements Taggable<Level> {
 		return overlapping;
 	}
 	
+	// entities with their center within the given radius of the given position.
+	public Array<Entity> getNearbyEntities(Vector2 pos, float radius) { return getNearbyEntities(pos, radius, false); }
+	public Array<Entity> getNearbyEntities(Vector2 pos, float radius, boolean free) {
+		Array<Entity> nearby = new Array<>(Entity.class);
+		entityGrid.getInRadius(pos, radius, nearby);
+		if(free) VectorPool.POOL.free(pos);
+		return nearby;
+	}
+	
+	// maxDist < 0 means no limit.
+	@Nullable
+	public Entity getClosestEntity(Vector2 pos, float maxDist, @Nullable Predicate<Entity> filter) { return getClosestEntity(pos, maxDist, filter, false); }
+	@Nullable
+	public Entity getClosestEntity(Vector2 pos, float maxDist, @Nullable Predicate<Entity> filter, boolean free) {
+		Entity closest = entityGrid.getNearest(pos, maxDist, filter);
+		if(free) VectorPool.POOL.free(pos);
+		return closest;
+	}
+	
 	public Array<WorldObject> getOverlappingObjects(Rectangle area) { return getOverlappingObjects(area, false); }
 	public Array<WorldObject> getOverlappingObjects(Rectangle area, boolean free) {
 		Array<WorldObject> objects = new Array<>(WorldObject.class);
@@ -358,8 +432,9 @@ public abstract class Level implements Taggable<Level> {
 		ArrayList<Tile> matches = new ArrayList<>();
 		for(int x = 0; x < width; x++) {
 			for(int y = 0; y < height; y++) {
-				if(tiles[x][y].getType().getTypeEnum() == type)
-					matches.add(tiles[x][y]);
+				Tile tile = fetchTile(x, y);
+				if(tile.getType().getTypeEnum() == type)
+					matches.add(tile);
 			}
 		}
 		
@@ -369,22 +444,22 @@ public abstract class Level implements Taggable<Level> {
 	@Nullable
 	public Player getClosestPlayer(final Vector2 pos) { return getClosestPlayer(pos, false); }
 	public Player getClosestPlayer(final Vector2 pos, boolean free) {
-		final ValueWrapper<Float> minDist = new ValueWrapper<>(-1f);
-		final ValueWrapper<Player> closest = new ValueWrapper<>(null);
-		forEachEntity(e -> {
-			if(e instanceof Player) {
-				Player p = (Player) e;
+		Player closest = null;
+		float minDist = -1;
+		synchronized (players) {
+			for(int i = 0; i < players.size; i++) {
+				Player p = players.get(i);
 				float dist = p.getDistanceTo(pos);
-				if(minDist.value < 0 || minDist.value > dist) {
-					minDist.value = dist;
-					closest.value = p;
+				if(minDist < 0 || minDist > dist) {
+					minDist = dist;
+					closest = p;
 				}
 			}
-		});
+		}
 		
 		if(free) VectorPool.POOL.free(pos);
 		
-		return closest.value;
+		return closest;
 	}
 	
 	// public boolean chunkExists(int cx, int cy) { return tileExists(cx * Chunk.SIZE, cy * Chunk.SIZE); }
@@ -0,0 +1,172 @@
+package miniventure.game.world.level;
+
+import java.util.function.Predicate;
+
+import miniventure.game.util.pool.RectPool;
+import miniventure.game.util.pool.VectorPool;
+import miniventure.game.world.Boundable;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectIntMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A uniform grid over a level, used to find the objects in an area without looking at every object on the level.
+ * Objects are filed under the cell that contains the bottom-left corner of their bounds; queries widen their search by the largest object size seen so far, and then check actual bounds.
+ * The grid must be told whenever an object moves, or it will be found in its old position.
+ */
+public class SpatialGrid<T extends Boundable> {
+	
+	public static final int CELL_SIZE = 4; // in tiles
+	
+	private final int cols, rows;
+	private final Array<T>[] cells;
+	private final ObjectIntMap<T> objectCells;
+	
+	// the largest width/height of any object added; objects can extend this far out of their cell.
+	private float maxExtent = 1;
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public SpatialGrid(int width, int height) {
+		cols = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+		rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+		cells = (Array<T>[]) new Array[cols * rows];
+		objectCells = new ObjectIntMap<>();
+	}
+	
+	private int cellX(float x) { return Math.max(0, Math.min(cols - 1, (int) Math.floor(x / CELL_SIZE))); }
+	private int cellY(float y) { return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / CELL_SIZE))); }
+	
+	public synchronized int size() { return objectCells.size; }
+	
+	public synchronized boolean contains(T obj) { return objectCells.containsKey(obj); }
+	
+	/// adds the object if it isn't in the grid already, otherwise moves it to the cell matching its current bounds. Returns true if the object was added.
+	public synchronized boolean update(@NotNull T obj) {
+		Rectangle bounds = obj.getBounds();
+		final int cell = cellY(bounds.y) * cols + cellX(bounds.x);
+		maxExtent = Math.max(maxExtent, Math.max(bounds.width, bounds.height));
+		RectPool.POOL.free(bounds);
+		
+		final int prev = objectCells.get(obj, -1);
+		if(prev == cell)
+			return false;
+		if(prev >= 0)
+			cells[prev].removeValue(obj, true);
+		
+		Array<T> list = cells[cell];
+		if(list == null)
+			list = cells[cell] = new Array<>(false, 8);
+		list.add(obj);
+		objectCells.put(obj, cell);
+		return prev < 0;
+	}
+	
+	/// returns true if the object was in the grid.
+	public synchronized boolean remove(@NotNull T obj) {
+		final int prev = objectCells.remove(obj, -1);
+		if(prev >= 0)
+			cells[prev].removeValue(obj, true);
+		return prev >= 0;
+	}
+	
+	public synchronized void clear() {
+		for(Array<T> cell: cells)
+			if(cell != null)
+				cell.clear();
+		objectCells.clear();
+	}
+	
+	/// adds every object whose bounds overlap the given rectangle to the given array.
+	public synchronized void getOverlapping(@NotNull Rectangle rect, @NotNull Array<? super T> result) {
+		final int minX = cellX(rect.x - maxExtent), maxX = cellX(rect.x + rect.width);
+		final int minY = cellY(rect.y - maxExtent), maxY = cellY(rect.y + rect.height);
+		
+		for(int cy = minY; cy <= maxY; cy++) {
+			for(int cx = minX; cx <= maxX; cx++) {
+				Array<T> cell = cells[cy * cols + cx];
+				if(cell == null) continue;
+				for(int i = 0; i < cell.size; i++) {
+					T obj = cell.get(i);
+					Rectangle bounds = obj.getBounds();
+					if(bounds.overlaps(rect))
+						result.add(obj);
+					RectPool.POOL.free(bounds);
+				}
+			}
+		}
+	}
+	
+	/// adds every object whose center is within the given distance of the given position to the given array.
+	public synchronized void getInRadius(@NotNull Vector2 pos, float radius, @NotNull Array<? super T> result) {
+		final int minX = cellX(pos.x - radius - maxExtent), maxX = cellX(pos.x + radius);
+		final int minY = cellY(pos.y - radius - maxExtent), maxY = cellY(pos.y + radius);
+		
+		for(int cy = minY; cy <= maxY; cy++) {
+			for(int cx = minX; cx <= maxX; cx++) {
+				Array<T> cell = cells[cy * cols + cx];
+				if(cell == null) continue;
+				for(int i = 0; i < cell.size; i++) {
+					T obj = cell.get(i);
+					Vector2 center = obj.getCenter();
+					if(center.dst2(pos) <= radius * radius)
+						result.add(obj);
+					VectorPool.POOL.free(center);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * finds the object with its center closest to the given position, searching outward ring by ring from the cell containing the position.
+	 * The search stops once no unsearched cell could hold anything closer, or once it passes the given maximum distance.
+	 *
+	 * @param maxDist objects further than this are ignored; use a negative value for no limit.
+	 * @param filter only objects that pass this are considered; may be null.
+	 */
+	@Nullable
+	public synchronized T getNearest(@NotNull Vector2 pos, float maxDist, @Nullable Predicate<? super T> filter) {
+		final int startX = cellX(pos.x), startY = cellY(pos.y);
+		final int maxRing = Math.max(Math.max(startX, cols - 1 - startX), Math.max(startY, rows - 1 - startY));
+		
+		T closest = null;
+		float closestDist = maxDist < 0 ? Float.POSITIVE_INFINITY : maxDist;
+		
+		for(int ring = 0; ring <= maxRing; ring++) {
+			// everything outside the rings searched so far is at least this far away, give or take the size of the objects.
+			final float minRingDist = (ring - 1) * CELL_SIZE - maxExtent;
+			if(minRingDist > closestDist)
+				break;
+			
+			for(int cy = startY - ring; cy <= startY + ring; cy++) {
+				if(cy < 0 || cy >= rows) continue;
+				final boolean edgeRow = cy == startY - ring || cy == startY + ring;
+				for(int cx = startX - ring; cx <= startX + ring; cx += edgeRow ? 1 : ring * 2) {
+					if(cx >= 0 && cx < cols) {
+						Array<T> cell = cells[cy * cols + cx];
+						if(cell != null) {
+							for(int i = 0; i < cell.size; i++) {
+								T obj = cell.get(i);
+								if(filter != null && !filter.test(obj)) continue;
+								Vector2 center = obj.getCenter();
+								float dist = center.dst(pos);
+								VectorPool.POOL.free(center);
+								if(dist <= closestDist) {
+									closestDist = dist;
+									closest = obj;
+								}
+							}
+						}
+					}
+					if(ring == 0) break;
+				}
+			}
+		}
+		
+		return closest;
+	}
+}
@@ -0,0 +1,115 @@
+package miniventure.game.world.level;
+
+import java.util.Random;
+
+import miniventure.game.util.pool.RectPool;
+import miniventure.game.util.pool.VectorPool;
+import miniventure.game.world.Boundable;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Compares entity queries through a SpatialGrid against the old approach of checking every entity on the level.
+ * The grid query times should stay about the same as the entity count goes up, while the full scans grow with it.
+ */
+public class SpatialGridBenchmark {
+	
+	private static final int LEVEL_SIZE = 400;
+	private static final int QUERIES = 2000;
+	private static final int[] ENTITY_COUNTS = {100, 500, 1000, 5000, 10_000, 20_000};
+	
+	private static class Dummy implements Boundable {
+		private final float x, y;
+		Dummy(float x, float y) { this.x = x; this.y = y; }
+		
+		@Override public Level getLevel() { return null; }
+		@NotNull @Override
+		public Rectangle getBounds() { return RectPool.POOL.obtain(x, y, 1, 0.5f); }
+	}
+	
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		System.out.println("entities | scan rect (us) | grid rect (us) | scan nearest (us) | grid nearest (us)");
+		
+		for(int count: ENTITY_COUNTS) {
+			SpatialGrid<Dummy> grid = new SpatialGrid<>(LEVEL_SIZE, LEVEL_SIZE);
+			Array<Dummy> all = new Array<>(Dummy.class);
+			for(int i = 0; i < count; i++) {
+				Dummy d = new Dummy(random.nextFloat() * (LEVEL_SIZE - 1), random.nextFloat() * (LEVEL_SIZE - 1));
+				all.add(d);
+				grid.update(d);
+			}
+			
+			Rectangle[] rects = new Rectangle[QUERIES];
+			Vector2[] points = new Vector2[QUERIES];
+			for(int i = 0; i < QUERIES; i++) {
+				rects[i] = new Rectangle(random.nextFloat() * LEVEL_SIZE, random.nextFloat() * LEVEL_SIZE, 3, 3);
+				points[i] = new Vector2(random.nextFloat() * LEVEL_SIZE, random.nextFloat() * LEVEL_SIZE);
+			}
+			
+			// warm up both paths before measuring
+			for(int i = 0; i < 2; i++) {
+				scanRects(all, rects);
+				gridRects(grid, rects);
+				scanNearest(all, points);
+				gridNearest(grid, points);
+			}
+			
+			System.out.printf("%8d | %14.3f | %14.3f | %17.3f | %17.3f%n", count,
+				scanRects(all, rects), gridRects(grid, rects),
+				scanNearest(all, points), gridNearest(grid, points)
+			);
+		}
+	}
+	
+	// each of these returns the average time per query in microseconds.
+	
+	private static double scanRects(Array<Dummy> all, Rectangle[] rects) {
+		Array<Dummy> result = new Array<>(Dummy.class);
+		long start = System.nanoTime();
+		for(Rectangle rect: rects) {
+			result.clear();
+			for(Dummy d: all) {
+				Rectangle bounds = d.getBounds();
+				if(bounds.overlaps(rect))
+					result.add(d);
+				RectPool.POOL.free(bounds);
+			}
+		}
+		return (System.nanoTime() - start) / 1E3 / rects.length;
+	}
+	
+	private static double gridRects(SpatialGrid<Dummy> grid, Rectangle[] rects) {
+		Array<Dummy> result = new Array<>(Dummy.class);
+		long start = System.nanoTime();
+		for(Rectangle rect: rects) {
+			result.clear();
+			grid.getOverlapping(rect, result);
+		}
+		return (System.nanoTime() - start) / 1E3 / rects.length;
+	}
+	
+	private static double scanNearest(Array<Dummy> all, Vector2[] points) {
+		long start = System.nanoTime();
+		for(Vector2 pos: points) {
+			float minDist = Float.POSITIVE_INFINITY;
+			for(Dummy d: all) {
+				Vector2 center = d.getCenter();
+				minDist = Math.min(minDist, center.dst(pos));
+				VectorPool.POOL.free(center);
+			}
+		}
+		return (System.nanoTime() - start) / 1E3 / points.length;
+	}
+	
+	private static double gridNearest(SpatialGrid<Dummy> grid, Vector2[] points) {
+		long start = System.nanoTime();
+		for(Vector2 pos: points)
+			grid.getNearest(pos, -1, null);
+		return (System.nanoTime() - start) / 1E3 / points.length;
+	}
+}
@@ -0,0 +1,68 @@
+package miniventure.game.world.tile;
+
+import java.util.TreeMap;
+
+import miniventure.game.world.management.WorldManager;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.reflect.ArrayReflection;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A tile stack that is its own object, holding the layer types in an array and the data maps by type.
+ * Used where each tile is its own object anyway, like on the client.
+ */
+public class ArrayTileStack<T extends TileType> extends TileStack<T> {
+	
+	// bottom tile is first, top tile is last.
+	private final Array<T> stack;
+	private final TreeMap<TileTypeEnum, TileTypeDataMap> data = new TreeMap<>();
+	
+	private final Object dataLock = new Object();
+	
+	@SuppressWarnings("unchecked")
+	ArrayTileStack(@NotNull WorldManager world, TileTypeEnum[] enumTypes, @Nullable TileTypeDataMap[] dataMaps) {
+		this((Class<T>) world.getTileType(baseType).getClass());
+		
+		for(int i = 0; i < enumTypes.length; i++) {
+			TileType type = enumTypes[i].getTypeInstance(world);
+			//noinspection ConstantConditions // IntelliJ doesn't realize that just because dataMaps can be null, doesn't mean the elements of a non-null instance can also be null.
+			addLayer((T) type, dataMaps == null ? type.createDataMap() : dataMaps[i]);
+		}
+	}
+	ArrayTileStack(Class<T> clazz) {
+		stack = new Array<>(true, 4, clazz);
+	}
+	
+	@Override
+	Object getLock() { return dataLock; }
+	
+	@Override
+	int getLayerCount() { return stack.size; }
+	
+	@Override
+	T getLayerType(int layer) { return stack.get(layer); }
+	
+	@Override
+	TileTypeDataMap getLayerData(int layer) { return data.get(stack.get(layer).getTypeEnum()); }
+	
+	@Override
+	TileTypeDataMap findDataMap(TileTypeEnum tileType) { return data.get(tileType); }
+	
+	@Override
+	void pushLayer(@NotNull T newLayer, @NotNull TileTypeDataMap dataMap) {
+		stack.add(newLayer);
+		data.put(newLayer.getTypeEnum(), dataMap);
+	}
+	
+	@Override
+	void popLayer() {
+		T type = stack.pop();
+		data.remove(type.getTypeEnum());
+	}
+	
+	@Override @SuppressWarnings("unchecked")
+	T[] newArray(int size) { return (T[]) ArrayReflection.newInstance(stack.items.getClass().getComponentType(), size); }
+}
@@ -15,7 +15,6 @@ import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 public abstract class Tile implements WorldObject {
 	
@@ -45,16 +44,13 @@ public abstract class Tile implements WorldObject {
 	final int x, y;
 	// final EnumMap<TileTypeEnum, SerialMap> dataMaps = new EnumMap<>(TileTypeEnum.class);
 	
-	// the TileType array is ALWAYS expected in order of bottom to top.
-	Tile(@NotNull Level level, int x, int y, @NotNull TileTypeEnum[] types, @Nullable TileTypeDataMap[] dataMaps) {
+	Tile(@NotNull Level level, int x, int y, @NotNull TileStack<?> tileStack) {
 		this.level = level;
 		this.x = x;
 		this.y = y;
-		setTileStack(makeStack(types, dataMaps));
+		setTileStack(tileStack);
 	}
 	
-	abstract TileStack<?> makeStack(@NotNull TileTypeEnum[] types, @Nullable TileTypeDataMap[] dataMaps);
-	
 	void setTileStack(TileStack<?> stack) { this.tileStack = stack; }
 	
 	@NotNull @Override
@@ -1,114 +1,105 @@
 package miniventure.game.world.tile;
 
 import java.util.Arrays;
-import java.util.TreeMap;
 
 import miniventure.game.util.ArrayUtils;
 import miniventure.game.util.MyUtils;
 import miniventure.game.util.Version;
 import miniventure.game.util.function.Action;
 import miniventure.game.util.function.FetchFunction;
+import miniventure.game.util.function.MapFunction;
 import miniventure.game.world.management.WorldManager;
 
-import com.badlogic.gdx.utils.Array;
-
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-public class TileStack<T extends TileType> {
+/**
+ * The stack of tile types on a single tile, from the bottom layer up, along with the data for each type.
+ * This only defines how the stack is used; how the layers are actually stored is left to subclasses.
+ * The abstract methods are always called with the stack's lock held.
+ */
+public abstract class TileStack<T extends TileType> {
 	
-	private static final TileTypeEnum baseType = TileTypeEnum.HOLE;
+	static final TileTypeEnum baseType = TileTypeEnum.HOLE;
 	
 	// For now, TileStacks cannot have multiple of the same TileType... has this been enforced?
 	
-	// bottom tile is first, top tile is last.
-	final Array<T> stack;
-	final TreeMap<TileTypeEnum, TileTypeDataMap> data = new TreeMap<>();
-	
-	// private final EnumMap<TileTypeEnum, TileTypeDataMap> dataMaps = new EnumMap<>(TileTypeEnum.class);
-	// private final EnumMap<TileTypeEnum, TileTypeDataMap> cacheMaps = new EnumMap<>(TileTypeEnum.class);
-	private final Object dataLock = new Object();
-	// private Object[] data; // the data map
-	
-	/*TileStack(T[] types) {
-		for(T type: types)
-			addLayer(type);
-	}*/
-	@SuppressWarnings("unchecked")
-	TileStack(@NotNull WorldManager world, TileTypeEnum[] enumTypes, @Nullable TileTypeDataMap[] dataMaps) {
-		Class<T> clazz = (Class<T>) world.getTileType(baseType).getClass();
-		stack = new Array<>(true, 4, clazz);
-		
-		for(int i = 0; i < enumTypes.length; i++) {
-			TileType type = enumTypes[i].getTypeInstance(world);
-			//noinspection ConstantConditions // IntelliJ doesn't realize that just because dataMaps can be null, doesn't mean the elements of a non-null instance can also be null.
-			addLayer((T) type, dataMaps == null ? type.createDataMap() : dataMaps[i]);
-		}
-	}
+	// layer 0 is the bottom tile, layer size-1 is the top.
+	
+	abstract Object getLock();
+	
+	abstract int getLayerCount();
+	
+	abstract T getLayerType(int layer);
+	
+	// this is only for reading; the returned map may be shared between tiles until something actually asks for the tile's own map through getDataMap.
+	abstract TileTypeDataMap getLayerData(int layer);
+	
+	@Nullable
+	abstract TileTypeDataMap findDataMap(TileTypeEnum tileType);
+	
+	abstract void pushLayer(@NotNull T newLayer, @NotNull TileTypeDataMap dataMap);
+	
+	abstract void popLayer();
+	
+	abstract T[] newArray(int size);
 	
 	private void sync(Action a) {
-		synchronized (dataLock) { a.act(); }
+		synchronized (getLock()) { a.act(); }
 	}
 	private <RT> RT sync(FetchFunction<RT> func) {
-		synchronized (dataLock) { return func.get(); }
+		synchronized (getLock()) { return func.get(); }
 	}
 	
-	public int size() { return sync(() -> stack.size); }
+	public int size() { return sync(this::getLayerCount); }
 	
 	// called by Tile.java
 	TileTypeDataMap getDataMap(TileTypeEnum tileType) {
-		return sync(() -> data.get(tileType));
+		return sync(() -> findDataMap(tileType));
 	}
-	// TileTypeDataMap getCacheMap(TileTypeEnum tileType) {
-	// 	return sync(() -> cacheMaps.get(tileType));
-	// }
 	
-	public T getTopLayer() { return sync(() -> stack.get(stack.size-1)); }
+	public T getTopLayer() { return sync(() -> getLayerType(getLayerCount()-1)); }
 	
-	public T[] getTypes() { return sync((FetchFunction<T[]>) stack::toArray); }
+	public T[] getTypes() {
+		synchronized (getLock()) {
+			T[] types = newArray(getLayerCount());
+			for(int i = 0; i < types.length; i++)
+				types[i] = getLayerType(i);
+			return types;
+		}
+	}
 	
 	public TileTypeEnum[] getEnumTypes() {
-		synchronized (dataLock) {
-			TileTypeEnum[] types = new TileTypeEnum[stack.size];
-			for(int i = 0; i < stack.size; i++)
-				types[i] = stack.get(i).getTypeEnum();
+		synchronized (getLock()) {
+			TileTypeEnum[] types = new TileTypeEnum[getLayerCount()];
+			for(int i = 0; i < types.length; i++)
+				types[i] = getLayerType(i).getTypeEnum();
 			return types;
 		}
 	}
 	
-	/*public boolean hasType(@NotNull T type) {
-		for(T layer: stack)
-			if(type.equals(layer))
-				return true;
-		
-		return false;
-	}*/
-	
 	public T getLayerFromTop(int offset) { return getLayerFromTop(offset, false); }
 	public T getLayerFromTop(int offset, boolean clamp) { return getLayer(clamp(size()-1-offset, clamp)); }
 	public T getLayerFromBottom(int offset) { return getLayerFromBottom(offset, false); }
 	public T getLayerFromBottom(int offset, boolean clamp) { return getLayer(clamp(offset, clamp)); }
 	private T getLayer(int offset) {
-		return sync(() -> stack.get(offset));
+		return sync(() -> getLayerType(offset));
 	}
 	
 	private int clamp(int idx) { return clamp(idx, true); }
 	private int clamp(int idx, boolean doClamp) { return doClamp ? Math.max(Math.min(idx, size()-1), 0) : idx; }
 	
 	void addLayer(@NotNull T newLayer, @NotNull TileTypeDataMap dataMap) {
-		synchronized (dataLock) {
-			stack.add(newLayer);
-			data.put(newLayer.getTypeEnum(), dataMap);
-		}
+		sync(() -> pushLayer(newLayer, dataMap));
 	}
 	
 	@Nullable
 	T removeLayer() {
-		synchronized (dataLock) {
-			if(stack.size == 1) return null;
-			T type = stack.removeIndex(stack.size-1);
-			data.remove(type.getTypeEnum());
-			// cacheMaps.remove(type.getTypeEnum());
+		synchronized (getLock()) {
+			final int size = getLayerCount();
+			if(size == 1) return null;
+			T type = getLayerType(size-1);
+			popLayer();
 			return type;
 		}
 	}
@@ -119,7 +110,7 @@ public class TileStack<T extends TileType> {
 		private final transient Version dataVersion; // null = serial, !null = from file
 		
 		private TileData() { this((int[])null, null); }
-		private TileData(int[] typeOrdinals, String[] data) {
+		public TileData(int[] typeOrdinals, String[] data) {
 			this.typeOrdinals = typeOrdinals;
 			this.data = data;
 			dataVersion = null;
@@ -127,20 +118,23 @@ public class TileStack<T extends TileType> {
 		public TileData(Tile tile, boolean save) {
 			this.dataVersion = save ? Version.CURRENT : null; // this is kinda unnecessary because nothing ever uses this version variable for saving, but whatever, doing this maintains consistent state meaning.
 			TileStack<?> stack = tile.getTypeStack();
-			synchronized (stack.dataLock) {
-				TileTypeEnum[] tileTypes = stack.getEnumTypes();
-				typeOrdinals = new int[tileTypes.length];
-				for(int i = 0; i < tileTypes.length; i++) {
-					TileTypeEnum type = tileTypes[i];
-					typeOrdinals[i] = type.ordinal();
+			synchronized (stack.getLock()) {
+				final int size = stack.getLayerCount();
+				typeOrdinals = new int[size];
+				this.data = new String[size];
+				for(int i = 0; i < size; i++) {
+					typeOrdinals[i] = stack.getLayerType(i).getTypeEnum().ordinal();
+					data[i] = stack.getLayerData(i).serialize(save);
 				}
-				
-				this.data = new String[tileTypes.length];
-				for(int i = 0; i < data.length; i++)
-					data[i] = stack.data.get(tileTypes[i]).serialize(save);
 			}
 		}
 		
+		public TileData(Version dataVersion, int[] typeOrdinals, String[] data) {
+			this.dataVersion = dataVersion;
+			this.typeOrdinals = typeOrdinals;
+			this.data = data;
+		}
+		
 		public TileData(Version dataVersion, String tileData) {
 			this.dataVersion = dataVersion;
 			String[] all = MyUtils.parseLayeredString(tileData);
@@ -166,10 +160,11 @@ public class TileStack<T extends TileType> {
 			return types;
 		}
 		
-		public TileTypeDataMap[] getDataMaps(WorldManager world) {
+		public TileTypeDataMap[] getDataMaps(WorldManager world) { return getDataMaps(world::getTileType); }
+		public TileTypeDataMap[] getDataMaps(MapFunction<TileTypeEnum, ? extends TileType> typeFetcher) {
 			TileTypeDataMap[] maps = new TileTypeDataMap[data.length];
 			TileType[] tileTypes = ArrayUtils.mapArray(int.class, typeOrdinals, TileType.class,
-					ord -> world.getTileType(TileTypeEnum.value(ord))
+					ord -> typeFetcher.get(TileTypeEnum.value(ord))
 			);
 			for(int i = 0; i < data.length; i++)
 				maps[i] = tileTypes[i].parseDataMap(data[i], dataVersion);
@@ -179,16 +174,13 @@ public class TileStack<T extends TileType> {
 	
 	public String getDebugString() {
 		StringBuilder str = new StringBuilder(getClass().getSimpleName()).append('[');
-		TileTypeEnum[] types;
-		TileTypeDataMap[] maps;
-		synchronized (dataLock) {
-			types = getEnumTypes();
-			maps = data.values().toArray(new TileTypeDataMap[0]);
-		}
-		for(int i = 0; i < types.length; i++) {
-			str.append(types[i]).append(':').append(maps[i]);
-			if(i < types.length - 1)
-				str.append(',');
+		synchronized (getLock()) {
+			final int size = getLayerCount();
+			for(int i = 0; i < size; i++) {
+				str.append(getLayerType(i).getTypeEnum()).append(':').append(getLayerData(i));
+				if(i < size - 1)
+					str.append(',');
+			}
 		}
 		str.append(']');
 		return str.toString();
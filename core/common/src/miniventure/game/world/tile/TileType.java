@@ -63,6 +63,9 @@ public abstract class TileType {
 		dataTypes.addKey(tag);
 	}
 	
+	// false if no data is ever kept for this type, in which case every data map for it is the same.
+	boolean hasData() { return dataTypes.getDataSize() > 0; }
+	
 	TileTypeDataMap createDataMap() {
 		return new TileTypeDataMap(dataTypes);
 	}
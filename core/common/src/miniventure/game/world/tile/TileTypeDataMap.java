@@ -47,6 +47,14 @@ public class TileTypeDataMap {
 		return MyUtils.encodeStringArray(serial);
 	}
 	
+	// true if no data has been set, so the map is no different from a newly created one.
+	boolean isEmpty() {
+		for(Object value: data)
+			if(value != null)
+				return false;
+		return true;
+	}
+	
 	@SuppressWarnings("unchecked")
 	public <T> T get(TileDataTag<T> tag) {
 		return (T) data[dataOrder.getDataIndex(tag)];
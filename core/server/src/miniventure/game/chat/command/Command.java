@@ -156,9 +156,11 @@ public enum Command {
 	
 	SAVE("Save the world to file.",
 		new CommandUsageForm(true, "", "Save the current state of the game to file, so it can be loaded later.", (world, executor, args, out, err) -> {
-			world.saveWorld();
-			System.out.println("World Saved."); // for server console, and debug in general
-			world.getServer().broadcastGlobal(new Message("World Saved.", GameServer.STATUS_MSG_COLOR));
+			// the save is written in the background; it's announced once it's on disk.
+			world.saveWorld(() -> {
+				System.out.println("World Saved."); // for server console, and debug in general
+				world.getServer().broadcastGlobal(new Message("World Saved.", GameServer.STATUS_MSG_COLOR));
+			});
 		})
 	),
 	
@@ -8,6 +8,8 @@ import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import miniventure.game.util.ProgressPrinter;
 import miniventure.game.chat.command.CommandInputParser;
@@ -24,11 +26,10 @@ import miniventure.game.world.file.WorldDataSet;
 import miniventure.game.world.file.WorldFileInterface;
 import miniventure.game.world.file.WorldFormatException;
 import miniventure.game.world.file.WorldReference;
+import miniventure.game.world.management.Config;
 import miniventure.game.world.management.ServerWorld;
 import miniventure.game.world.tile.ServerTileType;
 
-import com.badlogic.gdx.math.MathUtils;
-
 import org.jetbrains.annotations.NotNull;
 
 public class ServerCore extends Thread {
@@ -43,6 +44,8 @@ public class ServerCore extends Thread {
 	private boolean loopedFrames = false;
 	private final Object fpsLock = new Object();
 	
+	private final TickTimings timings = new TickTimings();
+	
 	public ServerCore(@NotNull ServerFetcher serverFetcher, @NotNull WorldDataSet worldInfo, ProgressLogger logger) throws IOException {
 		super(new ThreadGroup("server"), "Miniventure Server");
 		serverWorld = new ServerWorld(this, serverFetcher, worldInfo, logger);
@@ -59,51 +62,77 @@ public class ServerCore extends Thread {
 		
 		Arrays.fill(frameTimes, 0);
 		
-		long prevStartTime = System.nanoTime();
-		long lastInterval = prevStartTime;
+		long lastInterval = System.nanoTime();
+		long nextTickTime = lastInterval;
 		
 		while(serverWorld.worldLoaded()) {
-			long frameStartTime = System.nanoTime();
+			final int tickRate = MyUtils.clamp((int) Config.TickRate.get(), 1, 1000);
+			final long tickLength = TimeUnit.SECONDS.toNanos(1) / tickRate;
 			
-			synchronized (fpsLock) {
-				frameIdx = (frameIdx + 1) % FRAME_INTERVAL;
-				if(frameIdx == 0) {
-					frameTimes[timeIdx] = (float) ((frameStartTime - lastInterval) / 1E9D);
-					lastInterval = frameStartTime;
-					timeIdx = (timeIdx + 1) % frameTimes.length;
-					if(timeIdx == 0)
-						loopedFrames = true;
-				}
+			long now = System.nanoTime();
+			if(now < nextTickTime) {
+				LockSupport.parkNanos(nextTickTime - now);
+				continue;
 			}
 			
-			final float delta = (frameStartTime - prevStartTime) / 1E9f;
-			
-			if(delta * 1000 < 10)
-				MyUtils.sleep(10 - (int)(delta*1000));
-			
-			try {
-				serverWorld.update(MathUtils.clamp(delta, 0, MyUtils.MAX_DELTA));
-			} catch(Throwable t) {
-				try {
-					getServer().stop(false);
-					commandParser.end();
-				} catch(Throwable t2) {
-					System.err.println("exception while attempting to clean up after a previous exception during server world update:");
-					t2.printStackTrace();
+			// run every tick that is due, up to the catch-up limit.
+			final int maxTicks = Math.max(1, Config.MaxCatchUpTicks.get());
+			for(int ticks = 0; ticks < maxTicks && now >= nextTickTime && serverWorld.worldLoaded(); ticks++) {
+				synchronized (fpsLock) {
+					frameIdx = (frameIdx + 1) % FRAME_INTERVAL;
+					if(frameIdx == 0) {
+						frameTimes[timeIdx] = (float) ((now - lastInterval) / 1E9D);
+						lastInterval = now;
+						timeIdx = (timeIdx + 1) % frameTimes.length;
+						if(timeIdx == 0)
+							loopedFrames = true;
+					}
 				}
-				throw t;
+				
+				runTick(1f / tickRate, tickLength);
+				
+				nextTickTime += tickLength;
+				now = System.nanoTime();
 			}
 			
-			prevStartTime = frameStartTime;
+			if(now >= nextTickTime) {
+				// still behind after catching up as much as allowed; drop the backlog rather than falling further behind every frame.
+				long behind = (now - nextTickTime) / tickLength + 1;
+				timings.ticksSkipped(behind);
+				MyUtils.debug("Server can't keep up, skipping "+behind+" tick"+MyUtils.plural((int)behind));
+				nextTickTime = now;
+			}
 		}
 		
 		commandParser.end();
 		MyUtils.debug("ServerCore ending");
 	}
 	
+	private void runTick(float delta, long tickLength) {
+		final long start = System.nanoTime();
+		try {
+			serverWorld.update(delta);
+		} catch(Throwable t) {
+			try {
+				getServer().stop(false);
+				commandParser.end();
+			} catch(Throwable t2) {
+				System.err.println("exception while attempting to clean up after a previous exception during server world update:");
+				t2.printStackTrace();
+			}
+			throw t;
+		}
+		
+		final long tickTime = System.nanoTime() - start;
+		if(timings.endTick(tickTime, tickLength))
+			MyUtils.debug("Server tick "+timings.getTickCount()+" took "+(tickTime/1E6)+"ms, budget is "+(tickLength/1E6)+"ms");
+	}
+	
 	@NotNull
 	public ServerWorld getWorld() { return serverWorld; }
 	@NotNull
+	public TickTimings getTimings() { return timings; }
+	@NotNull
 	public GameServer getServer() { return getWorld().getServer(); }
 	
 	public boolean isUpdateThread() { return Thread.currentThread() == updateThread; }
@@ -0,0 +1,81 @@
+package miniventure.game.core;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import miniventure.game.chat.MessageBuilder;
+import miniventure.game.util.RollingSamples;
+
+/**
+ * Tracks how long each server tick takes, in total and for each phase of the tick, over a rolling window of recent ticks.
+ * Phase times are added up over the tick (a phase may be recorded once per level, from several threads at once), and committed when the tick ends.
+ */
+public class TickTimings {
+	
+	public enum TickPhase {
+		Runnables, Tiles, Entities, Spawning, Network;
+		
+		public static final TickPhase[] values = TickPhase.values();
+	}
+	
+	private static final int SAMPLE_COUNT = 600; // ten seconds of ticks at the default tick rate
+	private static final float[] PERCENTILES = {50, 95, 99};
+	
+	private final AtomicLongArray phaseTimes = new AtomicLongArray(TickPhase.values.length);
+	private final RollingSamples[] phaseSamples = new RollingSamples[TickPhase.values.length];
+	private final RollingSamples tickSamples = new RollingSamples(SAMPLE_COUNT);
+	
+	private long tickCount = 0;
+	private long overrunCount = 0;
+	private long skippedTicks = 0;
+	
+	public TickTimings() {
+		for(int i = 0; i < phaseSamples.length; i++)
+			phaseSamples[i] = new RollingSamples(SAMPLE_COUNT);
+	}
+	
+	/// adds the time since the given start time to the given phase, and returns the current time so it can be used as the start of the next phase.
+	public long record(TickPhase phase, long startTime) {
+		long now = System.nanoTime();
+		phaseTimes.addAndGet(phase.ordinal(), now - startTime);
+		return now;
+	}
+	
+	/// commits the phase times for the tick that just finished. Returns true if the tick took longer than the given budget.
+	public boolean endTick(long tickTime, long budget) {
+		for(int i = 0; i < phaseTimes.length(); i++)
+			phaseSamples[i].add(phaseTimes.getAndSet(i, 0));
+		tickSamples.add(tickTime);
+		
+		synchronized (this) {
+			tickCount++;
+			if(tickTime > budget) {
+				overrunCount++;
+				return true;
+			}
+			return false;
+		}
+	}
+	
+	/// called when the server fell too far behind to catch up, and the given number of ticks were dropped.
+	public synchronized void ticksSkipped(long count) { skippedTicks += count; }
+	
+	public synchronized long getTickCount() { return tickCount; }
+	public synchronized long getOverrunCount() { return overrunCount; }
+	public synchronized long getSkippedTicks() { return skippedTicks; }
+	
+	public void printStatus(MessageBuilder out) {
+		synchronized (this) {
+			out.println("Ticks: "+tickCount+", overran budget: "+overrunCount+", skipped: "+skippedTicks);
+		}
+		out.println("Tick times in ms (p50 / p95 / p99 / max):");
+		printSamples(out, "Total", tickSamples);
+		for(TickPhase phase: TickPhase.values)
+			printSamples(out, phase.name(), phaseSamples[phase.ordinal()]);
+	}
+	
+	private static void printSamples(MessageBuilder out, String name, RollingSamples samples) {
+		long[] p = samples.getPercentiles(PERCENTILES);
+		out.println(String.format(Locale.ROOT, "    %-10s %7.3f / %7.3f / %7.3f / %7.3f", name, p[0]/1E6, p[1]/1E6, p[2]/1E6, samples.getMax()/1E6));
+	}
+}
@@ -0,0 +1,311 @@
+package miniventure.game.network;
+
+import miniventure.game.network.GameProtocol.EntityAddition;
+import miniventure.game.network.GameProtocol.EntityDigest;
+import miniventure.game.network.GameProtocol.EntityRemoval;
+import miniventure.game.network.GameProtocol.EntityValidation;
+import miniventure.game.network.GameProtocol.PositionUpdate;
+import miniventure.game.network.PacketPipe.PacketPipeWriter;
+import miniventure.game.util.pool.RectPool;
+import miniventure.game.util.pool.VectorPool;
+import miniventure.game.world.entity.Entity;
+import miniventure.game.world.entity.ServerEntity;
+import miniventure.game.world.entity.mob.player.ServerPlayer;
+import miniventure.game.world.level.Level;
+import miniventure.game.world.level.LevelId;
+import miniventure.game.world.level.ServerLevel;
+import miniventure.game.world.management.Config;
+import miniventure.game.world.tile.TileStack.TileData;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.IntMap.Keys;
+import com.badlogic.gdx.utils.IntSet;
+import com.badlogic.gdx.utils.IntSet.IntSetIterator;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps track of what one player's client knows about: the entities it has been sent, and the tiles that changed while they were too far away to see.
+ * Entities are added when they come within the view distance of the player and removed once they're a bit past it, so things on the edge don't flicker in and out.
+ * Tile changes out of view aren't sent right away; they're remembered, and the current state goes in the player's tile batch once the tile comes into view.
+ * For each entity it knows, the client's last position and sprite are kept too, so each tick's changes can be sent as deltas in one snapshot.
+ */
+class AreaOfInterest {
+	
+	// how much further than the view distance something has to go before it's dropped.
+	private static final int LEAVE_MARGIN = 2;
+	// out of view tile changes are grouped in squares of this size (as a power of 2), so only the groups near the player have to be checked.
+	private static final int BUCKET_SHIFT = 4;
+	
+	@NotNull private final ServerPlayer player;
+	@Nullable private ServerLevel level;
+	// true while the client is still getting the level; nothing about what's in it is sent until it's let go.
+	private boolean holding = false;
+	// the last position and sprite the client was sent for each entity it knows about.
+	private final IntMap<Baseline> knownEntities = new IntMap<>();
+	// keyed by bucket, then tile; both are packed as x << 16 | y.
+	private final IntMap<IntSet> staleTiles = new IntMap<>();
+	
+	private static class Baseline {
+		private int x, y, z;
+		private String[] sprite;
+		
+		private Baseline(EntityAddition addition) {
+			PositionUpdate pos = addition.positionUpdate;
+			x = EntityDeltas.quantize(pos.x);
+			y = EntityDeltas.quantize(pos.y);
+			z = EntityDeltas.quantize(pos.z);
+			sprite = addition.spriteUpdate.rendererData;
+		}
+	}
+	
+	AreaOfInterest(@NotNull ServerPlayer player) {
+		this.player = player;
+	}
+	
+	// negative means the whole level is in view.
+	static int getViewDistance() { return Config.ViewDistance.get(); }
+	
+	private static int pack(int x, int y) { return x << 16 | y; }
+	
+	/// clears everything the client is known to have; used when the client is sent a whole new level.
+	synchronized void reset(@Nullable ServerLevel level) {
+		this.level = level;
+		knownEntities.clear();
+		staleTiles.clear();
+	}
+	
+	/// starts over on the given level, without sending anything about what's in it until release is called.
+	synchronized void hold(@NotNull ServerLevel level) {
+		reset(level);
+		holding = true;
+	}
+	
+	/// sends what's around the player, and keeps it up to date from now on.
+	synchronized void release(@NotNull PacketPipeWriter out, @NotNull TileBatchBuilder tiles) {
+		holding = false;
+		refresh(out, tiles);
+	}
+	
+	synchronized boolean knows(@NotNull Entity e) { return knownEntities.containsKey(e.getId()); }
+	
+	/// returns true if the client knew about the entity.
+	synchronized boolean forget(@NotNull Entity e) { return knownEntities.remove(e.getId()) != null; }
+	
+	/// if the entity is on the player's level and in view, it's now known, and the addition to send is returned; otherwise null.
+	@Nullable
+	synchronized EntityAddition learn(@NotNull Entity e) {
+		if(e == player || level == null || e.getLevel() != level || !isInView(e, 0))
+			return null;
+		return add(e);
+	}
+	
+	// the client's copy starts from whatever the addition has, even if it already knew about the entity.
+	private EntityAddition add(@NotNull Entity e) {
+		EntityAddition addition = new EntityAddition(e);
+		knownEntities.put(e.getId(), new Baseline(addition));
+		return addition;
+	}
+	
+	boolean isInView(@Nullable Level level, Vector2 pos) {
+		return level != null && level == player.getLevel() && isInView(pos.x, pos.y, 0);
+	}
+	
+	/// returns true if the change should be sent now; otherwise it's remembered until the tile is in view, or until release if the level is still being sent.
+	synchronized boolean tileChanged(@NotNull ServerLevel level, int x, int y) {
+		if(level != this.level)
+			return false; // the client will get the whole level when it moves there
+		final int bucket = pack(x >> BUCKET_SHIFT, y >> BUCKET_SHIFT);
+		IntSet tiles = staleTiles.get(bucket);
+		// while holding, the tile may have been captured for the client before the change, and be sent after it.
+		if(!holding && isInView(x + 0.5f, y + 0.5f, LEAVE_MARGIN)) {
+			// it's going out now, so refresh doesn't need to send it again.
+			if(tiles != null && tiles.remove(pack(x, y)) && tiles.size == 0)
+				staleTiles.remove(bucket);
+			return true;
+		}
+		
+		if(tiles == null) {
+			tiles = new IntSet();
+			staleTiles.put(bucket, tiles);
+		}
+		tiles.add(pack(x, y));
+		return false;
+	}
+	
+	/// sends the additions and removals for wherever the player is now, and adds the held tile changes now in view to the player's tile batch.
+	synchronized void refresh(@NotNull PacketPipeWriter out, @NotNull TileBatchBuilder batch) {
+		if(holding)
+			return;
+		ServerLevel current = player.getLevel();
+		if(current != level)
+			reset(current);
+		if(level == null)
+			return;
+		
+		// drop the entities that have left
+		Keys it = knownEntities.keys();
+		while(it.hasNext) {
+			final int eid = it.next();
+			ServerEntity e = player.getWorld().getEntity(eid);
+			if(e == null || e.getLevel() != level || !isInView(e, LEAVE_MARGIN)) {
+				it.remove();
+				out.send(new EntityRemoval(eid));
+			}
+		}
+		
+		Rectangle area = getViewArea(level);
+		for(Entity e: level.getOverlappingEntities(area, player))
+			if(!knownEntities.containsKey(e.getId()))
+				out.send(add(e));
+		
+		if(staleTiles.size > 0) {
+			final int minX = Math.max(0, (int) area.x) >> BUCKET_SHIFT;
+			final int minY = Math.max(0, (int) area.y) >> BUCKET_SHIFT;
+			final int maxX = Math.min(level.getWidth() - 1, (int) (area.x + area.width)) >> BUCKET_SHIFT;
+			final int maxY = Math.min(level.getHeight() - 1, (int) (area.y + area.height)) >> BUCKET_SHIFT;
+			for(int bx = minX; bx <= maxX; bx++) {
+				for(int by = minY; by <= maxY; by++) {
+					final int bucket = pack(bx, by);
+					IntSet tiles = staleTiles.get(bucket);
+					if(tiles == null) continue;
+					IntSetIterator tileIt = tiles.iterator();
+					while(tileIt.hasNext) {
+						final int tile = tileIt.next();
+						final int x = tile >>> 16, y = tile & 0xFFFF;
+						if(isInView(x + 0.5f, y + 0.5f, 0)) {
+							tileIt.remove();
+							batch.add(level.getLevelId(), x, y, new TileData(level.getTile(x, y), false), null);
+						}
+					}
+					if(tiles.size == 0)
+						staleTiles.remove(bucket);
+				}
+			}
+		}
+		RectPool.POOL.free(area);
+	}
+	
+	/**
+	 * Writes the changes this tick to the entities the client knows about, as deltas from what it was last sent, and moves the baselines up to match.
+	 * Entities that changed level are left for refresh to remove.
+	 *
+	 * @return the bytes the changes written would have taken as one EntityUpdate each, or 0 without a sizer.
+	 */
+	synchronized int writeSnapshot(@NotNull Array<EntityChange> changes, @NotNull EntityDeltas.Writer out, @Nullable PacketSizer sizer) {
+		int updateBytes = 0;
+		for(EntityChange change: changes) {
+			ServerEntity e = change.entity;
+			Baseline base = knownEntities.get(e.getId());
+			if(base == null || e.getLevel() != level)
+				continue;
+			
+			int dx = 0, dy = 0, dz = 0;
+			if(change.pos != null) {
+				final int x = EntityDeltas.quantize(change.pos.x);
+				final int y = EntityDeltas.quantize(change.pos.y);
+				final int z = EntityDeltas.quantize(change.pos.z);
+				dx = x - base.x;
+				dy = y - base.y;
+				dz = z - base.z;
+				base.x = x;
+				base.y = y;
+				base.z = z;
+			}
+			
+			String[] sprite = null;
+			boolean full = false;
+			if(change.sprite != null) {
+				String[] current = change.sprite.rendererData;
+				full = current.length != base.sprite.length;
+				sprite = full ? current : EntityDeltas.diffSprite(base.sprite, current);
+				base.sprite = current;
+			}
+			
+			if(sizer != null)
+				updateBytes += change.getUpdateSize(sizer);
+			if(dx != 0 || dy != 0 || dz != 0 || sprite != null)
+				out.write(e.getId(), dx, dy, dz, sprite, full);
+		}
+		return updateBytes;
+	}
+	
+	synchronized int getKnownEntityCount() { return knownEntities.size; }
+	
+	/// a digest of the entities the client has been sent, by region; null while there's no level for it to check against.
+	@Nullable
+	synchronized EntityDigest getDigest() {
+		if(level == null || holding)
+			return null;
+		RegionDigest digest = new RegionDigest();
+		for(IntMap.Entry<Baseline> entry: knownEntities)
+			digest.add(entry.key, entry.value.x, entry.value.y, entry.value.z, entry.value.sprite);
+		return digest.toPacket(level.getLevelId());
+	}
+	
+	/**
+	 * Sends the client every entity it should have in the given regions again, as they are now, followed by the list of them so it can drop any others it has there.
+	 * Entities that are gone are forgotten, and left out of the list.
+	 *
+	 * @return the number of entities sent.
+	 */
+	synchronized int resync(@NotNull LevelId levelId, int[] regions, @NotNull PacketPipeWriter out) {
+		if(level == null || holding || level.getLevelId() != levelId)
+			return 0;
+		IntSet regionSet = new IntSet(regions.length);
+		regionSet.addAll(regions);
+		
+		int sent = 0;
+		for(int eid: knownEntities.keys().toArray().toArray()) {
+			Baseline base = knownEntities.get(eid);
+			if(!regionSet.contains(RegionDigest.getRegion(base.x, base.y)))
+				continue;
+			ServerEntity e = player.getWorld().getEntity(eid);
+			if(e == null || e.getLevel() != level)
+				knownEntities.remove(eid);
+			else {
+				out.send(add(e));
+				sent++;
+			}
+		}
+		
+		// the entities may be in different regions now, so the list is made after they're all sent.
+		IntArray ids = new IntArray();
+		for(IntMap.Entry<Baseline> entry: knownEntities)
+			if(regionSet.contains(RegionDigest.getRegion(entry.value.x, entry.value.y)))
+				ids.add(entry.key);
+		out.send(new EntityValidation(levelId, regions, ids.toArray()));
+		return sent;
+	}
+	
+	private Rectangle getViewArea(@NotNull ServerLevel level) {
+		if(getViewDistance() < 0)
+			return RectPool.POOL.obtain(0, 0, level.getWidth(), level.getHeight());
+		final int radius = getViewDistance();
+		Vector2 center = player.getCenter();
+		Rectangle area = RectPool.POOL.obtain(center.x - radius, center.y - radius, radius * 2, radius * 2);
+		VectorPool.POOL.free(center);
+		return area;
+	}
+	
+	private boolean isInView(Entity e, int margin) {
+		Vector2 pos = e.getCenter();
+		boolean inView = isInView(pos.x, pos.y, margin);
+		VectorPool.POOL.free(pos);
+		return inView;
+	}
+	private boolean isInView(float x, float y, int margin) {
+		if(getViewDistance() < 0)
+			return true;
+		final int radius = getViewDistance() + margin;
+		Vector2 center = player.getCenter();
+		boolean inView = Math.abs(center.x - x) <= radius && Math.abs(center.y - y) <= radius;
+		VectorPool.POOL.free(center);
+		return inView;
+	}
+}
@@ -0,0 +1,34 @@
+package miniventure.game.network;
+
+import miniventure.game.network.GameProtocol.EntityUpdate;
+import miniventure.game.network.GameProtocol.PositionUpdate;
+import miniventure.game.network.GameProtocol.SpriteUpdate;
+import miniventure.game.world.entity.ServerEntity;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The position and sprite an entity changed to during a tick, kept until the snapshots for the tick are sent.
+ */
+class EntityChange {
+	
+	@NotNull final ServerEntity entity;
+	@Nullable final PositionUpdate pos;
+	@Nullable final SpriteUpdate sprite;
+	
+	private int updateSize = -1;
+	
+	EntityChange(@NotNull ServerEntity entity, @Nullable PositionUpdate pos, @Nullable SpriteUpdate sprite) {
+		this.entity = entity;
+		this.pos = pos;
+		this.sprite = sprite;
+	}
+	
+	/// the size of the single EntityUpdate this change used to be sent as, to each client that knew about the entity.
+	int getUpdateSize(@NotNull PacketSizer sizer) {
+		if(updateSize < 0)
+			updateSize = sizer.sizeOf(new EntityUpdate(entity.getTag(), pos, sprite));
+		return updateSize;
+	}
+}
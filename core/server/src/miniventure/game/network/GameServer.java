@@ -1,10 +1,9 @@
 package miniventure.game.network;
 
-import javax.swing.Timer;
-
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.function.BooleanSupplier;
 import java.util.function.Predicate;
 
 import miniventure.game.chat.InfoMessage;
@@ -30,9 +29,9 @@ import miniventure.game.world.file.PlayerData;
 import miniventure.game.world.level.Level;
 import miniventure.game.world.level.LevelId;
 import miniventure.game.world.level.ServerLevel;
+import miniventure.game.world.management.Config;
 import miniventure.game.world.management.ServerWorld;
 import miniventure.game.world.tile.Tile;
-import miniventure.game.world.tile.TileStack.TileData;
 import miniventure.game.world.tile.TileTypeEnum;
 
 import com.badlogic.gdx.graphics.Color;
@@ -50,13 +49,28 @@ public abstract class GameServer implements GameProtocol {
 	public static final Color STATUS_MSG_COLOR = Color.ORANGE;
 	public static final Color ERROR_CHAT_COLOR = new Color(1f, .5f, .5f, 1);
 	
+	// how often each player's entities are checked.
+	private static final int DIGEST_SECONDS = 5;
+	
 	// public static final String PLAYER_NAME_REGEX = "( *[a-zA-Z0-9_.-] *)+";
 	
 	private class PlayerLink {
 		final PacketPipeWriter connection;
 		@NotNull final ServerPlayer player;
 		final InfoMessageBuilder toClientOut, toClientErr;
-		final Timer validationTimer;
+		final AreaOfInterest interest;
+		// the level being sent to the client; replaced when they change levels. Only set on the update thread.
+		@Nullable LevelStream levelStream;
+		
+		// for comparing the snapshot bytes sent against what one EntityUpdate per change would have taken. Byte counts take serializing packets an extra time, so they're only kept in debug mode.
+		final long joinTime = System.nanoTime();
+		long snapshotBytes = 0, updateBytes = 0;
+		// the same for tile batches, against one TileUpdate per change.
+		long tileBatchBytes = 0, tileUpdateBytes = 0;
+		long tileBatchCount = 0, tileUpdateCount = 0;
+		// the tick the next entity digest is due; players who join on different ticks get theirs on different ticks.
+		long nextDigestTick = tickCount + getDigestInterval();
+		long digestCount = 0, digestBytes = 0, mismatchCount = 0, resyncCount = 0;
 		
 		boolean op;
 		
@@ -67,12 +81,10 @@ public abstract class GameServer implements GameProtocol {
 			this.connection = connection;
 			this.player = player;
 			this.op = op;
+			interest = new AreaOfInterest(player);
 			
 			toClientOut = new InfoMessageBuilder(text -> new InfoMessageLine(GameCore.DEFAULT_CHAT_COLOR, text));
 			toClientErr = new InfoMessageBuilder(toClientOut, text -> new InfoMessageLine(ERROR_CHAT_COLOR, text));
-			
-			validationTimer = new Timer(5000, e -> player.getWorld().postRunnable(() -> sendEntityValidation(this)));
-			validationTimer.setRepeats(true);
 		}
 	}
 	
@@ -86,6 +98,16 @@ public abstract class GameServer implements GameProtocol {
 	@NotNull private final ServerWorld world;
 	private boolean multiplayer;
 	
+	// the entity changes made this tick; only touched by the update thread.
+	private final Array<EntityChange> entityChanges = new Array<>(false, 64);
+	private final EntityDeltas.Writer snapshotWriter = new EntityDeltas.Writer();
+	private final PacketSizer packetSizer = new PacketSizer();
+	private long tickCount = 0; // only used on the update thread
+	// tiles changed this tick, in the order they first changed.
+	private final LinkedHashMap<Tile, TileChange> tileChanges = new LinkedHashMap<>();
+	// reused for each player's batch; only touched by the update thread.
+	private final TileBatchBuilder tileBatch = new TileBatchBuilder();
+	
 	public GameServer(@NotNull ServerWorld world, boolean multiplayer, PlayerData[] playerData) {
 		this.world = world;
 		this.multiplayer = multiplayer;
@@ -105,28 +127,31 @@ public abstract class GameServer implements GameProtocol {
 		return addr != null && isHost(addr);
 	}
 	
+	/// updates and returns the data of the players that are on; the rest haven't changed since they were last saved.
 	public PlayerData[] updatePlayerData() {
 		ServerPlayer[] players;
 		synchronized (playerLock) {
 			players = playerToConnectionMap.keySet().toArray(new ServerPlayer[0]);
 		}
-		for(ServerPlayer p: players)
-			updatePlayerData(p);
-		
-		synchronized (knownPlayers) {
-			return knownPlayers.values().toArray(new PlayerData[0]);
+		ArrayList<PlayerData> data = new ArrayList<>(players.length);
+		for(ServerPlayer p: players) {
+			PlayerData pdata = updatePlayerData(p);
+			if(pdata != null)
+				data.add(pdata);
 		}
+		return data.toArray(new PlayerData[0]);
 	}
-	public void updatePlayerData(ServerPlayer player) {
+	@Nullable
+	public PlayerData updatePlayerData(ServerPlayer player) {
 		PlayerLink info = getPlayerInfo(player);
 		if(info == null) {
 			System.err.println("Player "+player+" does not have PlayerLink, cannot update data.");
-			return;
+			return null;
 		}
 		PlayerData pdata = knownPlayers.get(player.getName());
 		if(pdata == null) {
 			System.err.println("Player "+player+" does not have PlayerData, cannot update.");
-			return;
+			return null;
 		}
 		
 		final String name = player.getName();
@@ -134,7 +159,9 @@ public abstract class GameServer implements GameProtocol {
 		final Level level = player.getLevel();
 		// using the pdata level id is better than using the spawn level because it doesn't lose the info if an extra update request is sent after the player is removed from their level.
 		final LevelId levelId = level == null ? pdata.levelId : level.getLevelId();
-		knownPlayers.put(name, new PlayerData(name, pdata.passhash, data, levelId, info.op));
+		PlayerData newData = new PlayerData(name, pdata.passhash, data, levelId, info.op);
+		knownPlayers.put(name, newData);
+		return newData;
 	}
 	
 	public int getPlayerCount() {
@@ -204,12 +231,11 @@ public abstract class GameServer implements GameProtocol {
 			
 			System.out.println("Server: new player successfully connected: "+player.getName());
 			if(info == null) {
-				knownPlayers.put(name, new PlayerData(name, "", player.serialize(), player.getSpawnLevel(), op));
-				world.saveWorld();
+				PlayerData newData = new PlayerData(name, "", player.serialize(), player.getSpawnLevel(), op);
+				knownPlayers.put(name, newData);
+				world.savePlayer(newData);
 			}
 			
-			pinfo.validationTimer.start();
-			
 			broadcastGlobal(player, new Message(player.getName()+" joined the server.", STATUS_MSG_COLOR));
 		// });
 	}
@@ -217,10 +243,13 @@ public abstract class GameServer implements GameProtocol {
 	void logout(PacketPipeWriter connection) {
 		PlayerLink info = getPlayerInfo(connection);
 		if(info == null) return;
-		info.validationTimer.stop();
+		if(info.levelStream != null)
+			info.levelStream.cancel();
 		ServerPlayer player = info.player;
 		// world.postRunnable(() -> {
-			updatePlayerData(player);
+			PlayerData data = updatePlayerData(player);
+			if(data != null)
+				world.savePlayer(data);
 			player.remove();
 			// player.getWorld().removePlayer(player);
 			// synchronized (playerLock) {
@@ -311,25 +340,23 @@ public abstract class GameServer implements GameProtocol {
 			// broadcast(new EntityUpdate(client.getTag(), new PositionUpdate(client), null));
 		});
 				
-		/*if(object instanceof ChunkRequest) {
-			//System.out.println("server received chunk request");
-			ChunkRequest request = (ChunkRequest) object;
-			ServerLevel level = client.getLevel(); // assumes player wants for current level
-			if(level != null) {
-				Chunk chunk = level.getChunk(request.x, request.y);
-				//System.out.println("server sending back chunk "+chunk);
-				connection.sendTCP(new ChunkData(chunk, level));
-				Array<Entity> newEntities = level.getOverlappingEntities(chunk.getBounds());
-				for(Entity e: newEntities)
-					connection.sendTCP(new EntityAddition(e));
-			} else
-				System.err.println("Server could not satisfy chunk request, player level is null");
-		}*/
+		forPacket(object, ChunkRequest.class, req -> {
+			LevelStream stream = clientData.levelStream;
+			// requests for a level the player has left are old; the client will drop the chunk anyway.
+			if(stream != null && stream.getLevel().getLevelId().equals(req.levelId))
+				stream.request(req.x, req.y);
+		});
 		
 		forPacket(object, EntityRequest.class, req -> {
 			Entity e = world.getEntity(req.eid);
-			if(e != null && e.getLevel() == client.getLevel())
-				connection.send(new EntityAddition(e));
+			EntityAddition addition = e == null ? null : clientData.interest.learn(e);
+			if(addition != null)
+				connection.send(addition);
+		});
+		
+		forPacket(object, EntityDigestMismatch.class, mismatch -> {
+			clientData.mismatchCount++;
+			clientData.resyncCount += clientData.interest.resync(mismatch.levelId, mismatch.regions, connection);
 		});
 		
 		/*if(object.equals(DatalessRequest.Tile)) {
@@ -424,6 +451,121 @@ public abstract class GameServer implements GameProtocol {
 		else
 			*/broadcastFilter(obj, player -> player != excludeIfPlayer && player.getLevel() == levelMask);
 	}
+	
+	/*
+		Entity, tile and particle packets only go to the players that can see them; see AreaOfInterest.
+		Players are sent additions and removals as entities come into and out of view, in updateInterest.
+	 */
+	
+	/// sends to the players whose clients know about the entity.
+	public void broadcastEntityUpdate(@NotNull ServerEntity e, Object obj) {
+		for(PlayerLink link: connectionToPlayerInfoMap.values())
+			if(link.interest.knows(e))
+				link.connection.send(obj);
+	}
+	/// like broadcastEntityUpdate, but also sends to the entity itself if it's a player.
+	public void broadcastEntityEvent(@NotNull ServerEntity e, Object obj) {
+		for(PlayerLink link: connectionToPlayerInfoMap.values())
+			if(link.player == e || link.interest.knows(e))
+				link.connection.send(obj);
+	}
+	public void broadcastEntityRemoval(@NotNull ServerEntity e) {
+		EntityRemoval removal = new EntityRemoval(e);
+		for(PlayerLink link: connectionToPlayerInfoMap.values())
+			if(link.interest.forget(e) || link.player == e)
+				link.connection.send(removal);
+	}
+	
+	/// records a change to a tile, to be sent in the tile batches at the end of the tick.
+	public void tileChanged(@NotNull Tile tile, @Nullable TileTypeEnum updatedType) {
+		synchronized (tileChanges) {
+			TileChange change = tileChanges.get(tile);
+			if(change == null) {
+				change = new TileChange(tile);
+				tileChanges.put(tile, change);
+			}
+			change.changed(updatedType);
+		}
+	}
+	
+	// adds the tiles that changed this tick that the player can see to their batch.
+	private void addTileChanges(PlayerLink link, Collection<TileChange> changes) {
+		for(TileChange change: changes) {
+			Tile tile = change.tile;
+			Point pos = tile.getLocation();
+			if(!link.interest.tileChanged((ServerLevel) tile.getLevel(), pos.x, pos.y))
+				continue;
+			// the interest only lets through tiles on the player's level
+			tileBatch.add(tile.getLevel().getLevelId(), pos.x, pos.y, change.getData(), change.updatedType);
+			if(GameCore.debug)
+				link.tileUpdateBytes += (long) change.count * change.getUpdateSize(packetSizer);
+			link.tileUpdateCount += change.count;
+		}
+	}
+	
+	// sends the player their batch, if anything went in it.
+	private void sendTileBatch(PlayerLink link) {
+		TileUpdateBatch batch = tileBatch.build();
+		if(batch == null)
+			return;
+		if(GameCore.debug)
+			link.tileBatchBytes += packetSizer.sizeOf(batch);
+		link.tileBatchCount++;
+		link.connection.send(batch);
+	}
+	
+	/// records a change to an entity, to be sent in the snapshots at the end of the tick. Called from the update thread.
+	public void entityChanged(@NotNull ServerEntity e, @Nullable PositionUpdate pos, @Nullable SpriteUpdate sprite) {
+		entityChanges.add(new EntityChange(e, pos, sprite));
+	}
+	
+	// called once per tick, after entity changes have been recorded. Sends each player one snapshot of the changes they can see, then brings what they know up to date with where they are.
+	public void updateInterest() {
+		Collection<TileChange> changedTiles;
+		synchronized (tileChanges) {
+			changedTiles = new ArrayList<>(tileChanges.values());
+			tileChanges.clear();
+		}
+		for(PlayerLink link: connectionToPlayerInfoMap.values()) {
+			if(changedTiles.size() > 0)
+				addTileChanges(link, changedTiles);
+			if(entityChanges.size > 0) {
+				link.updateBytes += link.interest.writeSnapshot(entityChanges, snapshotWriter, GameCore.debug ? packetSizer : null);
+				if(snapshotWriter.getCount() > 0) {
+					EntitySnapshot snapshot = snapshotWriter.finish();
+					if(GameCore.debug)
+						link.snapshotBytes += packetSizer.sizeOf(snapshot);
+					link.connection.send(snapshot);
+				}
+			}
+			final int changed = tileBatch.size();
+			link.interest.refresh(link.connection, tileBatch);
+			link.tileUpdateCount += tileBatch.size() - changed; // each of these was a TileUpdate of its own
+			sendTileBatch(link);
+			if(tickCount >= link.nextDigestTick) {
+				link.nextDigestTick = tickCount + getDigestInterval();
+				sendEntityDigest(link);
+			}
+		}
+		entityChanges.clear();
+		tickCount++;
+	}
+	
+	private static long getDigestInterval() {
+		return (long) DIGEST_SECONDS * Math.max(1, Config.TickRate.get());
+	}
+	
+	// lets the client check that it has the entities it should; it replies if any regions don't match.
+	private void sendEntityDigest(@NotNull PlayerLink link) {
+		EntityDigest digest = link.interest.getDigest();
+		if(digest == null)
+			return; // the player doesn't have a level yet
+		link.digestCount++;
+		if(GameCore.debug)
+			link.digestBytes += packetSizer.sizeOf(digest);
+		link.connection.send(digest);
+	}
+	
 	// levelMask is the level a player must be on to receive this data.
 	/*public void broadcast(Level levelMask, Object obj, @NotNull ServerEntity... exclude) {
 		if(levelMask == null) return; // no level, no packet.
@@ -464,23 +606,60 @@ public abstract class GameServer implements GameProtocol {
 			return;
 		}
 		
-		// world.postRunnable(() -> {
 		connection.send(new LevelInfo(level.getLevelId(), level.getWidth(), level.getHeight()));
 		
-		TileData[][] tileData = level.getTileData(false);
-		for (int i = 0; i < tileData.length; i += ServerLevel.CHUNK_SIZE) {
-			for (int j = 0; j < tileData[i].length; j += ServerLevel.CHUNK_SIZE) {
-				Point offset = new Point(i, j);
-				int width = Math.min(ServerLevel.CHUNK_SIZE, tileData.length - i);
-				int height = Math.min(ServerLevel.CHUNK_SIZE, tileData[i].length - j);
-				connection.send(new LevelChunk(offset, width, height, tileData));
-				MyUtils.sleep(2);
-			}
+		PlayerLink info = getPlayerInfo(player);
+		if(info != null) {
+			if(info.levelStream != null)
+				info.levelStream.cancel();
+			// the client starts over on the new level, but isn't told what's in it until it has the tiles around the player.
+			info.interest.hold(level);
 		}
 		
-		level.forEachEntity(e -> connection.send(new EntityAddition(e)));
-		connection.send(player.getSpawnData());
-		// });
+		if(sharesMemory() && Config.ShareLocalLevels.get()) {
+			// the client can have the whole level at once; the player is spawned once they've been added to it, same as when streaming.
+			if(info != null)
+				info.levelStream = null;
+			connection.send(level.getTileLayers().snapshot(level.getLevelId(), false));
+			world.postRunnable(() -> {
+				if(player.getLevel() != level)
+					return; // they've moved on already
+				if(info != null) {
+					info.interest.release(connection, tileBatch);
+					sendTileBatch(info);
+				}
+				connection.send(player.getSpawnData());
+			});
+			return;
+		}
+		
+		// the chunks around the player go first; once those are out, the player is spawned, and the rest of the level follows.
+		Vector2 pos = player.getCenter();
+		Point center = new Point(MyUtils.clamp((int) pos.x, 0, level.getWidth() - 1), MyUtils.clamp((int) pos.y, 0, level.getHeight() - 1));
+		VectorPool.POOL.free(pos);
+		LevelStream stream = new LevelStream(level, connection, center, AreaOfInterest.getViewDistance(), getBackpressure(connection), () ->
+			world.postRunnable(() -> {
+				if(info != null) {
+					if(info.levelStream == null || info.levelStream.getLevel() != level)
+						return; // they've moved on already
+					info.interest.release(connection, tileBatch);
+					sendTileBatch(info);
+				}
+				connection.send(player.getSpawnData());
+			})
+		);
+		if(info != null)
+			info.levelStream = stream;
+		stream.start();
+	}
+	
+	/// true if the clients are in the same JVM, so they can be handed objects that are never sent over a network.
+	boolean sharesMemory() { return false; }
+	
+	/// gives a check for whether the connection can take more packets right now; level streams wait while it's false.
+	@NotNull
+	BooleanSupplier getBackpressure(@NotNull PacketPipeWriter connection) {
+		return connection::isCongested;
 	}
 	
 	/*public boolean isInventoryMode(@NotNull ServerPlayer player) {
@@ -500,7 +679,9 @@ public abstract class GameServer implements GameProtocol {
 		if(info == null) return false; // unrecognized player (should never happen)
 		info.op = op;
 		// world.postRunnable(() -> updatePlayerData(player));
-		updatePlayerData(player);
+		PlayerData data = updatePlayerData(player);
+		if(data != null)
+			world.savePlayer(data);
 		return true;
 	}
 	
@@ -521,27 +702,16 @@ public abstract class GameServer implements GameProtocol {
 	}
 	public void broadcastParticle(ParticleData data, Level level, Vector2 pos) { broadcastParticle(data, level, pos, false); }
 	public void broadcastParticle(ParticleData data, Level level, Vector2 pos, boolean free) {
-		broadcastGlobal(new ParticleAddition(data, new PositionUpdate(level, pos, free)));
-	}
-	
-	private void sendEntityValidation(@NotNull PlayerLink pData) {
-		ServerPlayer player = pData.player;
-		/*if(!pData.connection.isConnected()) {
-			System.err.println("Server not sending entity validation to player "+player.getName()+" because player has disconnected; stopping validation timer.");
-			pData.validationTimer.stop();
-			return;
-		}*/
-		
-		ServerLevel level = player.getLevel();
-		if(level == null) {
-			MyUtils.debug("Server: Level of player "+player.getName()+" is null during entity validation attempt, skipping validation.");
-			return;
+		ParticleAddition addition = null; // only made if someone can see it
+		for(PlayerLink link: connectionToPlayerInfoMap.values()) {
+			// particles are only for show, so they're the first thing to go when a client is falling behind.
+			if(link.interest.isInView(level, pos) && !link.connection.isCongested()) {
+				if(addition == null)
+					addition = new ParticleAddition(data, new PositionUpdate(level, pos, false));
+				link.connection.send(addition);
+			}
 		}
-		
-		// world.postRunnable(() -> {
-			EntityValidation validation = new EntityValidation(level, player);
-			pData.connection.send(validation);
-		// });
+		if(free) VectorPool.POOL.free(pos);
 	}
 	
 	public void playEntitySound(String soundName, Entity source) { playEntitySound(soundName, source, true); }
@@ -557,11 +727,18 @@ public abstract class GameServer implements GameProtocol {
 		if(source instanceof ServerPlayer && !broadcast)
 			playGenericSound(fullSoundName, source.getCenter(), (ServerPlayer)source, true);
 		else
-			playGenericSound(fullSoundName, source.getCenter(), true);
+			playLocalSound(fullSoundName, source.getLevel(), source.getCenter());
 	}
 	public void playTileSound(String soundName, Tile tile, TileTypeEnum type) {
 		//playGenericSound("tile/"+type+"/"+soundName, tile.getCenter());
-		playGenericSound("tile/"+soundName, tile.getCenter(), true);
+		playLocalSound("tile/"+soundName, tile.getLevel(), tile.getCenter());
+	}
+	// only players on the same level can hear it.
+	private void playLocalSound(String soundName, @Nullable Level level, Vector2 source) {
+		for(ServerPlayer player: playerToConnectionMap.keySet())
+			if(level != null && player.getLevel() == level)
+				playGenericSound(soundName, source, player);
+		VectorPool.POOL.free(source);
 	}
 	public void playGenericSound(String soundName, Vector2 source) { playGenericSound(soundName, source, false); }
 	public void playGenericSound(String soundName, Vector2 source, boolean free) {
@@ -583,6 +760,7 @@ public abstract class GameServer implements GameProtocol {
 		out.println("Miniventure Version: "+ Version.CURRENT);
 		out.println("Server Running: "+isRunning());
 		out.println("FPS: " + world.getFPS());
+		world.printUpdateStatus(out);
 		out.println("Players connected: "+playerToConnectionMap.size());
 		// Collection<PlayerLink> data;
 		// synchronized (playerLock) {
@@ -592,12 +770,33 @@ public abstract class GameServer implements GameProtocol {
 			out.print("     Player '"+pd.player.getName()+"' ");
 			if(pd.op) out.print("(admin) ");
 			out.print(pd.player.getLocation());
+			out.print(", "+pd.interest.getKnownEntityCount()+" entities in view");
 			out.println();
+			final double seconds = Math.max(1, (System.nanoTime() - pd.joinTime) / 1E9);
+			if(GameCore.debug) {
+				out.println(String.format(Locale.ROOT, "        entity snapshots: %.0f B/s, vs %.0f B/s as single updates (%.0f B/s saved)", pd.snapshotBytes / seconds, pd.updateBytes / seconds, (pd.updateBytes - pd.snapshotBytes) / seconds));
+				out.println(String.format(Locale.ROOT, "        tile batches: %d packets of %.0f B/s, vs %d packets of %.0f B/s as single updates", pd.tileBatchCount, pd.tileBatchBytes / seconds, pd.tileUpdateCount, pd.tileUpdateBytes / seconds));
+			}
+			else
+				out.println("        tile batches: "+pd.tileBatchCount+" packets, vs "+pd.tileUpdateCount+" as single updates");
+			out.print("        entity digests: "+pd.digestCount+" sent, ");
+			if(GameCore.debug)
+				out.print((pd.digestCount == 0 ? 0 : pd.digestBytes / pd.digestCount)+" bytes each; ");
+			out.println(pd.mismatchCount+" mismatch"+(pd.mismatchCount == 1 ? "" : "es")+", "+pd.resyncCount+" entities resent");
+			out.print("        ");
+			pd.connection.printStatus(out);
+			LevelStream stream = pd.levelStream;
+			if(stream != null)
+				out.println("        "+stream.getStatus());
 		}
+		printTransportStatus(out);
 		if(GameCore.debug)
 			out.println("Debug mode is enabled.");
 	}
 	
+	/// prints details of how packets are getting to clients; nothing for local connections.
+	void printTransportStatus(MessageBuilder out) {}
+	
 	abstract void stopServer();
 	
 	public void stop(boolean waitForClients) {
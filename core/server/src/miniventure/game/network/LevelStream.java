@@ -0,0 +1,221 @@
+package miniventure.game.network;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import miniventure.game.network.GameProtocol.LevelChunk;
+import miniventure.game.network.PacketPipe.PacketPipeWriter;
+import miniventure.game.util.MyUtils;
+import miniventure.game.world.Point;
+import miniventure.game.world.level.Level;
+import miniventure.game.world.level.ServerLevel;
+import miniventure.game.world.tile.TileStack.TileData;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sends the chunks of a level to one client, off the tick thread, starting with the ones closest to where the player is.
+ * Once the chunks the player can see are sent, the given callback is run so the player can be spawned while the rest of the level streams in behind them.
+ * Chunks go out as fast as the connection takes them; while it's backed up, the stream waits, a little longer each time it's still backed up.
+ * The client can ask for chunks it's missing; those go ahead of the rest, even if they were sent already.
+ */
+class LevelStream implements Runnable {
+	
+	// chunks sent before giving the thread to other streams.
+	private static final int CHUNKS_PER_TURN = 8;
+	private static final long MIN_BACKOFF = 1, MAX_BACKOFF = 64; // in milliseconds
+	
+	private static final ScheduledExecutorService streamer;
+	static {
+		AtomicInteger threadCount = new AtomicInteger();
+		streamer = Executors.newScheduledThreadPool(2, action -> {
+			Thread thread = new Thread(action, "Level Streamer "+threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	@NotNull private final ServerLevel level;
+	@NotNull private final PacketPipeWriter out;
+	@NotNull private final BooleanSupplier backedUp;
+	@NotNull private final Runnable onNearbySent;
+	
+	private final int chunksX, chunksY;
+	// every chunk index (x + y * chunksX), nearest to the player first; the first nearbyCount of them are the ones in view.
+	private final Integer[] order;
+	private final int nearbyCount;
+	private final ConcurrentLinkedQueue<Integer> requests = new ConcurrentLinkedQueue<>();
+	
+	// only touched by the run that's going.
+	private final boolean[] sent;
+	private int nextInOrder = 0;
+	private int orderSent = 0;
+	private long backoff = MIN_BACKOFF;
+	
+	private boolean active = false; // guarded by this; true while a run is queued or going.
+	private volatile boolean cancelled = false;
+	
+	// for the status
+	private final long startTime = System.nanoTime();
+	private volatile long nearbyTime = -1, doneTime = -1;
+	private volatile int chunksSent = 0, requestsSent = 0, backoffCount = 0;
+	
+	/**
+	 * @param center the tile the player is on; chunks are sent nearest to this first.
+	 * @param viewDistance how far the player can see, in tiles; negative for the whole level.
+	 * @param backedUp tells when the connection can't take more right now.
+	 * @param onNearbySent run once every chunk in view has been sent, on a streamer thread.
+	 */
+	LevelStream(@NotNull ServerLevel level, @NotNull PacketPipeWriter out, @NotNull Point center, int viewDistance, @NotNull BooleanSupplier backedUp, @NotNull Runnable onNearbySent) {
+		this.level = level;
+		this.out = out;
+		this.backedUp = backedUp;
+		this.onNearbySent = onNearbySent;
+		
+		chunksX = (level.getWidth() + Level.CHUNK_SIZE - 1) / Level.CHUNK_SIZE;
+		chunksY = (level.getHeight() + Level.CHUNK_SIZE - 1) / Level.CHUNK_SIZE;
+		sent = new boolean[chunksX * chunksY];
+		
+		final int cx = center.x / Level.CHUNK_SIZE;
+		final int cy = center.y / Level.CHUNK_SIZE;
+		final int radius = viewDistance < 0 ? Math.max(chunksX, chunksY) : (viewDistance + Level.CHUNK_SIZE - 1) / Level.CHUNK_SIZE;
+		// sorted by ring first, so the chunks in view come before any that aren't; then by actual distance, so the closest of those go first.
+		order = new Integer[sent.length];
+		int nearby = 0;
+		for(int i = 0; i < order.length; i++) {
+			order[i] = i;
+			if(getRing(i, cx, cy) <= radius)
+				nearby++;
+		}
+		nearbyCount = nearby;
+		Arrays.sort(order, Comparator.<Integer>comparingInt(i -> getRing(i, cx, cy)).thenComparingInt(i -> getDistSq(i, cx, cy)));
+	}
+	
+	private int getRing(int chunk, int cx, int cy) {
+		return Math.max(Math.abs(chunk % chunksX - cx), Math.abs(chunk / chunksX - cy));
+	}
+	private int getDistSq(int chunk, int cx, int cy) {
+		final int dx = chunk % chunksX - cx, dy = chunk / chunksX - cy;
+		return dx * dx + dy * dy;
+	}
+	
+	@NotNull
+	ServerLevel getLevel() { return level; }
+	
+	void start() { wake(); }
+	
+	void cancel() { cancelled = true; }
+	
+	/// queues a chunk the client says it's missing; chunk coordinates are in chunks, not tiles.
+	void request(int x, int y) {
+		if(x < 0 || y < 0 || x >= chunksX || y >= chunksY)
+			return;
+		requests.add(x + y * chunksX);
+		wake();
+	}
+	
+	private void wake() {
+		synchronized (this) {
+			if(active) return;
+			active = true;
+		}
+		streamer.execute(this);
+	}
+	
+	@Override
+	public void run() {
+		if(cancelled || !out.isOpen()) {
+			synchronized (this) {
+				active = false;
+			}
+			return;
+		}
+		
+		for(int count = 0; count < CHUNKS_PER_TURN; count++) {
+			if(backedUp.getAsBoolean()) {
+				backoffCount++;
+				streamer.schedule(this, backoff, TimeUnit.MILLISECONDS);
+				backoff = Math.min(MAX_BACKOFF, backoff * 2);
+				return;
+			}
+			backoff = MIN_BACKOFF;
+			
+			if(!sendNext())
+				break;
+			checkNearby();
+		}
+		checkNearby();
+		
+		synchronized (this) {
+			if(requests.isEmpty() && nextInOrder >= order.length) {
+				if(doneTime < 0) {
+					doneTime = System.nanoTime();
+					MyUtils.debug("Streamed "+level+" in "+(doneTime - startTime)/1_000_000+"ms, "+chunksSent+" chunks");
+				}
+				active = false;
+				return;
+			}
+		}
+		streamer.execute(this);
+	}
+	
+	private void checkNearby() {
+		if(nearbyTime < 0 && orderSent >= nearbyCount) {
+			nearbyTime = System.nanoTime();
+			onNearbySent.run();
+		}
+	}
+	
+	// sends a requested chunk if there are any, otherwise the next one in order that hasn't been sent. Returns false if there was nothing to send.
+	private boolean sendNext() {
+		Integer requested = requests.poll();
+		if(requested != null) {
+			send(requested);
+			requestsSent++;
+			return true;
+		}
+		
+		while(nextInOrder < order.length) {
+			final int chunk = order[nextInOrder++];
+			orderSent++;
+			if(!sent[chunk]) {
+				send(chunk);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void send(int chunk) {
+		final int x = (chunk % chunksX) * Level.CHUNK_SIZE;
+		final int y = (chunk / chunksX) * Level.CHUNK_SIZE;
+		final int width = Math.min(Level.CHUNK_SIZE, level.getWidth() - x);
+		final int height = Math.min(Level.CHUNK_SIZE, level.getHeight() - y);
+		
+		TileData[][] data = new TileData[width][height];
+		for(int i = 0; i < width; i++)
+			for(int j = 0; j < height; j++)
+				data[i][j] = new TileData(level.getTile(x + i, y + j), false);
+		
+		out.send(new LevelChunk(level.getLevelId(), new Point(x, y), data));
+		sent[chunk] = true;
+		chunksSent++;
+	}
+	
+	String getStatus() {
+		StringBuilder str = new StringBuilder();
+		str.append("level stream: ").append(orderSent).append('/').append(order.length).append(" chunks");
+		if(nearbyTime >= 0)
+			str.append(", in view after ").append((nearbyTime - startTime) / 1_000_000).append("ms");
+		if(doneTime >= 0)
+			str.append(", done after ").append((doneTime - startTime) / 1_000_000).append("ms");
+		str.append(", ").append(requestsSent).append(" requested, backed off ").append(backoffCount).append(" time").append(MyUtils.plural(backoffCount));
+		return str.toString();
+	}
+}
@@ -0,0 +1,298 @@
+package miniventure.game.network;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import miniventure.game.chat.ConsoleMessageBuilder;
+import miniventure.game.core.GameCore;
+import miniventure.game.core.ServerCore;
+import miniventure.game.network.GameProtocol.*;
+import miniventure.game.util.MyUtils;
+import miniventure.game.util.ProgressPrinter;
+import miniventure.game.util.RollingSamples;
+import miniventure.game.util.Version;
+import miniventure.game.world.entity.Direction;
+import miniventure.game.world.entity.mob.player.Player;
+import miniventure.game.world.file.WorldDataSet;
+import miniventure.game.world.file.WorldFileInterface;
+import miniventure.game.world.level.LevelId;
+import miniventure.game.world.tile.ServerTileType;
+
+import com.badlogic.gdx.math.Vector2;
+import com.esotericsoftware.kryonet.Client;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.FrameworkMessage.KeepAlive;
+import com.esotericsoftware.kryonet.Listener;
+
+/**
+ * Starts a dedicated server on a new throwaway world, then connects bots to it over the real network protocol, and has them play:
+ * they walk around at random, swing at things, drop items, and now and then sail to another island.
+ * Every so often, and at the end, prints the server's tick times, the bytes each bot is sent and sends, and how long the bots took to join; the same arguments give numbers that can be compared between versions.
+ *
+ * Arguments: [bots] [seconds] [--seed seed] [--port port] [--rate moves per second] [--join-interval ms]
+ */
+public class LoadGenerator {
+	
+	private static final int REPORT_INTERVAL = 10; // seconds
+	// the chances each move that a bot does something besides walking.
+	private static final float TURN_CHANCE = 0.03f, INTERACT_CHANCE = 0.02f, DROP_CHANCE = 0.002f, ISLAND_CHANCE = 0.0005f;
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int botCount = 20, seconds = 60, port = GameProtocol.PORT + 1, rate = 30, joinInterval = 100;
+		String seed = "loadtest";
+		int pos = 0;
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+				case "--seed": seed = args[++i]; break;
+				case "--port": port = Integer.parseInt(args[++i]); break;
+				case "--rate": rate = Integer.parseInt(args[++i]); break;
+				case "--join-interval": joinInterval = Integer.parseInt(args[++i]); break;
+				default:
+					if(pos++ == 0) botCount = Integer.parseInt(args[i]);
+					else seconds = Integer.parseInt(args[i]);
+			}
+		}
+		
+		GameCore.initNonGdxTextures();
+		ServerTileType.init();
+		
+		Path worldPath = Files.createTempDirectory("miniventure-loadtest");
+		RandomAccessFile lockRef = WorldFileInterface.tryLockWorld(worldPath);
+		WorldDataSet worldInfo = WorldFileInterface.createWorld(worldPath, lockRef, seed);
+		final int serverPort = port;
+		final long movePeriod = 1_000_000 / rate; // in microseconds
+		ServerCore core = new ServerCore((world, pdata) -> new NetworkServer(world, serverPort, addr -> false, pdata), worldInfo, new ProgressPrinter());
+		core.start();
+		
+		System.out.println("Miniventure "+Version.CURRENT+" load test: "+botCount+" bots for "+seconds+"s, "+rate+" moves/s each, joining every "+joinInterval+"ms, seed \""+seed+'"');
+		
+		ScheduledExecutorService driver = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2), action -> {
+			Thread thread = new Thread(action, "Load Test Bot Driver");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		RollingSamples joinTimes = new RollingSamples(botCount);
+		Bot[] bots = new Bot[botCount];
+		final long start = System.nanoTime();
+		for(int i = 0; i < botCount; i++) {
+			bots[i] = new Bot(i, joinTimes, 1f / rate);
+			Bot bot = bots[i];
+			driver.schedule(() -> {
+				try {
+					bot.connect(serverPort);
+				} catch(IOException e) {
+					System.err.println("bot "+bot.name+" failed to connect: "+e.getMessage());
+					return;
+				}
+				driver.scheduleAtFixedRate(bot::act, 0, movePeriod, TimeUnit.MICROSECONDS);
+			}, (long) i * joinInterval, TimeUnit.MILLISECONDS);
+		}
+		
+		ConsoleMessageBuilder out = new ConsoleMessageBuilder(new PrintWriter(System.out));
+		for(int elapsed = REPORT_INTERVAL; elapsed < seconds; elapsed += REPORT_INTERVAL) {
+			MyUtils.sleep(REPORT_INTERVAL * 1000);
+			report(out, core, bots, joinTimes, (System.nanoTime() - start) / 1E9, false);
+		}
+		MyUtils.sleep((seconds % REPORT_INTERVAL == 0 ? REPORT_INTERVAL : seconds % REPORT_INTERVAL) * 1000);
+		report(out, core, bots, joinTimes, (System.nanoTime() - start) / 1E9, true);
+		
+		driver.shutdownNow();
+		for(Bot bot: bots)
+			bot.client.close();
+		core.getWorld().exitWorld();
+		WorldFileInterface.deleteRecursively(worldPath);
+		System.exit(0);
+	}
+	
+	private static void report(ConsoleMessageBuilder out, ServerCore core, Bot[] bots, RollingSamples joinTimes, double elapsed, boolean last) {
+		int joined = 0;
+		long received = 0, sent = 0, minReceived = Long.MAX_VALUE, maxReceived = 0;
+		long moves = 0, corrections = 0, errors = 0;
+		for(Bot bot: bots) {
+			synchronized (bot) {
+				if(bot.joinTime >= 0) joined++;
+				final long botReceived = bot.serialization.getBytesRead();
+				received += botReceived;
+				sent += bot.serialization.getBytesWritten();
+				minReceived = Math.min(minReceived, botReceived);
+				maxReceived = Math.max(maxReceived, botReceived);
+				moves += bot.moveSeq;
+				corrections += bot.corrections;
+				errors += bot.errors;
+			}
+		}
+		long[] join = joinTimes.getPercentiles(50, 95, 99);
+		
+		out.println(String.format(Locale.ROOT, "%s after %.0fs: %d of %d bots joined, join ms (p50 / p95 / p99 / max): %.0f / %.0f / %.0f / %.0f",
+			last ? "Final results" : "Status", elapsed, joined, bots.length, join[0]/1E6, join[1]/1E6, join[2]/1E6, joinTimes.getMax()/1E6));
+		out.println(String.format(Locale.ROOT, "    bytes per bot: %.0f received (min %d, max %d), %.0f sent; %.0f B/s received, %.0f B/s sent",
+			received / (double) bots.length, minReceived, maxReceived, sent / (double) bots.length, received / elapsed / bots.length, sent / elapsed / bots.length));
+		out.println(String.format(Locale.ROOT, "    %d moves, %d corrected (%.2f%%); %d bot errors", moves, corrections, moves == 0 ? 0 : corrections * 100f / moves, errors));
+		core.getTimings().printStatus(out);
+		if(last)
+			core.getServer().printTransportStatus(out);
+		out.flush();
+	}
+	
+	// counts the bytes that go through the connection, including the length each packet is framed with.
+	private static class CountingSerialization extends CompressingSerialization {
+		private long bytesRead, bytesWritten; // guarded by this
+		
+		@Override
+		public synchronized void write(Connection connection, ByteBuffer buffer, Object object) {
+			final int start = buffer.position();
+			super.write(connection, buffer, object);
+			bytesWritten += buffer.position() - start + getLengthLength();
+		}
+		
+		@Override
+		public synchronized Object read(Connection connection, ByteBuffer buffer) {
+			bytesRead += buffer.remaining() + getLengthLength();
+			return super.read(connection, buffer);
+		}
+		
+		private synchronized long getBytesRead() { return bytesRead; }
+		private synchronized long getBytesWritten() { return bytesWritten; }
+	}
+	
+	private static class Bot extends Listener {
+		private final String name;
+		private final Random random;
+		private final RollingSamples joinTimes;
+		private final float moveTime;
+		private final CountingSerialization serialization;
+		private final Client client;
+		
+		// everything below is guarded by this.
+		private long connectTime, joinTime = -1;
+		private boolean spawned = false;
+		private LevelId levelId;
+		private float x, y, z;
+		private float dirX, dirY;
+		private int moveSeq = 0, ackSeq = 0;
+		private long corrections = 0, errors = 0;
+		private IslandReference[] islands;
+		
+		private Bot(int id, RollingSamples joinTimes, float moveTime) {
+			this.name = "bot"+id;
+			this.joinTimes = joinTimes;
+			this.moveTime = moveTime;
+			random = new Random(id);
+			serialization = new CountingSerialization();
+			client = new Client(GameProtocol.clientWriteBufferSize, GameProtocol.objectBufferSize, serialization);
+			GameProtocol.registerClasses(serialization.getKryo());
+			client.addListener(this);
+			turn();
+		}
+		
+		private void connect(int port) throws IOException {
+			synchronized (this) {
+				connectTime = System.nanoTime();
+			}
+			client.start();
+			client.connect(5000, "localhost", port);
+			client.sendTCP(new Login(name, Version.CURRENT, true));
+		}
+		
+		private void turn() {
+			final float angle = random.nextFloat() * 2 * (float) Math.PI;
+			dirX = (float) Math.cos(angle);
+			dirY = (float) Math.sin(angle);
+		}
+		
+		// one frame of input. An exception would quietly cancel the bot's task, leaving less load than reported, so it's counted instead.
+		private synchronized void act() {
+			try {
+				move();
+			} catch(RuntimeException e) {
+				if(errors++ == 0) {
+					System.err.println("bot "+name+" failed to act:");
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		private void move() {
+			if(!spawned || !client.isConnected())
+				return;
+			
+			if(random.nextFloat() < TURN_CHANCE)
+				turn();
+			
+			// walks as far as the client would in a frame; the server corrects it when it runs into things.
+			final float dist = Player.MOVE_SPEED * moveTime;
+			PositionUpdate start = new PositionUpdate(levelId, x, y, z);
+			x += dirX * dist;
+			y += dirY * dist;
+			client.sendTCP(new MovementRequest(++moveSeq, ackSeq, start, dirX * dist, dirY * dist, 0, new PositionUpdate(levelId, x, y, z)));
+			
+			Direction dir = Direction.getDirection(dirX, dirY);
+			if(random.nextFloat() < INTERACT_CHANCE)
+				client.sendTCP(new InteractRequest(random.nextBoolean(), new Vector2(x + dirX, y + dirY), dir, 0));
+			if(random.nextFloat() < DROP_CHANCE)
+				client.sendTCP(new ItemDropRequest(random.nextInt(3), false));
+			if(islands != null && islands.length > 1 && random.nextFloat() < ISLAND_CHANCE) {
+				LevelId target = islands[random.nextInt(islands.length)].surfaceLevelId;
+				if(!target.equals(levelId)) {
+					spawned = false; // until the new level's spawn data comes
+					client.sendTCP(new LevelChange(target));
+				}
+			}
+		}
+		
+		@Override
+		public void received(Connection connection, Object object) {
+			if(object instanceof KeepAlive)
+				return;
+			
+			synchronized (this) {
+				GameProtocol.forPacket(object, SpawnData.class, data -> {
+					PositionUpdate pos = data.playerData.positionUpdate;
+					setPosition(pos);
+					spawned = true;
+					if(joinTime < 0) {
+						joinTime = System.nanoTime() - connectTime;
+						joinTimes.add(joinTime);
+						client.sendTCP(new MapRequest());
+					}
+				});
+				
+				GameProtocol.forPacket(object, MapRequest.class, map -> islands = map.islands);
+				
+				GameProtocol.forPacket(object, MoveAck.class, ack -> {
+					ackSeq = ack.seq;
+					if(ack.corrected) {
+						corrections++;
+						setPosition(ack.pos);
+					}
+				});
+				
+				GameProtocol.forPacket(object, PositionUpdate.class, this::setPosition);
+				
+				GameProtocol.forPacket(object, LoginFailure.class, failure -> System.err.println("bot "+name+" failed to log in: "+failure.message));
+			}
+			
+			if(object == DatalessRequest.Death)
+				client.sendTCP(DatalessRequest.Respawn);
+			if(object == DatalessRequest.Compression)
+				serialization.setCompressing(client, true);
+		}
+		
+		private void setPosition(PositionUpdate pos) {
+			levelId = pos.levelId;
+			x = pos.x;
+			y = pos.y;
+			z = pos.z;
+		}
+	}
+}
@@ -56,6 +56,9 @@ public class LocalServer extends GameServer {
 		return PLAYER_ADDR;
 	}
 	
+	@Override
+	boolean sharesMemory() { return true; }
+	
 	@Override
 	void stopServer() {
 		in.close();
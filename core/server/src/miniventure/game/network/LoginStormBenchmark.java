@@ -0,0 +1,161 @@
+package miniventure.game.network;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import miniventure.game.core.GameCore;
+import miniventure.game.core.ServerCore;
+import miniventure.game.network.GameProtocol.DatalessRequest;
+import miniventure.game.network.GameProtocol.Login;
+import miniventure.game.network.GameProtocol.LoginFailure;
+import miniventure.game.network.GameProtocol.SpawnData;
+import miniventure.game.util.MyUtils;
+import miniventure.game.util.ProgressPrinter;
+import miniventure.game.util.RollingSamples;
+import miniventure.game.util.Version;
+import miniventure.game.world.file.WorldDataSet;
+import miniventure.game.world.file.WorldFileInterface;
+import miniventure.game.world.management.ServerWorld;
+import miniventure.game.world.tile.ServerTileType;
+
+import com.esotericsoftware.kryonet.Client;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+
+/**
+ * Starts a dedicated server on a new throwaway world, then has a crowd of clients log in all at once, wait to spawn, and log off again, for a number of rounds.
+ * The first round is all new players, and the rest are returning ones. Each round prints how long the joins took, and what the server wrote to disk for them: the player files, and the whole-world saves, which joining and leaving shouldn't cause.
+ *
+ * Arguments: [clients] [rounds] [--seed seed] [--port port]
+ */
+public class LoginStormBenchmark {
+	
+	private static final int JOIN_TIMEOUT = 60; // seconds
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int clientCount = 50, rounds = 3, port = GameProtocol.PORT + 2;
+		String seed = "loginstorm";
+		int pos = 0;
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+				case "--seed": seed = args[++i]; break;
+				case "--port": port = Integer.parseInt(args[++i]); break;
+				default:
+					if(pos++ == 0) clientCount = Integer.parseInt(args[i]);
+					else rounds = Integer.parseInt(args[i]);
+			}
+		}
+		
+		GameCore.initNonGdxTextures();
+		ServerTileType.init();
+		
+		Path worldPath = Files.createTempDirectory("miniventure-loginstorm");
+		RandomAccessFile lockRef = WorldFileInterface.tryLockWorld(worldPath);
+		WorldDataSet worldInfo = WorldFileInterface.createWorld(worldPath, lockRef, seed);
+		final int serverPort = port;
+		ServerCore core = new ServerCore((world, pdata) -> new NetworkServer(world, serverPort, addr -> false, pdata), worldInfo, new ProgressPrinter());
+		core.start();
+		ServerWorld world = core.getWorld();
+		
+		System.out.println("Miniventure "+Version.CURRENT+" login storm: "+clientCount+" clients at once, "+rounds+" rounds, seed \""+seed+'"');
+		
+		for(int round = 1; round <= rounds; round++) {
+			final int playerSaves = world.getPlayerSaveCount();
+			final long playerBytes = world.getPlayerSaveBytes();
+			final int worldSaves = world.getWorldSaveCount();
+			
+			RollingSamples joinTimes = new RollingSamples(clientCount);
+			CountDownLatch joined = new CountDownLatch(clientCount);
+			Joiner[] joiners = new Joiner[clientCount];
+			for(int i = 0; i < clientCount; i++)
+				joiners[i] = new Joiner(i, joinTimes, joined);
+			
+			final long start = System.nanoTime();
+			for(Joiner joiner: joiners) {
+				new Thread(() -> {
+					try {
+						joiner.connect(serverPort);
+					} catch(IOException e) {
+						System.err.println("client "+joiner.name+" failed to connect: "+e.getMessage());
+						joined.countDown();
+					}
+				}, "Login Storm Client").start();
+			}
+			if(!joined.await(JOIN_TIMEOUT, TimeUnit.SECONDS))
+				System.err.println("round "+round+": "+joined.getCount()+" clients hadn't spawned after "+JOIN_TIMEOUT+"s");
+			final long stormTime = System.nanoTime() - start;
+			
+			for(Joiner joiner: joiners)
+				joiner.client.close();
+			// waits for the server to see them all leave, and for the player files that go with that to be written.
+			while(core.getServer().getPlayerCount() > 0)
+				MyUtils.sleep(50);
+			world.awaitSaves();
+			
+			long[] join = joinTimes.getPercentiles(50, 95);
+			final int files = world.getPlayerSaveCount() - playerSaves;
+			final long bytes = world.getPlayerSaveBytes() - playerBytes;
+			System.out.println(String.format(Locale.ROOT, "Round %d (%s players): %d of %d joined in %.0f ms, join ms (p50 / p95 / max): %.0f / %.0f / %.0f",
+				round, round == 1 ? "new" : "returning", joinTimes.size(), clientCount, stormTime/1E6, join[0]/1E6, join[1]/1E6, joinTimes.getMax()/1E6));
+			System.out.println(String.format(Locale.ROOT, "    wrote %d player files, %.1f KB (%.0f bytes per client); %d world saves",
+				files, bytes / 1024f, bytes / (double) clientCount, world.getWorldSaveCount() - worldSaves));
+		}
+		
+		world.exitWorld();
+		WorldFileInterface.deleteRecursively(worldPath);
+		System.exit(0);
+	}
+	
+	private static class Joiner extends Listener {
+		private final String name;
+		private final RollingSamples joinTimes;
+		private final CountDownLatch joined;
+		private final CompressingSerialization serialization;
+		private final Client client;
+		
+		private volatile long connectTime;
+		private boolean spawned = false; // guarded by this
+		
+		private Joiner(int id, RollingSamples joinTimes, CountDownLatch joined) {
+			this.name = "player"+id;
+			this.joinTimes = joinTimes;
+			this.joined = joined;
+			serialization = new CompressingSerialization();
+			client = new Client(GameProtocol.clientWriteBufferSize, GameProtocol.objectBufferSize, serialization);
+			GameProtocol.registerClasses(serialization.getKryo());
+			client.addListener(this);
+		}
+		
+		private void connect(int port) throws IOException {
+			connectTime = System.nanoTime();
+			client.start();
+			client.connect(5000, "localhost", port);
+			client.sendTCP(new Login(name, Version.CURRENT, true));
+		}
+		
+		@Override
+		public void received(Connection connection, Object object) {
+			if(object == DatalessRequest.Compression)
+				serialization.setCompressing(client, true);
+			
+			GameProtocol.forPacket(object, SpawnData.class, data -> {
+				synchronized (this) {
+					if(spawned) return;
+					spawned = true;
+				}
+				joinTimes.add(System.nanoTime() - connectTime);
+				joined.countDown();
+			});
+			
+			GameProtocol.forPacket(object, LoginFailure.class, failure -> {
+				System.err.println("client "+name+" failed to log in: "+failure.message);
+				joined.countDown();
+			});
+		}
+	}
+}
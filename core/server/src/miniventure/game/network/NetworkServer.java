@@ -3,7 +3,9 @@ package miniventure.game.network;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.HashMap;
+import java.util.function.BooleanSupplier;
 
+import miniventure.game.chat.MessageBuilder;
 import miniventure.game.network.PacketPipe.PacketPipeReader;
 import miniventure.game.network.PacketPipe.PacketPipeWriter;
 import miniventure.game.util.MyUtils;
@@ -16,6 +18,8 @@ import miniventure.game.world.management.ServerWorld;
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.FrameworkMessage.KeepAlive;
 import com.esotericsoftware.kryonet.Listener;
+import com.esotericsoftware.kryonet.Listener.LagListener;
+import com.esotericsoftware.kryonet.MiniventureConnection;
 import com.esotericsoftware.kryonet.MiniventureServer;
 
 import org.jetbrains.annotations.NotNull;
@@ -25,6 +29,7 @@ public class NetworkServer extends GameServer {
 	
 	private final int port;
 	private MiniventureServer server;
+	private final CompressingSerialization serialization = new CompressingSerialization();
 	
 	private final HashMap<PacketPipeWriter, Connection> writerToConnectionMap = new HashMap<>();
 	private final HashMap<Connection, PacketPipe> connectionToPipeMap = new HashMap<>();
@@ -38,9 +43,9 @@ public class NetworkServer extends GameServer {
 		this.port = port;
 		this.hostChecker = hostChecker;
 		
-		server = new MiniventureServer(serverWriteBufferSize, objectBufferSize);
-		GameProtocol.registerClasses(server.getKryo());
-		server.addListener(new Listener() {
+		server = new MiniventureServer(serverWriteBufferSize, objectBufferSize, serialization);
+		GameProtocol.registerClasses(serialization.getKryo());
+		Listener listener = new Listener() {
 			@Override
 			public void received(Connection connection, Object object) {
 				if(object instanceof KeepAlive)
@@ -66,7 +71,8 @@ public class NetworkServer extends GameServer {
 			public void disconnected(Connection connection) {
 				world.postRunnable(() -> onDisconnect(connection));
 			}
-		});
+		};
+		server.addListener(lag ? new LagListener(lagMin, lagMax, listener) : listener);
 		server.start();
 		server.bind(port);
 	}
@@ -117,6 +123,11 @@ public class NetworkServer extends GameServer {
 		
 		// login data validated
 		
+		if(login.compression) {
+			serialization.setCompressing(connection, true);
+			connection.sendTCP(DatalessRequest.Compression);
+		}
+		
 		PacketPipe sendPipe = new PacketPipe("Server to "+connection.getRemoteAddressTCP().getHostString()) {
 			@Override
 			public String toString() {
@@ -170,6 +181,26 @@ public class NetworkServer extends GameServer {
 		return c == null ? null : c.getRemoteAddressTCP();
 	}
 	
+	// the send pipe empties straight into the connection, which holds packets back in its own queue once its write buffer is half full; so that can back up while the pipe looks fine.
+	@NotNull @Override
+	BooleanSupplier getBackpressure(@NotNull PacketPipeWriter connection) {
+		Connection c = writerToConnectionMap.get(connection);
+		if(!(c instanceof MiniventureConnection))
+			return super.getBackpressure(connection);
+		MiniventureConnection mc = (MiniventureConnection) c;
+		return () -> connection.isCongested() || mc.getQueuedCount() > 0 || !mc.isIdle();
+	}
+	
+	@Override
+	void printTransportStatus(MessageBuilder out) {
+		serialization.printStatus(out);
+		for(Connection c: server.getConnections()) {
+			if(!(c instanceof MiniventureConnection)) continue;
+			out.println("Send lanes for "+c+':');
+			((MiniventureConnection)c).printStatus(out);
+		}
+	}
+	
 	@Override
 	public void stopServer() { server.stop(); }
 }
@@ -0,0 +1,26 @@
+package miniventure.game.network;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Measures how many bytes packets take once KryoNet serializes them; only used for stats, so local connections are measured as if they went over the network.
+ */
+class PacketSizer {
+	
+	// KryoNet puts the length of each packet in front of it.
+	private static final int FRAME_BYTES = 4;
+	
+	private final Kryo kryo = new Kryo();
+	private final Output output = new Output(256, -1);
+	
+	PacketSizer() {
+		GameProtocol.registerClasses(kryo);
+	}
+	
+	synchronized int sizeOf(Object packet) {
+		output.clear();
+		kryo.writeClassAndObject(output, packet);
+		return output.position() + FRAME_BYTES;
+	}
+}
@@ -0,0 +1,47 @@
+package miniventure.game.network;
+
+import miniventure.game.network.GameProtocol.TileUpdateBatch;
+import miniventure.game.world.level.LevelId;
+import miniventure.game.world.tile.TileStack.TileData;
+import miniventure.game.world.tile.TileTypeEnum;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Gathers the tiles that go in one player's batch for a tick: the ones that changed in view, and the ones that changed out of view and have come into it since.
+ * Reused for each player; build empties it for the next.
+ */
+class TileBatchBuilder {
+	
+	@Nullable private LevelId levelId;
+	private final IntArray positions = new IntArray();
+	private final Array<TileData> data = new Array<>(TileData.class);
+	private final Array<TileTypeEnum> types = new Array<>(TileTypeEnum.class);
+	
+	/// all the tiles in a batch have to be on the same level; that's the player's, since nothing else is let through.
+	void add(@NotNull LevelId levelId, int x, int y, @NotNull TileData tileData, @Nullable TileTypeEnum updatedType) {
+		this.levelId = levelId;
+		positions.add(x << 16 | y);
+		data.add(tileData);
+		types.add(updatedType);
+	}
+	
+	int size() { return positions.size; }
+	
+	/// the batch of the tiles added since the last one, or null if there weren't any.
+	@Nullable
+	TileUpdateBatch build() {
+		if(levelId == null)
+			return null;
+		TileUpdateBatch batch = new TileUpdateBatch(levelId, positions.toArray(), data.toArray(), types.toArray());
+		levelId = null;
+		positions.clear();
+		data.clear();
+		types.clear();
+		return batch;
+	}
+}
@@ -0,0 +1,51 @@
+package miniventure.game.network;
+
+import miniventure.game.network.GameProtocol.TileUpdate;
+import miniventure.game.world.Point;
+import miniventure.game.world.tile.Tile;
+import miniventure.game.world.tile.TileStack.TileData;
+import miniventure.game.world.tile.TileTypeEnum;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A tile that changed during a tick, kept until the tile batches for the tick are sent. However many times the tile changes in the tick, it's only sent once, as it is at the end.
+ */
+class TileChange {
+	
+	@NotNull final Tile tile;
+	// the last type to start a new animation this tick, if any.
+	@Nullable TileTypeEnum updatedType;
+	// how many times the tile changed this tick; each was a TileUpdate to every client that could see it.
+	int count = 0;
+	
+	private TileData data;
+	private int updateSize = -1;
+	
+	TileChange(@NotNull Tile tile) {
+		this.tile = tile;
+	}
+	
+	void changed(@Nullable TileTypeEnum updatedType) {
+		if(updatedType != null)
+			this.updatedType = updatedType;
+		count++;
+	}
+	
+	/// the tile as it is now; only made once, when the first batch that includes the tile is sent.
+	TileData getData() {
+		if(data == null)
+			data = new TileData(tile, false);
+		return data;
+	}
+	
+	/// the size of the single TileUpdate each change used to be sent as.
+	int getUpdateSize(@NotNull PacketSizer sizer) {
+		if(updateSize < 0) {
+			Point pos = tile.getLocation();
+			updateSize = sizer.sizeOf(new TileUpdate(getData(), tile.getLevel().getLevelId(), pos.x, pos.y, updatedType));
+		}
+		return updateSize;
+	}
+}
@@ -0,0 +1,114 @@
+package miniventure.game.util;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A hashed timing wheel: schedules objects to come due at some absolute tick.
+ * Each tick has a slot, wrapping around every {@code slotCount} ticks; objects due further out than that wait in their slot for more laps.
+ * Scheduling, rescheduling and cancelling are constant time, and advancing a tick only looks at the one slot for that tick.
+ * An object can only be scheduled once at a time; scheduling it again replaces the old deadline.
+ */
+public class TimerWheel<T> {
+	
+	private static class Entry<T> {
+		private final T obj;
+		private long dueTick;
+		private int slot;
+		private Entry<T> prev, next;
+		
+		private Entry(T obj) { this.obj = obj; }
+	}
+	
+	private final Entry<T>[] slots;
+	private final int mask;
+	private final HashMap<T, Entry<T>> scheduled = new HashMap<>();
+	private long currentTick;
+	
+	/// the slot count is rounded up to a power of two.
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TimerWheel(int slotCount, long startTick) {
+		int size = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+		slots = (Entry<T>[]) new Entry[size];
+		mask = size - 1;
+		currentTick = startTick;
+	}
+	
+	public long getCurrentTick() { return currentTick; }
+	
+	public int size() { return scheduled.size(); }
+	
+	public boolean isScheduled(T obj) { return scheduled.containsKey(obj); }
+	
+	/// schedules the object to be due on the given tick, replacing any deadline it already had. Ticks that have already passed come due on the next advance.
+	public void schedule(@NotNull T obj, long dueTick) {
+		Entry<T> entry = scheduled.get(obj);
+		if(entry == null) {
+			entry = new Entry<>(obj);
+			scheduled.put(obj, entry);
+		}
+		else
+			unlink(entry);
+		
+		entry.dueTick = Math.max(dueTick, currentTick + 1);
+		link(entry);
+	}
+	
+	/// returns true if the object was scheduled.
+	public boolean cancel(T obj) {
+		Entry<T> entry = scheduled.remove(obj);
+		if(entry == null)
+			return false;
+		unlink(entry);
+		return true;
+	}
+	
+	public void clear() {
+		for(int i = 0; i < slots.length; i++)
+			slots[i] = null;
+		scheduled.clear();
+	}
+	
+	/// moves the wheel forward to the given tick, removing everything that has come due by then and adding it to the given collection.
+	public void advance(long toTick, @NotNull Collection<? super T> due) {
+		if(toTick <= currentTick)
+			return;
+		
+		// past one full lap every slot gets looked at anyway, so there's no need to visit them more than once.
+		final long start = Math.max(currentTick + 1, toTick - mask);
+		currentTick = toTick;
+		for(long tick = start; tick <= toTick; tick++) {
+			Entry<T> entry = slots[(int) (tick & mask)];
+			while(entry != null) {
+				Entry<T> next = entry.next;
+				if(entry.dueTick <= toTick) {
+					unlink(entry);
+					scheduled.remove(entry.obj);
+					due.add(entry.obj);
+				}
+				entry = next;
+			}
+		}
+	}
+	
+	private void link(Entry<T> entry) {
+		entry.slot = (int) (entry.dueTick & mask);
+		entry.prev = null;
+		entry.next = slots[entry.slot];
+		if(entry.next != null)
+			entry.next.prev = entry;
+		slots[entry.slot] = entry;
+	}
+	
+	private void unlink(Entry<T> entry) {
+		if(entry.prev != null)
+			entry.prev.next = entry.next;
+		else
+			slots[entry.slot] = entry.next;
+		if(entry.next != null)
+			entry.next.prev = entry.prev;
+		entry.prev = entry.next = null;
+	}
+}
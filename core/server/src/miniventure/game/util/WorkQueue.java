@@ -0,0 +1,94 @@
+package miniventure.game.util;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import miniventure.game.chat.MessageBuilder;
+
+/**
+ * A queue of work posted from any number of threads and run by one consumer thread.
+ * Posting never blocks; the queue itself is lock-free, so network threads don't contend with each other or with the thread draining it.
+ * Keeps track of how deep the queue gets and how long work waits before it's run.
+ */
+public class WorkQueue {
+	
+	private static final int SAMPLE_COUNT = 1000;
+	private static final float[] PERCENTILES = {50, 95, 99};
+	
+	private static class Task {
+		private final Runnable action;
+		private final long postTime;
+		
+		private Task(Runnable action) {
+			this.action = action;
+			postTime = System.nanoTime();
+		}
+	}
+	
+	private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+	// ConcurrentLinkedQueue.size() walks the whole queue, so the depth is counted separately.
+	private final AtomicInteger depth = new AtomicInteger();
+	
+	// written by the consumer; the counters are synchronized so the status can be read from other threads.
+	private final RollingSamples waitTimes = new RollingSamples(SAMPLE_COUNT);
+	private final RollingSamples batchSizes = new RollingSamples(SAMPLE_COUNT);
+	private int peakDepth = 0;
+	private long totalRun = 0;
+	private long overBudgetCount = 0;
+	
+	public void post(Runnable action) {
+		queue.add(new Task(action));
+		depth.incrementAndGet();
+	}
+	
+	public int getDepth() { return depth.get(); }
+	
+	/**
+	 * Runs the work that was in the queue when this was called; anything posted while draining is left for next time.
+	 * If a budget is given, draining stops once it's used up, and the rest waits for the next drain.
+	 *
+	 * @param budget the max time to spend, in nanoseconds; zero or less for no limit.
+	 * @return how many tasks were run.
+	 */
+	public int drain(long budget) {
+		final int available = depth.get();
+		synchronized (this) {
+			peakDepth = Math.max(peakDepth, available);
+		}
+		
+		final long start = System.nanoTime();
+		int count = 0;
+		while(count < available) {
+			if(budget > 0 && count > 0 && System.nanoTime() - start >= budget) {
+				synchronized (this) {
+					overBudgetCount++;
+				}
+				break;
+			}
+			
+			Task task = queue.poll();
+			if(task == null) break;
+			depth.decrementAndGet();
+			waitTimes.add(System.nanoTime() - task.postTime);
+			count++;
+			task.action.run();
+		}
+		
+		batchSizes.add(count);
+		synchronized (this) {
+			totalRun += count;
+		}
+		return count;
+	}
+	
+	public void printStatus(MessageBuilder out) {
+		long[] wait = waitTimes.getPercentiles(PERCENTILES);
+		long[] batch = batchSizes.getPercentiles(PERCENTILES);
+		synchronized (this) {
+			out.println("Queued work: "+depth.get()+" waiting, peak "+peakDepth+", "+totalRun+" run, budget hit "+overBudgetCount+" time"+MyUtils.plural((int)overBudgetCount));
+		}
+		out.println(String.format(Locale.ROOT, "    wait ms (p50 / p95 / p99): %.3f / %.3f / %.3f", wait[0]/1E6, wait[1]/1E6, wait[2]/1E6));
+		out.println(String.format(Locale.ROOT, "    per drain (p50 / p95 / p99): %d / %d / %d", batch[0], batch[1], batch[2]));
+	}
+}
@@ -4,7 +4,6 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Map.Entry;
 
-import miniventure.game.network.GameProtocol.EntityUpdate;
 import miniventure.game.network.GameProtocol.PositionUpdate;
 import miniventure.game.network.GameProtocol.SpriteUpdate;
 import miniventure.game.network.GameServer;
@@ -66,14 +65,17 @@ public abstract class ServerEntity extends Entity {
 	@Override
 	public boolean isMob() { return this instanceof Mob; }
 	
-	@Override
-	public void update(float delta) {
+	// passes on any position or sprite changes made since the last call, to go out in the snapshots for this tick; the server world calls this for every entity at the end of each tick.
+	public void flushUpdates() {
 		if(newSprite != null || newPos != null) {
-			getServer().broadcastLocal(getLevel(), this, new EntityUpdate(getTag(), newPos, newSprite));
+			getServer().entityChanged(this, newPos, newSprite);
 			newPos = null;
 			newSprite = null;
 		}
-		
+	}
+	
+	@Override
+	public void update(float delta) {
 		if(isFloating()) return; // floating entities don't interact
 		
 		ServerLevel level = getLevel();
@@ -97,6 +99,9 @@ public abstract class ServerEntity extends Entity {
 		RectPool.POOL.free(bounds);
 	}
 	
+	// called before the next update when the entity's chunk is simulated again after being frozen for the given number of seconds. Most entities don't need to catch anything up; things with timers, like item lifetimes, should advance them here.
+	public void resume(float elapsed) {}
+	
 	protected void updateSprite(SpriteUpdate newSprite) { this.newSprite = newSprite; }
 	
 	@Override
@@ -105,7 +105,7 @@ public abstract class ServerMob extends ServerEntity implements Mob {
 	protected void setDirection(@NotNull Direction dir) {
 		if(animator.setDirection(dir)) {
 			this.dir = dir;
-			getServer().broadcastLocal(getLevel(), this, new MobUpdate(getTag(), dir));
+			getServer().broadcastEntityUpdate(this, new MobUpdate(getTag(), dir));
 		}
 	}
 	
@@ -178,7 +178,7 @@ public abstract class ServerMob extends ServerEntity implements Mob {
 		
 		ServerLevel level = getLevel();
 		if(level != null) {
-			getServer().broadcastGlobal(new Hurt(obj.getTag(), getTag(), damage*1f/maxHealth));
+			getServer().broadcastEntityEvent(this, new Hurt(obj.getTag(), getTag(), damage*1f/maxHealth));
 			getServer().broadcastParticle(new TextParticleData(String.valueOf(damage), this instanceof ServerPlayer ? Color.PINK : Color.RED), this);
 		}
 		
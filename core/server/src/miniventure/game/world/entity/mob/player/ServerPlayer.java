@@ -61,6 +61,12 @@ public class ServerPlayer extends ServerMob implements Player {
 	// this is reset when the normal crafting screen is opened, so that if a selection request is made when this is null, then we'll search for a hammer that provides the given recipe
 	private HammerItem lastQueried = null;
 	
+	// seconds between MoveAcks while nothing needs correcting; the client only needs them to let go of the moves it's keeping to replay.
+	private static final float ACK_INTERVAL = 0.1f;
+	// the seq of the last MovementRequest handled, the last one acknowledged, and the last one corrected.
+	private int lastMoveSeq = 0, lastAckSeq = 0, correctionSeq = 0;
+	private float ackDelta = 0;
+	
 	private final String name;
 	
 	public ServerPlayer(@NotNull ServerWorld world, String name) {
@@ -158,6 +164,21 @@ public class ServerPlayer extends ServerMob implements Player {
 		GameProtocol.forPacket(packet, type, response);
 	}*/
 	
+	@Override
+	public void update(float delta) {
+		super.update(delta);
+		
+		ackDelta += delta;
+		if(lastMoveSeq > lastAckSeq && ackDelta >= ACK_INTERVAL)
+			sendMoveAck(false);
+	}
+	
+	private void sendMoveAck(boolean corrected) {
+		lastAckSeq = lastMoveSeq;
+		ackDelta = 0;
+		getServer().sendToPlayer(this, new MoveAck(lastMoveSeq, new PositionUpdate(this), corrected));
+	}
+	
 	// this allows a lot of the packet handling that deals with inner workings of the ServerPlayer to occur right within the ServerPlayer class, and not require it to have a bunch of public methods that only GameServer ever uses.
 	@Override
 	public void handlePlayerPackets(@NotNull Object packet, @NotNull PacketPipeWriter connection) {
@@ -179,9 +200,15 @@ public class ServerPlayer extends ServerMob implements Player {
 			if(!GameCore.debug) // TODO replace this static speed check with something that determines the player's speed with respect to their situation.
 				moveDist.clamp(0, Math.min(.5f, 2.5f*Player.MOVE_SPEED/Math.min(world.getFPS(), 60))); // the server will not allow the client to move fast (unless in debug mode)
 			move(moveDist, true);
+			lastMoveSeq = move.seq;
+			// the client made this move before it got the last correction, so the end pos is off from the same mistake; the move is taken as the server sees it.
+			if(move.ackSeq < correctionSeq)
+				return;
 			// compare against given end pos
-			if(move.endPos.variesFrom(this))
-				connection.send(new PositionUpdate(this));
+			if(move.endPos.variesFrom(this)) {
+				correctionSeq = move.seq;
+				sendMoveAck(true);
+			}
 			else
 				moveTo(move.endPos.getPos(), true);
 			// note that the server will always have the say when it comes to which level the player should be on.
@@ -74,6 +74,9 @@ public class ItemEntity extends ServerEntity {
 		lifetime.update(delta);
 	}
 	
+	@Override
+	public void resume(float elapsed) { lifetime.update(elapsed); }
+	
 	@Override
 	public boolean touchedBy(Entity other) {
 		if(other instanceof ServerPlayer && lifetime.getTime() > PICKUP_DELAY * (delayPickup ? 4 : 1) && ((ServerPlayer)other).takeItem(item)) {
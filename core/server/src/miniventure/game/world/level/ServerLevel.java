@@ -1,17 +1,22 @@
 package miniventure.game.world.level;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+import miniventure.game.core.TickTimings;
+import miniventure.game.core.TickTimings.TickPhase;
 import miniventure.game.item.ServerItem;
-import miniventure.game.network.GameProtocol.TileUpdate;
 import miniventure.game.network.GameServer;
+import miniventure.game.network.LevelSnapshot;
 import miniventure.game.util.MyUtils;
+import miniventure.game.util.TimerWheel;
 import miniventure.game.util.Version;
 import miniventure.game.util.function.ValueAction;
 import miniventure.game.util.pool.RectPool;
 import miniventure.game.util.pool.VectorPool;
 import miniventure.game.world.Boundable;
 import miniventure.game.world.ItemDrop;
+import miniventure.game.world.Point;
 import miniventure.game.world.WorldObject;
 import miniventure.game.world.entity.Entity;
 import miniventure.game.world.entity.ServerEntity;
@@ -21,9 +26,11 @@ import miniventure.game.world.entity.mob.player.Player;
 import miniventure.game.world.entity.mob.player.ServerPlayer;
 import miniventure.game.world.entity.particle.ItemEntity;
 import miniventure.game.world.file.LevelDataSet;
+import miniventure.game.world.management.Config;
 import miniventure.game.world.management.ServerWorld;
 import miniventure.game.world.tile.ServerTile;
 import miniventure.game.world.tile.Tile;
+import miniventure.game.world.tile.TileLayers;
 import miniventure.game.world.tile.TileStack.TileData;
 import miniventure.game.world.tile.TileTypeEnum;
 import miniventure.game.world.worldgen.island.ProtoLevel;
@@ -32,6 +39,7 @@ import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -39,29 +47,77 @@ import org.jetbrains.annotations.Nullable;
 /** @noinspection EqualsAndHashcode*/
 public class ServerLevel extends Level {
 	
-	public static final int CHUNK_SIZE = 20;
+	private static final int TILE_WHEEL_SLOTS = 512;
 	//private static final float TILE_REFRESH_INTERVAL = 500; // every this many seconds, all tiles within the below radius of any keep-alive is updated.
 	//private static final int TILE_REFRESH_RADIUS = 4; // the radius mentioned above.
 	
 	// private final LevelCache dataCache;
 	
+	// the tiles themselves; ServerTiles are only views of this, made when asked for.
+	private final TileLayers tileLayers;
+	
 	private final Set<Tile> newTileUpdates = Collections.synchronizedSet(new HashSet<>());
-	private final HashMap<Tile, Float> tileUpdateQueue = new HashMap<>();
+	// tiles waiting on a delayed update, keyed by the tile tick they're due on.
+	private final TimerWheel<Tile> tileUpdateQueue = new TimerWheel<>(TILE_WHEEL_SLOTS, 0);
+	private long tileTick = 0;
+	
+	/*
+		Only the chunks within the simulation radius of a player are simulated. Everything else is frozen: entities
+		aren't updated, and tile updates that come due are held until the chunk is active again. When a chunk resumes,
+		its held tile updates are run, and its entities are given the time they missed through ServerEntity.resume.
+	 */
+	private final int chunksX, chunksY;
+	private final boolean[] activeChunks;
+	private final boolean[] nextActiveChunks;
+	private final IntArray activeChunkList = new IntArray();
+	private final HashSet<Tile>[] frozenTileUpdates;
+	// entities that have been skipped, and the tick they were first skipped on.
+	private final Map<ServerEntity, Long> frozenEntities = new ConcurrentHashMap<>();
+	
+	// the entities in each region as of the last save snapshot, to tell which regions' entities have changed since; null to count them all as changed.
+	private List<String>[] savedEntities;
 	
 	// prevents level from being pruned before any keep-alives are added to it.
 	private boolean preload = true;
 	//private float timeCache = 0; // this is used when you should technically be updating < 1 tile in a frame.
 	
 	public ServerLevel(@NotNull ServerWorld world, LevelId levelId, ProtoLevel level) {
-		super(world, levelId, level.getMap(), ServerTile::new);
-		// this.dataCache = cache;
+		this(world, levelId, level.getMap());
+	}
+	private ServerLevel(@NotNull ServerWorld world, LevelId levelId, TileTypeEnum[][][] tileTypes) {
+		this(world, levelId, tileTypes.length, tileTypes.length == 0 ? 0 : tileTypes[0].length);
+		
+		MyUtils.debug(world.getClass().getSimpleName()+": fetching level "+levelId+" initial tile data...");
+		for(int x = 0; x < tileTypes.length; x++)
+			for(int y = 0; y < tileTypes[x].length; y++)
+				for(TileTypeEnum type: tileTypes[x][y])
+					tileLayers.pushLayer(tileLayers.getIndex(x, y), type, null);
+		MyUtils.debug(world.getClass().getSimpleName()+": tile data initialized.");
 	}
 	
 	public ServerLevel(@NotNull ServerWorld world, LevelId levelId, TileData[][] tileData) {
-		super(world, levelId, tileData, ServerTile::new);
+		this(world, levelId, tileData.length, tileData.length == 0 ? 0 : tileData[0].length);
+		
+		MyUtils.debug(world.getClass().getSimpleName()+": loading level "+levelId+" tile data...");
+		tileLayers.setTiles(tileData);
+		MyUtils.debug(world.getClass().getSimpleName()+": tile data loaded.");
+	}
+	
+	/// a level with no tiles yet, for them to be read into through its TileLayers.
+	public ServerLevel(@NotNull ServerWorld world, LevelId levelId, int width, int height) {
+		super(world, levelId, width, height);
 		// this.dataCache = cache;
+		tileLayers = new TileLayers(width, height);
+		chunksX = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		chunksY = (height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		activeChunks = new boolean[chunksX * chunksY];
+		nextActiveChunks = new boolean[activeChunks.length];
+		frozenTileUpdates = makeChunkSets(activeChunks.length);
 	}
 	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static HashSet<Tile>[] makeChunkSets(int count) { return (HashSet<Tile>[]) new HashSet[count]; }
+	
 	@Override @NotNull
 	public ServerWorld getWorld() { return (ServerWorld) super.getWorld(); }
 	
@@ -81,18 +137,114 @@ public class ServerLevel extends Level {
 	@Override
 	public ServerTile getTile(int x, int y) { return (ServerTile) super.getTile(x, y); }
 	
+	@Override
+	protected ServerTile fetchTile(int x, int y) { return new ServerTile(this, x, y); }
+	
+	public TileLayers getTileLayers() { return tileLayers; }
+	
+	// checks the stored types directly, so tiles are only made for the matches.
+	@Override
+	public ArrayList<Tile> getMatchingTiles(TileTypeEnum type) {
+		ArrayList<Tile> matches = new ArrayList<>();
+		for(int x = 0; x < getWidth(); x++) {
+			for(int y = 0; y < getHeight(); y++) {
+				final int index = tileLayers.getIndex(x, y);
+				synchronized (tileLayers.getLock(index)) {
+					if(tileLayers.getTopType(index) != type)
+						continue;
+				}
+				matches.add(fetchTile(x, y));
+			}
+		}
+		
+		return matches;
+	}
+	
 	/** @noinspection BooleanMethodIsAlwaysInverted*/
 	public boolean isPreload() { return preload; }
 	
-	public LevelDataSet save() {
-		TileData[][] tileData = getTileData(true);
-		LinkedList<String> entityData = new LinkedList<>();
+	// synchronized with tick, so a level is never saved halfway through an update.
+	public synchronized LevelDataSet save() {
+		return takeSaveSnapshot(true).toDataSet();
+	}
+	
+	/// copies what's needed to save the level, without building any of the save itself, so the tick is only held up for the copy.
+	/// Unless it's whole, only the regions that changed since the last snapshot are in it.
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public synchronized SaveSnapshot takeSaveSnapshot(boolean whole) {
+		final int regionsHigh = getRegionsAcross(getHeight());
+		List<String>[] entities = new List[getRegionsAcross(getWidth()) * regionsHigh];
+		for(int i = 0; i < entities.length; i++)
+			entities[i] = new ArrayList<>();
 		forEachEntity(e -> {
 			if(e instanceof ServerPlayer)
 				return;
-			entityData.add(ServerEntity.serialize((ServerEntity)e));
+			Vector2 center = e.getCenter();
+			final int x = MathUtils.clamp((int) center.x, 0, getWidth() - 1);
+			final int y = MathUtils.clamp((int) center.y, 0, getHeight() - 1);
+			VectorPool.POOL.free(center);
+			entities[(x / REGION_SIZE) * regionsHigh + y / REGION_SIZE].add(ServerEntity.serialize((ServerEntity)e));
 		});
-		return new LevelDataSet(Version.CURRENT, getLevelId(), getWidth(), getHeight(), tileData, entityData);
+		
+		// entities can change in too many ways to track, so a region's are compared to what was saved last; sorted, since the order they're kept in can change on its own.
+		boolean[] regions = tileLayers.takeDirtyRegions();
+		for(int i = 0; i < regions.length; i++) {
+			entities[i].sort(null);
+			regions[i] |= whole || savedEntities == null || !entities[i].equals(savedEntities[i]);
+		}
+		savedEntities = entities;
+		
+		return new SaveSnapshot(tileLayers.snapshot(getLevelId(), true, regions), regions, entities);
+	}
+	
+	/// called with a snapshot that didn't get written, so its regions are saved again next time.
+	public synchronized void onSaveFailed(SaveSnapshot snapshot) {
+		tileLayers.markDirty(snapshot.regions);
+		savedEntities = null;
+	}
+	
+	/// called once a level read from file is filled in; when it's the current version, and in regions, the level starts out as saved.
+	public synchronized void onLoaded(LevelDataSet levelData) {
+		if(levelData.regionEntities == null || !levelData.dataVersion.equals(Version.CURRENT))
+			return;
+		tileLayers.markSaved();
+		savedEntities = levelData.regionEntities;
+	}
+	
+	public static class SaveSnapshot {
+		private final LevelSnapshot tiles;
+		private final boolean[] regions;
+		private final List<String>[] regionEntities;
+		
+		private SaveSnapshot(LevelSnapshot tiles, boolean[] regions, List<String>[] regionEntities) {
+			this.tiles = tiles;
+			this.regions = regions;
+			this.regionEntities = regionEntities;
+		}
+		
+		public LevelId getLevelId() { return tiles.getLevelId(); }
+		
+		public int getRegionCount() { return regions.length; }
+		public int getChangedRegionCount() {
+			int count = 0;
+			for(boolean changed: regions)
+				if(changed) count++;
+			return count;
+		}
+		
+		// the slow part of a save; safe to do on any thread.
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		public LevelDataSet toDataSet() {
+			List<String>[] entities = new List[regions.length];
+			LinkedList<String> entityData = new LinkedList<>();
+			for(int i = 0; i < regions.length; i++) {
+				if(regions[i]) {
+					entities[i] = regionEntities[i];
+					entityData.addAll(entities[i]);
+				}
+			}
+			return new LevelDataSet(Version.CURRENT, tiles.getLevelId(), tiles.getWidth(), tiles.getHeight(), TileLayers.getSaveData(tiles, regions), entityData, entities);
+		}
 	}
 	
 	/*@Override
@@ -111,7 +263,7 @@ public class ServerLevel extends Level {
 	}*/
 	
 	public void onTileUpdate(ServerTile tile, @Nullable TileTypeEnum updatedType) {
-		getServer().broadcastLocal(this, new TileUpdate(tile, updatedType));
+		getServer().tileChanged(tile, updatedType);
 		
 		HashSet<Tile> tiles = getAreaTiles(tile.getLocation(), 1, true);
 		
@@ -122,12 +274,33 @@ public class ServerLevel extends Level {
 	private final HashSet<Tile> tilesToUpdate = new HashSet<>();
 	@Override
 	public void update(float delta) {
+		updateTiles(delta);
+		updateEntities(delta);
+		updateSpawning();
+	}
+	
+	// updates the level while recording how long each part takes. Levels may be ticked on different threads at once, so this holds the level's own lock rather than anything world-wide.
+	public synchronized void tick(float delta, TickTimings timings) {
+		long time = System.nanoTime();
+		updateTiles(delta);
+		time = timings.record(TickPhase.Tiles, time);
+		updateEntities(delta);
+		time = timings.record(TickPhase.Entities, time);
+		updateSpawning();
+		timings.record(TickPhase.Spawning, time);
+	}
+	
+	public void updateTiles(float delta) {
 		// if(getLoadedChunkCount() == 0) return;
 		
+		tileTick++;
+		tilesToUpdate.clear();
+		// this adds the held updates of any chunks that just became active
+		updateActiveChunks();
+		
 		// update the tiles in the queue
 		
 		// store new and clear the cache first so we won't lose any updates added while updating.
-		tilesToUpdate.clear();
 		synchronized (newTileUpdates) {
 			tilesToUpdate.addAll(newTileUpdates);
 			newTileUpdates.clear();
@@ -161,42 +334,144 @@ public class ServerLevel extends Level {
 			queued tiles... are those that said they could be updated, but it hasn't been long enough.
 		 */
 		
-		// go over the old queued tiles, and decrement their update timers; for any that reach zero, remove them from the waiting list, and add them to the tiles to update.
-		Iterator<Map.Entry<Tile, Float>> iter = tileUpdateQueue.entrySet().iterator();
-		// if(tileUpdateQueue.size() > 0)
-		// 	System.out.println("going through tile update queue... "+tileUpdateQueue.size()+" tiles");
-		while(iter.hasNext()) {
-			Map.Entry<Tile, Float> entry = iter.next();
-			if(tilesToUpdate.contains(entry.getKey())) {
-				// has been updated prematurely; it will be re-added below
-				iter.remove();
-				continue;
-			}
-			
-			float newTime = entry.getValue() - delta;
-			if(newTime <= 0) {
-				tilesToUpdate.add(entry.getKey());
-				iter.remove();
-			} else // not ready to update yet; leave in queue
-				entry.setValue(newTime);
-		}
+		// tiles being updated early lose their queued update; they get a new one below if they still need it.
+		for(Tile tile: tilesToUpdate)
+			tileUpdateQueue.cancel(tile);
+		
+		// add the queued tiles that are now due.
+		tileUpdateQueue.advance(tileTick, tilesToUpdate);
 		
 		// go through and update all the tiles that need it; if it specifies a delay until next update, add it to the update queue.
 		for(Tile tile: tilesToUpdate) {
+			Point pos = tile.getLocation();
+			int chunk = getChunkIndex(pos.x, pos.y);
+			if(!activeChunks[chunk]) {
+				// hold the update until the chunk is simulated again
+				if(frozenTileUpdates[chunk] == null)
+					frozenTileUpdates[chunk] = new HashSet<>();
+				frozenTileUpdates[chunk].add(tile);
+				continue;
+			}
+			
 			float interval = ((ServerTile)tile).update();
 			if(interval > 0)
-				tileUpdateQueue.put(tile, interval);
+				tileUpdateQueue.schedule(tile, tileTick + getTickDelay(interval, delta));
+		}
+	}
+	
+	private int getChunkIndex(float x, float y) {
+		int cx = MathUtils.clamp((int) (x / CHUNK_SIZE), 0, chunksX - 1);
+		int cy = MathUtils.clamp((int) (y / CHUNK_SIZE), 0, chunksY - 1);
+		return cy * chunksX + cx;
+	}
+	
+	public boolean isChunkActive(float x, float y) { return activeChunks[getChunkIndex(x, y)]; }
+	
+	public int getActiveChunkCount() { return activeChunkList.size; }
+	
+	// works out which chunks are within the simulation radius of a player, and resumes any that just came into it.
+	private void updateActiveChunks() {
+		final int radius = Config.SimulationRadius.get();
+		if(radius < 0)
+			Arrays.fill(nextActiveChunks, true);
+		else {
+			Arrays.fill(nextActiveChunks, false);
+			forEachPlayer(player -> {
+				Vector2 pos = player.getPosition();
+				int chunk = getChunkIndex(pos.x, pos.y);
+				VectorPool.POOL.free(pos);
+				int pcx = chunk % chunksX, pcy = chunk / chunksX;
+				for(int cy = Math.max(0, pcy - radius); cy <= Math.min(chunksY - 1, pcy + radius); cy++)
+					for(int cx = Math.max(0, pcx - radius); cx <= Math.min(chunksX - 1, pcx + radius); cx++)
+						nextActiveChunks[cy * chunksX + cx] = true;
+			});
 		}
 		
+		activeChunkList.clear();
+		for(int i = 0; i < activeChunks.length; i++) {
+			if(nextActiveChunks[i]) {
+				activeChunkList.add(i);
+				if(!activeChunks[i] && frozenTileUpdates[i] != null) {
+					// resuming; the held updates are overdue, so they run now.
+					tilesToUpdate.addAll(frozenTileUpdates[i]);
+					frozenTileUpdates[i] = null;
+				}
+			}
+			activeChunks[i] = nextActiveChunks[i];
+		}
+	}
+	
+	// the number of ticks of the given length until the given interval has passed; the old timers were counted down by the delta each frame and ran once they hit zero, so this rounds up the same way.
+	private static long getTickDelay(float interval, float delta) {
+		if(delta <= 0) return 1;
+		return Math.max(1, (long) Math.ceil(interval / delta - 1E-4f));
+	}
+	
+	public void updateEntities(float delta) { super.update(delta); }
+	
+	@Override
+	protected boolean prepareUpdate(Entity e, float delta) {
+		ServerEntity se = (ServerEntity) e;
+		Vector2 pos = se.getPosition();
+		boolean active = isChunkActive(pos.x, pos.y);
+		VectorPool.POOL.free(pos);
+		
+		if(!active) {
+			frozenEntities.putIfAbsent(se, tileTick);
+			return false;
+		}
+		
+		Long frozenTick = frozenEntities.remove(se);
+		if(frozenTick != null)
+			se.resume((tileTick - frozenTick) * delta);
+		
+		// the entity may have removed itself when catching up
+		return se.getLevel() == this;
+	}
+	
+	public void updateSpawning() {
+		// mobs only spawn where things are being simulated
+		if(activeChunkList.size > 0 && getMobCount() < getMobCap() && MathUtils.randomBoolean(0.01f)) {
+			ServerMob mob = AiType.values[MathUtils.random(AiType.values.length-1)].makeMob(getWorld());
+			ServerTile tile = getActiveSpawnTile(mob);
+			if(tile != null) {
+				mob.moveTo(tile);
+				addEntity(mob);
+			}
+			else
+				getWorld().cancelIdReservation(mob);
+		}
+	}
+	
+	// like getSpawnTile, but only picks tiles in active chunks.
+	private ServerTile getActiveSpawnTile(ServerMob mob) {
+		if(!mob.maySpawn()) return null;
 		
-		// update entities
-		super.update(delta);
+		for(int i = 0; i < 100; i++) {
+			int chunk = activeChunkList.random();
+			final int x = Math.min(getWidth() - 1, (chunk % chunksX) * CHUNK_SIZE + MathUtils.random(CHUNK_SIZE - 1));
+			final int y = Math.min(getHeight() - 1, (chunk / chunksX) * CHUNK_SIZE + MathUtils.random(CHUNK_SIZE - 1));
+			ServerTile tile = getTile(x, y);
+			if(tile != null && mob.maySpawn(tile.getType().getTypeEnum()))
+				return tile;
+		}
 		
-		if(getMobCount() < getMobCap() && MathUtils.randomBoolean(0.01f))
-			spawnMob(AiType.values[MathUtils.random(AiType.values.length-1)].makeMob(getWorld()));
+		return null;
+	}
+	
+	@Override
+	public void entityRemoved(@NotNull Entity entity) {
+		super.entityRemoved(entity);
+		frozenEntities.remove(entity);
+	}
+	
+	public void flushEntityUpdates() {
+		getWorld().forEachEntity(this, ServerEntity::flushUpdates);
 	}
 	
 	public void entityAdded(@NotNull ServerEntity e) {
+		entityMoved(e);
+		
 		if(preload && e instanceof Player) {
 			// GameCore.debug("preload disabled.");
 			preload = false;
@@ -17,6 +17,18 @@ public class Config<T> {
 	
 	public static final Config<Boolean> DaylightCycle = new Config<>(ArgValidator.BOOLEAN, true);
 	
+	// server ticks per second, and how many ticks may be run back to back to catch up after a slow frame.
+	public static final Config<Integer> TickRate = new Config<>(ArgValidator.INTEGER, 60);
+	public static final Config<Integer> MaxCatchUpTicks = new Config<>(ArgValidator.INTEGER, 5);
+	// milliseconds per tick that may be spent on posted work (mostly packet handling); 0 for no limit.
+	public static final Config<Integer> RunnableBudget = new Config<>(ArgValidator.INTEGER, 0);
+	// how many chunks out from each player are simulated; chunks further away are frozen until a player comes near. Negative simulates whole levels.
+	public static final Config<Integer> SimulationRadius = new Config<>(ArgValidator.INTEGER, 3);
+	// how many tiles out from each player entities, tile changes and particles are sent to them. Negative sends the whole level.
+	public static final Config<Integer> ViewDistance = new Config<>(ArgValidator.INTEGER, 16);
+	// in single player, whether the client is handed a snapshot of each level's tiles, instead of having them streamed in chunks like a remote client.
+	public static final Config<Boolean> ShareLocalLevels = new Config<>(ArgValidator.BOOLEAN, true);
+	
 	//public static final Config<> _ = new Config<>();
 	
 	
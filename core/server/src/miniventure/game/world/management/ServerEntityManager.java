@@ -1,43 +1,53 @@
 package miniventure.game.world.management;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import miniventure.game.util.function.ValueAction;
 import miniventure.game.world.entity.Entity;
 import miniventure.game.world.entity.ServerEntity;
 import miniventure.game.world.level.ServerLevel;
 
+// changes are synchronized on the manager; lookups only lock the set for the level in question, so levels being updated on different threads don't hold each other up.
 class ServerEntityManager {
 	
-	private final HashMap<ServerLevel, Set<ServerEntity>> levelEntities;
-	private final HashMap<ServerEntity, ServerLevel> entityLevels;
+	private final Map<ServerLevel, Set<ServerEntity>> levelEntities;
+	private final Map<ServerEntity, ServerLevel> entityLevels;
 	
 	ServerEntityManager() {
-		levelEntities = new HashMap<>();
-		entityLevels = new HashMap<>();
+		levelEntities = new ConcurrentHashMap<>();
+		entityLevels = new ConcurrentHashMap<>();
 	}
 	
-	void clear() {
+	synchronized void clear() {
 		levelEntities.clear();
 		entityLevels.clear();
 	}
 	
 	private Set<ServerEntity> entitySet(ServerLevel level) {
+		if(level == null) return Collections.emptySet();
 		return levelEntities.getOrDefault(level, Collections.emptySet());
 	}
 	
 	synchronized void addEntity(ServerEntity e, ServerLevel level) {
 		entityLevels.put(e, level);
-		levelEntities.computeIfAbsent(level, k -> new HashSet<>()).add(e);
+		Set<ServerEntity> entities = levelEntities.computeIfAbsent(level, k -> new HashSet<>());
+		synchronized (entities) {
+			entities.add(e);
+		}
 	}
 	
-	synchronized void removeEntity(ServerEntity e) {
-		entitySet(entityLevels.remove(e)).remove(e);
+	// returns the level the entity was on, if any
+	synchronized ServerLevel removeEntity(ServerEntity e) {
+		ServerLevel level = entityLevels.remove(e);
+		Set<ServerEntity> entities = entitySet(level);
+		synchronized (entities) {
+			entities.remove(e);
+		}
+		return level;
 	}
 	
 	// returns the entities that were in the level
@@ -45,32 +55,37 @@ class ServerEntityManager {
 		Set<ServerEntity> entities = levelEntities.remove(level);
 		if(entities == null) return Collections.emptySet();
 		
-		for(ServerEntity e: entities)
-			entityLevels.remove(e);
+		synchronized (entities) {
+			for(ServerEntity e: entities)
+				entityLevels.remove(e);
+		}
 		
 		return entities;
 	}
 	
-	synchronized ServerLevel getLevel(ServerEntity entity) {
-		return entityLevels.get(entity);
+	ServerLevel getLevel(ServerEntity entity) {
+		return entity == null ? null : entityLevels.get(entity);
 	}
 	
-	synchronized int getEntityCount() {
+	int getEntityCount() {
 		return entityLevels.size();
 	}
 	
-	synchronized int getEntityCount(ServerLevel level) {
-		return entitySet(level).size();
+	int getEntityCount(ServerLevel level) {
+		Set<ServerEntity> entities = entitySet(level);
+		synchronized (entities) {
+			return entities.size();
+		}
 	}
 	
-	private final ArrayList<ServerEntity> tempEntities = new ArrayList<>(80);
-	synchronized void forEachEntity(ServerLevel level, ValueAction<ServerEntity> action) {
-		final boolean nested = tempEntities.size() > 0;
-		if(!nested)
-			tempEntities.addAll(entitySet(level));
-		for(ServerEntity e: tempEntities)
+	// iterates over a copy, so the action is free to add or remove entities.
+	void forEachEntity(ServerLevel level, ValueAction<ServerEntity> action) {
+		Set<ServerEntity> entities = entitySet(level);
+		ServerEntity[] copy;
+		synchronized (entities) {
+			copy = entities.toArray(new ServerEntity[0]);
+		}
+		for(ServerEntity e: copy)
 			action.act(e);
-		if(!nested)
-			tempEntities.clear();
 	}
 }
@@ -1,5 +1,6 @@
 package miniventure.game.world.management;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
 
@@ -95,16 +96,28 @@ public class ServerLevelManager implements LevelFetcher<ServerLevel> {
 	
 	ServerLevel loadLevel(LevelId levelId, @NotNull Version dataVersion) {
 		MyUtils.debug("Server loading level "+levelId+" from data");
+		world.awaitLevelSave(levelId);
 		try {
-			LevelDataSet levelData = WorldFileInterface.loadLevel(worldPath, levelId, dataVersion);
-			ServerLevel level = new ServerLevel(world, levelId, levelData.tileData);
+			final LevelDataSet levelData;
+			final ServerLevel level;
+			RegionReader reader = WorldFileInterface.openLevel(worldPath, levelId);
+			if(reader != null) {
+				level = new ServerLevel(world, levelId, reader.width, reader.height);
+				levelData = reader.read(level.getTileLayers().getFileSink(), world.getLoadExecutor());
+			}
+			else {
+				// older formats are read whole; the level is saved in regions from then on.
+				levelData = WorldFileInterface.loadLevel(worldPath, levelId, dataVersion);
+				level = new ServerLevel(world, levelId, levelData.tileData);
+			}
 			
 			for(String e: levelData.entityData)
 				level.addEntity(ServerEntity.deserialize(world, e, levelData.dataVersion));
+			level.onLoaded(levelData);
 			
 			MyUtils.debug("Server finished loading level "+levelId+" (including entities)");
 			return level;
-		} catch(WorldFormatException e) {
+		} catch(WorldFormatException | IOException e) {
 			e.printStackTrace();
 			return null;
 		}
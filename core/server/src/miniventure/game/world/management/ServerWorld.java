@@ -4,20 +4,31 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import miniventure.game.chat.MessageBuilder;
 import miniventure.game.network.GameProtocol.DatalessRequest;
-import miniventure.game.network.GameProtocol.EntityAddition;
-import miniventure.game.network.GameProtocol.EntityRemoval;
 import miniventure.game.network.GameProtocol.IslandReference;
 import miniventure.game.network.GameProtocol.MapRequest;
 import miniventure.game.network.GameProtocol.WorldData;
 import miniventure.game.network.GameServer;
 import miniventure.game.core.ServerCore;
+import miniventure.game.core.TickTimings;
+import miniventure.game.core.TickTimings.TickPhase;
 import miniventure.game.network.ServerFetcher;
 import miniventure.game.util.ArrayUtils;
 import miniventure.game.util.MyUtils;
 import miniventure.game.util.ProgressLogger;
 import miniventure.game.util.Version;
+import miniventure.game.util.WorkQueue;
 import miniventure.game.util.function.ValueAction;
 import miniventure.game.world.entity.Entity;
 import miniventure.game.world.entity.ServerEntity;
@@ -25,10 +36,12 @@ import miniventure.game.world.entity.mob.player.ServerPlayer;
 import miniventure.game.world.file.*;
 import miniventure.game.world.level.LevelId;
 import miniventure.game.world.level.ServerLevel;
+import miniventure.game.world.level.ServerLevel.SaveSnapshot;
 import miniventure.game.world.tile.ServerTileType;
 import miniventure.game.world.tile.TileTypeEnum;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class ServerWorld extends WorldManager {
 	
@@ -53,9 +66,24 @@ public class ServerWorld extends WorldManager {
 	
 	private boolean worldLoaded;
 	
-	private final List<Runnable> runnables = Collections.synchronizedList(new LinkedList<>());
+	private final WorkQueue runnables = new WorkQueue();
 	private final Object updateLock = new Object();
 	
+	private final ExecutorService levelUpdater;
+	// the level that the current thread is ticking, if any.
+	private final ThreadLocal<ServerLevel> tickingLevel = new ThreadLocal<>();
+	
+	// writes saves one at a time, in the order they were taken; the tick only has to wait for the snapshot.
+	private final ExecutorService saveWriter;
+	// saves of unloaded levels that may not be written yet; a level has to be written before it's read back.
+	private final Map<LevelId, Future<?>> pendingLevelSaves = new ConcurrentHashMap<>();
+	// nanoseconds, and bytes; only changed by the save writer.
+	private volatile long lastSaveStall, lastSaveWrite, lastSaveBytes, totalSaveBytes;
+	private volatile int savesWritten = 0, lastSaveRegions, lastSaveRegionTotal;
+	// player files are usually written on the save thread, but not once it has shut down.
+	private final AtomicInteger playerSaves = new AtomicInteger();
+	private final AtomicLong playerSaveBytes = new AtomicLong();
+	
 	// locks world update frames so world loading, saving, and exiting occurs before or after a full step.
 	// private final Object updateLock = new Object();
 	
@@ -63,6 +91,18 @@ public class ServerWorld extends WorldManager {
 		this.core = core;
 		logger.pushMessage("Initializing world", false);
 		
+		AtomicInteger threadCount = new AtomicInteger();
+		levelUpdater = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), r -> {
+			Thread t = new Thread(core.getThreadGroup(), r, "Level Updater "+threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		saveWriter = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(core.getThreadGroup(), r, "World Saver");
+			t.setDaemon(true);
+			return t;
+		});
+		
 		logger.pushMessage("Parsing world parameters");
 		
 		updateTime(worldInfo.gameTime, worldInfo.timeOfDay);
@@ -87,6 +127,9 @@ public class ServerWorld extends WorldManager {
 				String newData = ServerEntity.serialize(ServerEntity.deserialize(this, info.data, worldInfo.dataVersion));
 				return new PlayerData(info, newData);
 			});
+			// world saves only write the players that are on, so the rest have to be written now.
+			for(PlayerData info: pinfo)
+				WorldFileInterface.savePlayer(worldPath, info);
 			
 			for(IslandDataManager island: worldInfo.islandManagers) {
 				// refresh surface
@@ -131,12 +174,10 @@ public class ServerWorld extends WorldManager {
 	
 	public void postRunnable(Runnable r) { postRunnable(true, r); }
 	public void postRunnable(boolean allowAsync, Runnable r) {
-		if(!core.isRunning() || core.isUpdateThread())
+		if(!core.isRunning() || core.isUpdateThread() && tickingLevel.get() == null)
 			r.run();
-		else if(allowAsync)
-			synchronized (runnables) {
-				runnables.add(r);
-			}
+		else if(allowAsync || tickingLevel.get() != null) // level threads can't wait on the update lock; the update thread holds it until they finish
+			runnables.post(r);
 		else {
 			synchronized (updateLock) {
 				r.run();
@@ -149,27 +190,87 @@ public class ServerWorld extends WorldManager {
 	public void update(float delta) {
 		if(!worldLoaded) return;
 		
+		final TickTimings timings = core.getTimings();
+		
 		synchronized (updateLock) {
-			for(ServerLevel level: levelManager.getLoadedLevels())
-				level.update(delta);
+			updateLevels(delta);
 		}
 		
-		// run any runnables that were posted during the above update
-		Runnable[] lastRunnables;
-		// synchronized extenerally to link the toArray and clear so they are not interrupted.
-		synchronized (runnables) {
-			lastRunnables = runnables.toArray(new Runnable[0]);
-			runnables.clear();
-		}
+		long time = System.nanoTime();
 		
 		synchronized (updateLock) {
-			for(Runnable r : lastRunnables)
-				r.run(); // any runnables added here will be run next update
+			// run the runnables that were posted before now, as many as fit in the budget; any runnables added here will be run next update
+			runnables.drain(TimeUnit.MILLISECONDS.toNanos(Config.RunnableBudget.get()));
 			
 			super.update(delta);
+			time = timings.record(TickPhase.Runnables, time);
+			
+			// send out the entity changes made during this tick
+			for(ServerLevel level: levelManager.getLoadedLevels())
+				level.flushEntityUpdates();
+			server.updateInterest();
+			timings.record(TickPhase.Network, time);
 		}
 	}
 	
+	// ticks each loaded level on its own thread; the calling thread takes one of the levels itself, and returns once all of them are done.
+	private void updateLevels(float delta) {
+		ServerLevel[] levels = levelManager.getLoadedLevels();
+		if(levels.length == 0) return;
+		
+		Future<?>[] tasks = new Future<?>[levels.length - 1];
+		for(int i = 1; i < levels.length; i++) {
+			final ServerLevel level = levels[i];
+			tasks[i-1] = levelUpdater.submit(() -> updateLevel(level, delta));
+		}
+		
+		Throwable error = null;
+		try {
+			updateLevel(levels[0], delta);
+		} catch(Throwable t) {
+			error = t;
+		}
+		
+		// wait for every level, even if one failed, so nothing is still running when the error reaches the server core.
+		for(Future<?> task: tasks) {
+			try {
+				task.get();
+			} catch(ExecutionException e) {
+				if(error == null) error = e.getCause();
+			} catch(InterruptedException e) {
+				if(error == null) error = e;
+			}
+		}
+		
+		if(error instanceof RuntimeException) throw (RuntimeException) error;
+		if(error instanceof Error) throw (Error) error;
+		if(error != null) throw new RuntimeException("exception during level update", error);
+	}
+	
+	private void updateLevel(ServerLevel level, float delta) {
+		tickingLevel.set(level);
+		try {
+			level.tick(delta, core.getTimings());
+		} finally {
+			tickingLevel.remove();
+		}
+	}
+	
+	/*
+		While levels are being ticked in parallel, anything that touches a level other than the one being ticked by the
+		current thread (moving an entity to another level, unloading levels) is handed off to the update thread, and run
+		with the other runnables once every level is done. Level-change packets are already handled as runnables.
+	 */
+	private boolean deferCrossLevel(@Nullable ServerLevel target, Runnable action) {
+		ServerLevel current = tickingLevel.get();
+		if(current == null || current == target)
+			return false;
+		
+		// added directly since the thread ticking the first level is the update thread, which postRunnable would run right away.
+		runnables.post(action);
+		return true;
+	}
+	
 	
 	/*  --- WORLD MANAGEMENT --- */
 	
@@ -198,18 +299,126 @@ public class ServerWorld extends WorldManager {
 	public boolean worldLoaded() { return worldLoaded; }
 	
 	/** Saves the world to file; specific to ServerWorld. */
-	public void saveWorld() {
+	public Future<?> saveWorld() { return saveWorld(null); }
+	/**
+	 * Takes a snapshot of the world, and writes it to file on another thread, so the tick doesn't wait on the disk.
+	 * Only the regions of each level that changed since the last save are written.
+	 * onSaved is run on the update thread once the save is written, if it was written without errors.
+	 */
+	public Future<?> saveWorld(@Nullable Runnable onSaved) {
+		final long start = System.nanoTime();
+		final SaveSnapshot[] levels;
+		final PlayerData[] pdata;
+		final IslandDataManager[] islands;
+		final float gameTime, daylightOffset;
 		synchronized (updateLock) {
 			// save loaded levels
-			ServerLevel[] levels = levelManager.getLoadedLevels();
-			LevelDataSet[] levelData = ArrayUtils.mapArray(levels, LevelDataSet.class, ServerLevel::save);
+			levels = ArrayUtils.mapArray(levelManager.getLoadedLevels(), SaveSnapshot.class, level -> level.takeSaveSnapshot(false));
 			
-			// save player data
-			PlayerData[] pdata = server.updatePlayerData();
+			// save the data of the players that are on; the others are saved as they log off.
+			pdata = server.updatePlayerData();
 			
-			WorldFileInterface.saveWorld(
-					WorldDataSet.fromLoaded(worldPath, lockRef, worldSeed, getGameTime(), getDaylightOffset(), pdata, levelManager.getIslandManagers(), levelData)
-			);
+			// copied so whether a level is generated agrees with the levels above
+			islands = ArrayUtils.mapArray(levelManager.getIslandManagers(), IslandDataManager.class, IslandDataManager::copy);
+			gameTime = getGameTime();
+			daylightOffset = getDaylightOffset();
+		}
+		final long stall = System.nanoTime() - start;
+		
+		return saveWriter.submit(() -> {
+			final long writeStart = System.nanoTime();
+			long bytes;
+			try {
+				LevelDataSet[] levelData = ArrayUtils.mapArray(levels, LevelDataSet.class, SaveSnapshot::toDataSet);
+				bytes = WorldFileInterface.saveWorld(
+						WorldDataSet.fromLoaded(worldPath, lockRef, worldSeed, gameTime, daylightOffset, pdata, islands, levelData)
+				);
+			} catch(RuntimeException e) {
+				e.printStackTrace();
+				bytes = -1;
+			}
+			int regions = 0, regionTotal = 0;
+			for(SaveSnapshot level: levels) {
+				regions += level.getChangedRegionCount();
+				regionTotal += level.getRegionCount();
+			}
+			lastSaveStall = stall;
+			lastSaveWrite = System.nanoTime() - writeStart;
+			lastSaveRegions = regions;
+			lastSaveRegionTotal = regionTotal;
+			savesWritten++;
+			if(bytes < 0) {
+				System.err.println("world was not saved completely; the files it couldn't write are left as they were, and will be tried again next save.");
+				postRunnable(() -> {
+					for(SaveSnapshot snapshot: levels) {
+						ServerLevel level = getLevel(snapshot.getLevelId());
+						if(level != null)
+							level.onSaveFailed(snapshot);
+					}
+				});
+			}
+			else {
+				lastSaveBytes = bytes;
+				totalSaveBytes += bytes;
+				MyUtils.debug(String.format(Locale.ROOT, "world saved; the tick waited %.2f ms for the snapshot, then %d of %d regions, %d bytes, were written in %.1f ms", stall / 1E6, regions, regionTotal, bytes, lastSaveWrite / 1E6));
+				if(onSaved != null)
+					postRunnable(onSaved);
+			}
+		});
+	}
+	
+	/// writes the one player's file on the save thread, and nothing else; for when a player joins for the first time, leaves, or is changed while they're off.
+	public void savePlayer(@NotNull PlayerData data) {
+		Runnable write = () -> {
+			final long bytes = WorldFileInterface.savePlayer(worldPath, data);
+			if(bytes >= 0) {
+				playerSaveBytes.addAndGet(bytes);
+				playerSaves.incrementAndGet();
+			}
+		};
+		try {
+			saveWriter.execute(write);
+		} catch(RejectedExecutionException e) {
+			// the world is closing; the save thread may still be writing what it has, maybe this player too, so that has to finish before writing here.
+			try {
+				if(!saveWriter.awaitTermination(1, TimeUnit.MINUTES))
+					System.err.println("save thread still hasn't finished; not saving player "+data.name);
+				else
+					write.run();
+			} catch(InterruptedException ex) {
+				System.err.println("interrupted waiting for the save thread; not saving player "+data.name);
+			}
+		}
+	}
+	
+	/// blocks until everything given to the save thread so far has been written.
+	public void awaitSaves() {
+		try {
+			saveWriter.submit(() -> {}).get();
+		} catch(RejectedExecutionException ignored) {
+			// nothing more will be written.
+		} catch(InterruptedException | ExecutionException e) {
+			System.err.println("error waiting for saves to finish");
+			e.printStackTrace();
+		}
+	}
+	
+	// where levels being read from file have their regions decoded. The level updaters aren't busy outside of updateLevels, which is when levels are loaded, unless it's one of them loading it.
+	@Nullable
+	ExecutorService getLoadExecutor() {
+		return tickingLevel.get() == null ? levelUpdater : null;
+	}
+	
+	// called before reading a level from file, in case it was unloaded recently and hasn't been written yet.
+	void awaitLevelSave(LevelId levelId) {
+		Future<?> save = pendingLevelSaves.remove(levelId);
+		if(save == null)
+			return;
+		try {
+			save.get();
+		} catch(InterruptedException | ExecutionException e) {
+			System.err.println("error waiting for level "+levelId+" to be saved");
+			e.printStackTrace();
 		}
 	}
 	
@@ -237,9 +446,18 @@ public class ServerWorld extends WorldManager {
 			if(!worldLoaded) return;
 			server.stop(true);
 			worldLoaded = false;
+			levelUpdater.shutdown();
 			// WorldFileInterface.saveWorld(WorldDataSet.fromLoaded(worldPath, lockRef, worldSeed, gameTime, daylightOffset, GameCore.VERSION, knownPlayers.values().toArray(new PlayerInfo[0]), islandStores));
 			// dispose of level/world resources
 			saveWorld();
+			// the lock is held until the save is written, so the world can't be opened again while it's half saved.
+			saveWriter.shutdown();
+			try {
+				if(!saveWriter.awaitTermination(1, TimeUnit.MINUTES))
+					System.err.println("world save is taking too long; exiting without it.");
+			} catch(InterruptedException e) {
+				System.err.println("interrupted while waiting for the world to save");
+			}
 			clearEntityIdMap();
 			entityManager.clear();
 			// islandStores = null;
@@ -320,7 +538,8 @@ public class ServerWorld extends WorldManager {
 		
 		//System.out.println("unloading level "+levelId);
 		
-		level.save();
+		final SaveSnapshot save = level.takeSaveSnapshot(false);
+		pendingLevelSaves.put(levelId, saveWriter.submit(() -> WorldFileInterface.saveLevel(worldPath, save.toDataSet())));
 		for(ServerEntity e: entityManager.removeLevel(level))
 			super.deregisterEntity(e.getId());
 		
@@ -329,19 +548,12 @@ public class ServerWorld extends WorldManager {
 	}
 	
 	protected void pruneLoadedLevels() {
-		ServerLevel[] levels = levelManager.getLoadedLevels();
-		HashSet<LevelId> keepAliveIds = new HashSet<>(levels.length);
-		
-		// log which levels have a keep-alive
-		for(ServerPlayer player: server.getPlayers()) {
-			ServerLevel level = player.getLevel();
-			if(level != null)
-				keepAliveIds.add(level.getLevelId());
-		}
+		if(deferCrossLevel(null, this::pruneLoadedLevels))
+			return;
 		
-		// unload any loaded level that didn't have a keep-alive
-		for(ServerLevel level: levels)
-			if(!keepAliveIds.contains(level.getLevelId()) && !level.isPreload())
+		// unload any loaded level that has no players to keep it alive
+		for(ServerLevel level: levelManager.getLoadedLevels())
+			if(level.getPlayerCount() == 0 && !level.isPreload())
 				unloadLevel(level.getLevelId());
 	}
 	
@@ -370,15 +582,23 @@ public class ServerWorld extends WorldManager {
 	}
 	
 	private void removeEntityLevel(@NotNull ServerEntity e) {
-		entityManager.removeEntity(e);
+		if(deferCrossLevel(e.getLevel(), () -> removeEntityLevel(e)))
+			return;
+		
+		ServerLevel level = entityManager.removeEntity(e);
+		if(level != null)
+			level.entityRemoved(e);
 		
-		server.broadcastGlobal(new EntityRemoval(e));
+		server.broadcastEntityRemoval(e);
 		
 		if(e instanceof ServerPlayer)
 			pruneLoadedLevels();
 	}
 	
 	public void setEntityLevel(@NotNull ServerEntity e, @NotNull ServerLevel level) {
+		if(deferCrossLevel(level, () -> setEntityLevel(e, level)))
+			return;
+		
 		final boolean registered = isEntityRegistered(e);
 		final ServerLevel current = e.getLevel();
 		
@@ -389,6 +609,7 @@ public class ServerWorld extends WorldManager {
 			if(!registered) {
 				MyUtils.error("Unregistered server entity found on level " + current + " during request to set level to " + level + ". Removing from current level.");
 				entityManager.removeEntity(e);
+				current.entityRemoved(e);
 				hasLevel = false;
 				act = false;
 			}
@@ -412,8 +633,7 @@ public class ServerWorld extends WorldManager {
 		
 		entityManager.addEntity(e, level);
 		level.entityAdded(e);
-		
-		server.broadcastLocal(level, e, new EntityAddition(e));
+		// players are sent the entity once it's in their view; see GameServer.updateInterest.
 	}
 	
 	
@@ -490,6 +710,22 @@ public class ServerWorld extends WorldManager {
 	
 	public float getFPS() { return core.getFPS(); }
 	
+	public void printUpdateStatus(MessageBuilder out) {
+		core.getTimings().printStatus(out);
+		runnables.printStatus(out);
+		if(savesWritten > 0) {
+			out.println(String.format(Locale.ROOT, "World saves: %d written, %.1f KB per save; the last held the tick for %.2f ms, then took %.1f ms to write in the background.", savesWritten, totalSaveBytes / 1024f / savesWritten, lastSaveStall / 1E6, lastSaveWrite / 1E6));
+			out.println(String.format(Locale.ROOT, "    last save wrote %d of %d level regions, %.1f KB in all.", lastSaveRegions, lastSaveRegionTotal, lastSaveBytes / 1024f));
+		}
+		final int playerSaves = this.playerSaves.get();
+		if(playerSaves > 0)
+			out.println(String.format(Locale.ROOT, "Player saves: %d written on their own, %.0f bytes each.", playerSaves, playerSaveBytes.get() / (float) playerSaves));
+	}
+	
+	public int getWorldSaveCount() { return savesWritten; }
+	public int getPlayerSaveCount() { return playerSaves.get(); }
+	public long getPlayerSaveBytes() { return playerSaveBytes.get(); }
+	
 	@Override
 	public ServerLevel getEntityLevel(Entity e) { return entityManager.getLevel((ServerEntity) e); }
 	
@@ -0,0 +1,118 @@
+package miniventure.game.world.tile;
+
+import miniventure.game.core.GameCore;
+import miniventure.game.network.GameProtocol;
+import miniventure.game.network.GameProtocol.LevelChunk;
+import miniventure.game.world.Point;
+import miniventure.game.world.level.Level;
+import miniventure.game.world.tile.TileStack.TileData;
+import miniventure.game.world.worldgen.island.IslandType;
+
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+
+/**
+ * Compares the palette chunk format against Kryo's field by field serialization of the same chunks, for the chunks of generated islands.
+ * Reports the average bytes per chunk, and the time to encode and decode one.
+ */
+public class ChunkCodecBenchmark {
+	
+	private static final long SEED = 42;
+	private static final int WARMUP_PASSES = 20;
+	private static final int PASSES = 50;
+	
+	public static void main(String[] args) {
+		GameCore.initNonGdxTextures();
+		ServerTileType.init();
+		
+		Kryo fields = new Kryo();
+		GameProtocol.registerClasses(fields);
+		fields.register(LevelChunk.class, new FieldSerializer<>(fields, LevelChunk.class));
+		Kryo palette = new Kryo();
+		GameProtocol.registerClasses(palette);
+		
+		IslandType[] islands = args.length > 0 ? new IslandType[] {IslandType.valueOf(args[0].toUpperCase())} : IslandType.values();
+		System.out.println("island     | format  | bytes per chunk | encode (us) | decode (us)");
+		int check = 0;
+		for(IslandType islandType: islands) {
+			LevelChunk[] chunks = makeChunks(islandType.generateLevel(SEED, true).getMap());
+			check += run(islandType, "fields", fields, chunks);
+			check += run(islandType, "palette", palette, chunks);
+		}
+		System.out.println("(check "+check+')');
+	}
+	
+	private static int run(IslandType islandType, String format, Kryo kryo, LevelChunk[] chunks) {
+		Output output = new Output(4096, -1);
+		long bytes = 0;
+		for(LevelChunk chunk: chunks) {
+			output.clear();
+			kryo.writeObject(output, chunk);
+			bytes += output.position();
+		}
+		
+		byte[][] encoded = new byte[chunks.length][];
+		for(int i = 0; i < WARMUP_PASSES; i++)
+			encodeAll(kryo, output, chunks, encoded);
+		long start = System.nanoTime();
+		for(int i = 0; i < PASSES; i++)
+			encodeAll(kryo, output, chunks, encoded);
+		long encodeTime = System.nanoTime() - start;
+		
+		int check = 0;
+		for(int i = 0; i < WARMUP_PASSES; i++)
+			check += decodeAll(kryo, encoded);
+		start = System.nanoTime();
+		for(int i = 0; i < PASSES; i++)
+			check += decodeAll(kryo, encoded);
+		long decodeTime = System.nanoTime() - start;
+		
+		final int count = chunks.length * PASSES;
+		System.out.printf("%-10s | %-7s | %15.1f | %11.2f | %11.2f%n", islandType, format, bytes / (double) chunks.length, encodeTime / 1E3 / count, decodeTime / 1E3 / count);
+		return check;
+	}
+	
+	private static void encodeAll(Kryo kryo, Output output, LevelChunk[] chunks, byte[][] encoded) {
+		for(int i = 0; i < chunks.length; i++) {
+			output.clear();
+			kryo.writeObject(output, chunks[i]);
+			encoded[i] = output.toBytes();
+		}
+	}
+	
+	private static int decodeAll(Kryo kryo, byte[][] encoded) {
+		int sum = 0;
+		for(byte[] data: encoded)
+			sum += kryo.readObject(new Input(data), LevelChunk.class).tileData.length;
+		return sum;
+	}
+	
+	// the chunks a client would be sent for the level, with each tile's data as it is right after generation.
+	private static LevelChunk[] makeChunks(TileTypeEnum[][][] map) {
+		final int width = map.length;
+		final int height = map[0].length;
+		Array<LevelChunk> chunks = new Array<>(LevelChunk.class);
+		for(int cx = 0; cx < width; cx += Level.CHUNK_SIZE) {
+			for(int cy = 0; cy < height; cy += Level.CHUNK_SIZE) {
+				TileData[][] data = new TileData[Math.min(Level.CHUNK_SIZE, width - cx)][Math.min(Level.CHUNK_SIZE, height - cy)];
+				for(int x = 0; x < data.length; x++) {
+					for(int y = 0; y < data[x].length; y++) {
+						TileTypeEnum[] types = map[cx + x][cy + y];
+						int[] ordinals = new int[types.length];
+						String[] dataMaps = new String[types.length];
+						for(int i = 0; i < types.length; i++) {
+							ordinals[i] = types[i].ordinal();
+							dataMaps[i] = ServerTileType.get(types[i]).createDataMap().serialize(false);
+						}
+						data[x][y] = new TileData(ordinals, dataMaps);
+					}
+				}
+				chunks.add(new LevelChunk(null, new Point(cx, cy), data));
+			}
+		}
+		return chunks.toArray();
+	}
+}
@@ -0,0 +1,106 @@
+package miniventure.game.world.tile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import miniventure.game.core.GameCore;
+import miniventure.game.util.Version;
+import miniventure.game.world.file.LevelDataSet;
+import miniventure.game.world.file.WorldFileInterface;
+import miniventure.game.world.file.WorldFormatException;
+import miniventure.game.world.level.LevelId;
+import miniventure.game.world.tile.TileStack.TileData;
+import miniventure.game.world.worldgen.island.IslandType;
+
+/**
+ * Compares the binary level format, in region files, against the old text format, for the surface of each generated island.
+ * Reports the file size, and the time to save and load the level in each.
+ */
+public class LevelFileBenchmark {
+	
+	private static final long SEED = 42;
+	private static final int WARMUP_PASSES = 3;
+	private static final int PASSES = 10;
+	
+	public static void main(String[] args) throws IOException, WorldFormatException {
+		GameCore.initNonGdxTextures();
+		ServerTileType.init();
+		
+		Path binaryDir = Files.createTempDirectory("miniventure-levels-binary");
+		Path textDir = Files.createTempDirectory("miniventure-levels-text");
+		
+		IslandType[] islands = args.length > 0 ? new IslandType[] {IslandType.valueOf(args[0].toUpperCase())} : IslandType.values();
+		System.out.println("island     | format | size (KB) | save (ms) | load (ms)");
+		int check = 0;
+		int id = 0;
+		for(IslandType islandType: islands) {
+			LevelId levelId = LevelId.getId(id++, true);
+			LevelDataSet level = makeLevel(levelId, islandType.generateLevel(SEED, true).getMap());
+			check += run(islandType, "text", Files.createDirectory(textDir.resolve(islandType.name())), level, false);
+			check += run(islandType, "binary", Files.createDirectory(binaryDir.resolve(islandType.name())), level, true);
+		}
+		System.out.println("(check "+check+')');
+		
+		WorldFileInterface.deleteRecursively(binaryDir);
+		WorldFileInterface.deleteRecursively(textDir);
+	}
+	
+	private static int run(IslandType islandType, String format, Path folder, LevelDataSet level, boolean binary) throws IOException, WorldFormatException {
+		for(int i = 0; i < WARMUP_PASSES; i++)
+			save(folder, level, binary);
+		long start = System.nanoTime();
+		for(int i = 0; i < PASSES; i++)
+			save(folder, level, binary);
+		long saveTime = System.nanoTime() - start;
+		
+		long size;
+		try(Stream<Path> files = Files.walk(folder)) {
+			size = files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+		}
+		
+		int check = 0;
+		for(int i = 0; i < WARMUP_PASSES; i++)
+			check += load(folder, level.levelId);
+		start = System.nanoTime();
+		for(int i = 0; i < PASSES; i++)
+			check += load(folder, level.levelId);
+		long loadTime = System.nanoTime() - start;
+		
+		System.out.printf("%-10s | %-6s | %9.1f | %9.2f | %9.2f%n", islandType, format, size / 1024f, saveTime / 1E6 / PASSES, loadTime / 1E6 / PASSES);
+		return check;
+	}
+	
+	private static void save(Path folder, LevelDataSet level, boolean binary) {
+		long saved = binary ? WorldFileInterface.saveLevel(folder, level) : WorldFileInterface.saveTextLevel(folder, level);
+		if(saved < 0)
+			throw new IllegalStateException("failed to save "+level.levelId);
+	}
+	
+	private static int load(Path folder, LevelId levelId) throws WorldFormatException {
+		LevelDataSet level = WorldFileInterface.loadLevel(folder, levelId, Version.CURRENT);
+		return level.tileData[level.width / 2][level.height / 2].typeOrdinals.length;
+	}
+	
+	// the level as it would be saved right after generation.
+	static LevelDataSet makeLevel(LevelId levelId, TileTypeEnum[][][] map) {
+		final int width = map.length;
+		final int height = map[0].length;
+		TileData[][] data = new TileData[width][height];
+		for(int x = 0; x < width; x++) {
+			for(int y = 0; y < height; y++) {
+				TileTypeEnum[] types = map[x][y];
+				int[] ordinals = new int[types.length];
+				String[] dataMaps = new String[types.length];
+				for(int i = 0; i < types.length; i++) {
+					ordinals[i] = types[i].ordinal();
+					dataMaps[i] = ServerTileType.get(types[i]).createDataMap().serialize(true);
+				}
+				data[x][y] = new TileData(ordinals, dataMaps);
+			}
+		}
+		return new LevelDataSet(Version.CURRENT, levelId, width, height, data, Collections.emptyList());
+	}
+}
@@ -0,0 +1,109 @@
+package miniventure.game.world.tile;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import miniventure.game.core.GameCore;
+import miniventure.game.util.Version;
+import miniventure.game.world.file.LevelDataSet;
+import miniventure.game.world.file.RegionReader;
+import miniventure.game.world.file.WorldFileInterface;
+import miniventure.game.world.file.WorldFormatException;
+import miniventure.game.world.level.LevelId;
+import miniventure.game.world.worldgen.island.IslandType;
+
+/**
+ * Times loading a generated island's surface from file into a level's tile storage, and measures the peak heap it takes, three ways:
+ * from the old text format, from region files read whole into TileData first, and from region files streamed straight into the level with the regions decoded in parallel.
+ *
+ * Arguments: [island type]
+ */
+public class LevelLoadBenchmark {
+	
+	private static final long SEED = 42;
+	private static final int WARMUP_PASSES = 3;
+	private static final int PASSES = 10;
+	
+	private interface Loader {
+		TileLayers load() throws IOException, WorldFormatException;
+	}
+	
+	public static void main(String[] args) throws IOException, WorldFormatException {
+		GameCore.initNonGdxTextures();
+		ServerTileType.init();
+		
+		IslandType islandType = args.length > 0 ? IslandType.valueOf(args[0].toUpperCase()) : IslandType.WOODLAND;
+		LevelId levelId = LevelId.getId(0, true);
+		LevelDataSet level = LevelFileBenchmark.makeLevel(levelId, islandType.generateLevel(SEED, true).getMap());
+		
+		Path textDir = Files.createTempDirectory("miniventure-load-text");
+		Path regionDir = Files.createTempDirectory("miniventure-load-regions");
+		WorldFileInterface.saveTextLevel(textDir, level);
+		WorldFileInterface.saveLevel(regionDir, level);
+		
+		final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1); // as many as the server has level updaters
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "Region Reader");
+			t.setDaemon(true);
+			return t;
+		});
+		
+		System.out.println(islandType+" surface, "+level.width+"x"+level.height+", "+threads+" decoding threads");
+		System.out.println("loader           | time (ms) | peak heap (MB)");
+		run("text, whole", () -> {
+			LevelDataSet data = WorldFileInterface.loadLevel(textDir, levelId, Version.CURRENT);
+			TileLayers layers = new TileLayers(data.width, data.height);
+			layers.setTiles(data.tileData);
+			return layers;
+		});
+		run("regions, whole", () -> {
+			LevelDataSet data = WorldFileInterface.loadLevel(regionDir, levelId, Version.CURRENT);
+			TileLayers layers = new TileLayers(data.width, data.height);
+			layers.setTiles(data.tileData);
+			return layers;
+		});
+		run("regions, stream", () -> {
+			RegionReader reader = WorldFileInterface.openLevel(regionDir, levelId);
+			TileLayers layers = new TileLayers(reader.width, reader.height);
+			reader.read(layers.getFileSink(), executor);
+			return layers;
+		});
+		
+		executor.shutdown();
+		WorldFileInterface.deleteRecursively(textDir);
+		WorldFileInterface.deleteRecursively(regionDir);
+	}
+	
+	private static void run(String name, Loader loader) throws IOException, WorldFormatException {
+		int check = 0;
+		for(int i = 0; i < WARMUP_PASSES; i++)
+			check += loader.load().getDataMapCount();
+		long start = System.nanoTime();
+		for(int i = 0; i < PASSES; i++)
+			check += loader.load().getDataMapCount();
+		long time = System.nanoTime() - start;
+		
+		// the peak counts what's used between two collections, so it's the most the load had alive at once, garbage included, above what was there before.
+		System.gc();
+		long before = 0;
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				before += pool.getUsage().getUsed();
+			}
+		}
+		check += loader.load().getDataMapCount();
+		long peak = 0;
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+			if(pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		
+		System.out.printf("%-16s | %9.2f | %14.1f    (check %d)%n", name, time / 1E6 / PASSES, (peak - before) / 1024f / 1024f, check);
+	}
+}
@@ -12,7 +12,6 @@ import miniventure.game.util.pool.RectPool;
 import miniventure.game.world.WorldObject;
 import miniventure.game.world.entity.Entity;
 import miniventure.game.world.entity.mob.player.Player;
-import miniventure.game.world.level.Level;
 import miniventure.game.world.level.ServerLevel;
 import miniventure.game.world.management.ServerWorld;
 import miniventure.game.world.tile.ServerTileType.P;
@@ -28,19 +27,9 @@ import org.jetbrains.annotations.Nullable;
 /** @noinspection EqualsAndHashcode*/
 public class ServerTile extends Tile {
 	
-	public ServerTile(@NotNull Level level, int x, int y, @NotNull TileTypeEnum[] types) {
-		this(level, x, y, types, null);
-	}
-	public ServerTile(@NotNull Level level, int x, int y, @NotNull TileTypeEnum[] types, TileTypeDataMap[] dataMaps) {
-		this((ServerLevel) level, x, y, types, dataMaps);
-	}
-	public ServerTile(@NotNull ServerLevel level, int x, int y, @NotNull TileTypeEnum[] types, TileTypeDataMap[] dataMaps) {
-		super(level, x, y, types, dataMaps);
-	}
-	
-	@Override
-	ServerTileStack makeStack(@NotNull TileTypeEnum[] types, @Nullable TileTypeDataMap[] dataMaps) {
-		return new ServerTileStack(getWorld(), types, dataMaps);
+	// server tiles are only views of the level's tile storage, so they're made as needed and not kept around; two tiles at the same spot are equal.
+	public ServerTile(@NotNull ServerLevel level, int x, int y) {
+		super(level, x, y, new ServerTileStack(level.getTileLayers(), level.getTileLayers().getIndex(x, y)));
 	}
 	
 	@Override @NotNull
@@ -61,7 +50,11 @@ public class ServerTile extends Tile {
 	}
 	
 	public void addTile(@NotNull ServerTileType newType) { addTile(new TileTypeInfo(newType)); }
-	public synchronized void addTile(@NotNull TileTypeInfo newType) { addTile(newType, getType()); }
+	public void addTile(@NotNull TileTypeInfo newType) {
+		synchronized (getLevel().getTileLayers().getUpdateLock()) {
+			addTile(newType, getType());
+		}
+	}
 	// not synchronizing this only because it's always called in a synchronized context.
 	private void addTile(@NotNull TileTypeInfo newTypeInfo, @NotNull ServerTileType prevType) {
 		ServerTileType newType = ServerTileType.get(newTypeInfo.tileType);
@@ -88,35 +81,37 @@ public class ServerTile extends Tile {
 	boolean breakTile(@Nullable TileTypeInfo replacementType) {
 		return removeTile(false, replacementType);
 	}
-	private synchronized boolean removeTile(boolean checkForExitAnim, @Nullable TileTypeInfo replacementType) {
-		ServerTileType type = getType();
-		if(checkForExitAnim) {
-			boolean addNext = replacementType != null;
-			TileTypeInfo nextType = replacementType == null ? new TileTypeInfo(getTypeStack().getLayerFromTop(1, true)) : replacementType;
-			if(type.get(P.TRANS).tryStartAnimation(this, nextType, addNext)) {
-				// transitioning successful, tile will be broken after exit animation
-				return true; // don't actually break the tile yet (but line above, still signal for update)
+	private boolean removeTile(boolean checkForExitAnim, @Nullable TileTypeInfo replacementType) {
+		synchronized (getLevel().getTileLayers().getUpdateLock()) {
+			ServerTileType type = getType();
+			if(checkForExitAnim) {
+				boolean addNext = replacementType != null;
+				TileTypeInfo nextType = replacementType == null ? new TileTypeInfo(getTypeStack().getLayerFromTop(1, true)) : replacementType;
+				if(type.get(P.TRANS).tryStartAnimation(this, nextType, addNext)) {
+					// transitioning successful, tile will be broken after exit animation
+					return true; // don't actually break the tile yet (but line above, still signal for update)
+				}
 			}
+			
+			Action destroyAction = getDataMap(type.getTypeEnum()).get(TileDataTag.DestroyAction);
+			ServerTileType prevType = getTypeStack().removeLayer();
+			if(destroyAction != null)
+				destroyAction.act();
+			
+			if(replacementType != null) {
+				// don't worry if a tile type was removed or not, add the next one anyway.
+				addTile(replacementType, type); // handles entity movement and tile update
+				return true;
+			}
+			else if(prevType != null) {
+				// a tile type was removed
+				moveEntities(getType());
+				getLevel().onTileUpdate(this, null);
+				return true;
+			}
+			
+			return false; // cannot break this tile any further.
 		}
-		
-		Action destroyAction = getDataMap(type.getTypeEnum()).get(TileDataTag.DestroyAction);
-		ServerTileType prevType = getTypeStack().removeLayer();
-		if(destroyAction != null)
-			destroyAction.act();
-		
-		if(replacementType != null) {
-			// don't worry if a tile type was removed or not, add the next one anyway.
-			addTile(replacementType, type); // handles entity movement and tile update
-			return true;
-		}
-		else if(prevType != null) {
-			// a tile type was removed
-			moveEntities(getType());
-			getLevel().onTileUpdate(this, null);
-			return true;
-		}
-		
-		return false; // cannot break this tile any further.
 	}
 	
 	private void moveEntities(ServerTileType newType) {
@@ -1,18 +1,43 @@
 package miniventure.game.world.tile;
 
-import miniventure.game.world.management.ServerWorld;
-
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
+/**
+ * A view of one tile's stack in a level's TileLayers; it holds nothing itself, so any number of these can exist for the same tile.
+ */
 public class ServerTileStack extends TileStack<ServerTileType> {
 	
-	/*public ServerTileStack(@NotNull ServerWorld world, ServerTileType[] types) {
-		super(types);
-	}*/
+	private final TileLayers layers;
+	private final int index;
 	
-	public ServerTileStack(@NotNull ServerWorld world, TileTypeEnum[] enumTypes, @Nullable TileTypeDataMap[] dataMaps) {
-		super(world, enumTypes, dataMaps);
+	ServerTileStack(@NotNull TileLayers layers, int index) {
+		this.layers = layers;
+		this.index = index;
 	}
 	
+	@Override
+	Object getLock() { return layers.getLock(index); }
+	
+	@Override
+	int getLayerCount() { return layers.getLayerCount(index); }
+	
+	@Override
+	ServerTileType getLayerType(int layer) { return ServerTileType.get(layers.getType(index, layer)); }
+	
+	@Override
+	TileTypeDataMap getLayerData(int layer) { return layers.peekDataMap(index, layer); }
+	
+	@Override
+	TileTypeDataMap findDataMap(TileTypeEnum tileType) { return layers.getDataMap(index, tileType); }
+	
+	@Override
+	void pushLayer(@NotNull ServerTileType newLayer, @NotNull TileTypeDataMap dataMap) {
+		layers.pushLayer(index, newLayer.getTypeEnum(), dataMap);
+	}
+	
+	@Override
+	void popLayer() { layers.popLayer(index); }
+	
+	@Override
+	ServerTileType[] newArray(int size) { return new ServerTileType[size]; }
 }
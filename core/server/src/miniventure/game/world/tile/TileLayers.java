@@ -0,0 +1,313 @@
+package miniventure.game.world.tile;
+
+import java.util.Arrays;
+
+import miniventure.game.network.LevelSnapshot;
+import miniventure.game.util.Version;
+import miniventure.game.world.file.RegionReader.TileSink;
+import miniventure.game.world.level.Level;
+import miniventure.game.world.level.LevelId;
+import miniventure.game.world.tile.TileStack.TileData;
+
+import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.IntMap.Entry;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The tile stacks of a whole level, kept in flat arrays instead of an object graph per tile.
+ * Each layer is a byte array of type ordinals covering every tile, allocated the first time any tile grows that tall; the number of layers on each tile is kept alongside.
+ * Data maps are only kept for layers whose type has data, and only once something asks for them or sets some data; until then, the layer shares one empty map per type.
+ * ServerTiles are views over this, made on demand.
+ *
+ * Tiles are indexed as x * height + y. Locking is striped by index; the methods that take an index expect the caller to hold that tile's lock.
+ */
+public class TileLayers {
+	
+	private static final int LOCK_STRIPES = 64; // must be a power of two
+	private static final int MAX_LAYERS = 64;
+	
+	private final int width, height;
+	private final Object[] locks = new Object[LOCK_STRIPES];
+	// held while a tile is being changed, which can touch the tiles around it too. Always taken before any stripe lock.
+	private final Object updateLock = new Object();
+	
+	private final byte[] layerCounts;
+	// each inner array is one layer of the whole level; replaced with a longer copy, under this object's monitor, when a tile grows past the current height.
+	// there are far fewer than 128 tile types, so ordinals fit in a byte.
+	private volatile byte[][] layerTypes = new byte[0][];
+	// keyed by index * MAX_LAYERS + layer; one map per lock stripe, so each map is only touched under a single lock.
+	private final IntMap<TileTypeDataMap>[] dataMaps;
+	// read-only maps, returned for layers that don't have a map of their own.
+	private final TileTypeDataMap[] emptyMaps = new TileTypeDataMap[TileTypeEnum.values().length];
+	
+	// the regions (see Level.REGION_SIZE) with a tile that changed since the last save took them. Set under the tile's lock, and read by saves, which happen between level updates, so it needs no lock of its own.
+	private final boolean[] dirtyRegions;
+	private final int regionsHigh;
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TileLayers(int width, int height) {
+		this.width = width;
+		this.height = height;
+		layerCounts = new byte[width * height];
+		regionsHigh = Level.getRegionsAcross(height);
+		dirtyRegions = new boolean[Level.getRegionsAcross(width) * regionsHigh];
+		Arrays.fill(dirtyRegions, true); // never saved
+		
+		dataMaps = (IntMap<TileTypeDataMap>[]) new IntMap[LOCK_STRIPES];
+		for(int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+			dataMaps[i] = new IntMap<>();
+		}
+		
+		for(TileTypeEnum type: TileTypeEnum.values())
+			emptyMaps[type.ordinal()] = ServerTileType.get(type).createDataMap();
+	}
+	
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	
+	public int getIndex(int x, int y) { return x * height + y; }
+	
+	public Object getUpdateLock() { return updateLock; }
+	
+	public Object getLock(int index) { return locks[index & (LOCK_STRIPES - 1)]; }
+	
+	public int getLayerCount(int index) { return layerCounts[index]; }
+	
+	public TileTypeEnum getType(int index, int layer) {
+		return TileTypeEnum.value(layerTypes[layer][index]);
+	}
+	
+	public TileTypeEnum getTopType(int index) { return getType(index, layerCounts[index] - 1); }
+	
+	public void pushLayer(int index, @NotNull TileTypeEnum type, @Nullable TileTypeDataMap dataMap) {
+		final int layer = layerCounts[index];
+		if(layer == MAX_LAYERS)
+			throw new IllegalStateException("tile "+(index / height)+','+(index % height)+" already has the max of "+MAX_LAYERS+" layers");
+		
+		byte[][] layerTypes = this.layerTypes;
+		if(layer == layerTypes.length)
+			layerTypes = addLayer(layer);
+		
+		layerTypes[layer][index] = (byte) type.ordinal();
+		layerCounts[index] = (byte) (layer + 1);
+		markDirty(index);
+		// maps with nothing in them aren't kept; they're made again if anything asks for them.
+		if(dataMap != null && !dataMap.isEmpty())
+			getDataStripe(index).put(getDataKey(index, layer), dataMap);
+	}
+	
+	public void popLayer(int index) {
+		final int layer = layerCounts[index] - 1;
+		getDataStripe(index).remove(getDataKey(index, layer));
+		layerCounts[index] = (byte) layer;
+		markDirty(index);
+	}
+	
+	/// fills in a new level's tiles from data read whole; a level read from regions goes through getFileSink instead.
+	public void setTiles(TileData[][] tileData) {
+		for(int x = 0; x < tileData.length; x++) {
+			for(int y = 0; y < tileData[x].length; y++) {
+				TileData data = tileData[x][y];
+				TileTypeEnum[] types = data.getTypes();
+				TileTypeDataMap[] dataMaps = data.getDataMaps(ServerTileType::get);
+				final int index = getIndex(x, y);
+				for(int i = 0; i < types.length; i++)
+					pushLayer(index, types[i], dataMaps[i]);
+			}
+		}
+	}
+	
+	/// puts tiles straight into the arrays as they're read from file, from as many threads as the regions are read on.
+	public TileSink<?> getFileSink() { return new FileSink(); }
+	
+	private class FileSink implements TileSink<FileStack> {
+		@Override
+		public FileStack prepare(Version dataVersion, int[] typeOrdinals, String[] data) {
+			return new FileStack(dataVersion, typeOrdinals, data);
+		}
+		
+		@Override
+		public void put(int x, int y, FileStack stack) {
+			final int index = getIndex(x, y);
+			synchronized (getLock(index)) {
+				for(int i = 0; i < stack.types.length; i++) {
+					// each tile needs a map of its own, but most have no data to put in one.
+					TileTypeDataMap dataMap = stack.data[i] == null ? null : stack.tileTypes[i].parseDataMap(stack.data[i], stack.dataVersion);
+					pushLayer(index, stack.types[i], dataMap);
+				}
+			}
+		}
+	}
+	
+	// a stack read from file, worked out once for all the tiles in a region that have it.
+	private static class FileStack {
+		private final Version dataVersion;
+		private final TileTypeEnum[] types;
+		private final ServerTileType[] tileTypes;
+		// null for layers with no data, so they're not given a map.
+		private final String[] data;
+		
+		private FileStack(Version dataVersion, int[] typeOrdinals, String[] data) {
+			this.dataVersion = dataVersion;
+			types = new TileTypeEnum[typeOrdinals.length];
+			tileTypes = new ServerTileType[typeOrdinals.length];
+			this.data = new String[typeOrdinals.length];
+			for(int i = 0; i < types.length; i++) {
+				types[i] = TileTypeEnum.value(typeOrdinals[i]);
+				tileTypes[i] = ServerTileType.get(types[i]);
+				if(data[i] != null && tileTypes[i].hasData() && !tileTypes[i].parseDataMap(data[i], dataVersion).isEmpty())
+					this.data[i] = data[i];
+			}
+		}
+	}
+	
+	// adds layers up to the given one, unless another tile already has.
+	private synchronized byte[][] addLayer(int layer) {
+		byte[][] layerTypes = this.layerTypes;
+		if(layer < layerTypes.length)
+			return layerTypes;
+		
+		byte[][] newTypes = new byte[layer + 1][];
+		System.arraycopy(layerTypes, 0, newTypes, 0, layerTypes.length);
+		for(int i = layerTypes.length; i < newTypes.length; i++)
+			newTypes[i] = new byte[layerCounts.length];
+		this.layerTypes = newTypes;
+		return newTypes;
+	}
+	
+	/// gets the data map for the given type on the given tile, giving the layer its own map if it doesn't have one yet. Returns null if the tile doesn't have the type.
+	@Nullable
+	TileTypeDataMap getDataMap(int index, @NotNull TileTypeEnum type) {
+		final int count = layerCounts[index];
+		for(int layer = 0; layer < count; layer++) {
+			if(getType(index, layer) != type)
+				continue;
+			
+			TileTypeDataMap empty = emptyMaps[type.ordinal()];
+			if(!empty.getTileType().hasData())
+				return empty;
+			
+			// the map may be about to change, and there's no telling after.
+			markDirty(index);
+			IntMap<TileTypeDataMap> stripe = getDataStripe(index);
+			final int key = getDataKey(index, layer);
+			TileTypeDataMap map = stripe.get(key);
+			if(map == null) {
+				map = empty.getTileType().createDataMap();
+				stripe.put(key, map);
+			}
+			return map;
+		}
+		return null;
+	}
+	
+	/// gets the data map of the given layer only to read from it; this doesn't give the layer its own map.
+	@NotNull
+	TileTypeDataMap peekDataMap(int index, int layer) {
+		TileTypeDataMap map = getDataStripe(index).get(getDataKey(index, layer));
+		return map == null ? emptyMaps[layerTypes[layer][index]] : map;
+	}
+	
+	/// the number of layers that have a data map of their own. Locks each stripe in turn, so the caller shouldn't hold any.
+	public int getDataMapCount() {
+		int count = 0;
+		for(int i = 0; i < LOCK_STRIPES; i++) {
+			synchronized (locks[i]) {
+				count += dataMaps[i].size;
+			}
+		}
+		return count;
+	}
+	
+	public int getMaxHeight() { return layerTypes.length; }
+	
+	private int getRegion(int index) {
+		return (index / height / Level.REGION_SIZE) * regionsHigh + (index % height) / Level.REGION_SIZE;
+	}
+	
+	private void markDirty(int index) { dirtyRegions[getRegion(index)] = true; }
+	
+	/// the regions changed since this was last called, which are now counted as saved.
+	public boolean[] takeDirtyRegions() {
+		boolean[] dirty = dirtyRegions.clone();
+		Arrays.fill(dirtyRegions, false);
+		return dirty;
+	}
+	
+	/// marks the given regions as changed again, after a save of them failed.
+	public void markDirty(boolean[] regions) {
+		for(int i = 0; i < regions.length; i++)
+			dirtyRegions[i] |= regions[i];
+	}
+	
+	/// for a level that was just loaded from the save it matches.
+	public void markSaved() { Arrays.fill(dirtyRegions, false); }
+	
+	/// the tile data to save for a snapshot taken in save form, in the given regions only, or everywhere if null; layers without data of their own get what an empty map saves as. Can be called from any thread.
+	public static TileData[][] getSaveData(LevelSnapshot snapshot, @Nullable boolean[] regions) {
+		String[] emptyData = new String[TileTypeEnum.values().length];
+		final int width = snapshot.getWidth(), height = snapshot.getHeight();
+		final int regionsHigh = Level.getRegionsAcross(height);
+		TileData[][] tileData = new TileData[width][height];
+		for(int x = 0; x < width; x++) {
+			for(int y = 0; y < height; y++) {
+				if(regions != null && !regions[(x / Level.REGION_SIZE) * regionsHigh + y / Level.REGION_SIZE])
+					continue;
+				final int index = x * height + y;
+				final int count = snapshot.getLayerCount(index);
+				int[] ordinals = new int[count];
+				String[] data = new String[count];
+				for(int layer = 0; layer < count; layer++) {
+					final int ord = snapshot.getType(index, layer).ordinal();
+					ordinals[layer] = ord;
+					data[layer] = snapshot.getData(index, layer);
+					if(data[layer] == null) {
+						if(emptyData[ord] == null)
+							emptyData[ord] = ServerTileType.get(TileTypeEnum.value(ord)).createDataMap().serialize(true);
+						data[layer] = emptyData[ord];
+					}
+				}
+				tileData[x][y] = new TileData(Version.CURRENT, ordinals, data);
+			}
+		}
+		return tileData;
+	}
+	
+	/// copies every tile into a snapshot, with the data in client form or save form. Takes the update lock, then each stripe in turn, so the caller shouldn't hold any stripe lock.
+	public LevelSnapshot snapshot(LevelId levelId, boolean save) { return snapshot(levelId, save, null); }
+	/// the same, but with data only for the tiles in the given regions, if any are given; the rest aren't going to be saved, so there's no point serializing them.
+	public LevelSnapshot snapshot(LevelId levelId, boolean save, @Nullable boolean[] regions) {
+		synchronized (updateLock) {
+			byte[][] layerTypes = this.layerTypes;
+			byte[][] types = new byte[layerTypes.length][];
+			for(int i = 0; i < types.length; i++)
+				types[i] = layerTypes[i].clone();
+			
+			String[][] data = new String[types.length][];
+			for(int i = 0; i < LOCK_STRIPES; i++) {
+				synchronized (locks[i]) {
+					for(Entry<TileTypeDataMap> entry: dataMaps[i]) {
+						if(entry.value.isEmpty())
+							continue; // same as a layer with no map at all, which gets a new empty map when read.
+						final int index = entry.key / MAX_LAYERS;
+						if(regions != null && !regions[getRegion(index)])
+							continue;
+						final int layer = entry.key % MAX_LAYERS;
+						if(data[layer] == null)
+							data[layer] = new String[layerCounts.length];
+						data[layer][index] = entry.value.serialize(save);
+					}
+				}
+			}
+			
+			return new LevelSnapshot(levelId, width, height, layerCounts.clone(), types, data);
+		}
+	}
+	
+	private IntMap<TileTypeDataMap> getDataStripe(int index) { return dataMaps[index & (LOCK_STRIPES - 1)]; }
+	
+	private static int getDataKey(int index, int layer) { return index * MAX_LAYERS + layer; }
+}
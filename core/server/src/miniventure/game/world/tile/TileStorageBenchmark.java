@@ -0,0 +1,111 @@
+package miniventure.game.world.tile;
+
+import miniventure.game.core.GameCore;
+import miniventure.game.world.worldgen.island.IslandType;
+
+/**
+ * Compares the heap used by a generated island's tiles when each tile has its own stack object, as the client still does, against the flat TileLayers the server keeps.
+ * The object stacks are counted without the Tile objects that held them, so the real difference on the old server layout was a bit bigger.
+ */
+public class TileStorageBenchmark {
+	
+	private static final long SEED = 42;
+	private static final int READ_PASSES = 20;
+	
+	public static void main(String[] args) {
+		IslandType islandType = args.length > 0 ? IslandType.valueOf(args[0].toUpperCase()) : IslandType.WOODLAND;
+		TileTypeEnum[][][] map = islandType.generateLevel(SEED, true).getMap();
+		final int width = map.length;
+		final int height = map[0].length;
+		System.out.println("island: "+islandType+", "+width+'x'+height+" tiles");
+		
+		// make sure the tile types are initialized before measuring anything.
+		GameCore.initNonGdxTextures();
+		ServerTileType.init();
+		new TileLayers(1, 1);
+		
+		long before = usedMemory();
+		ArrayTileStack<ServerTileType>[][] stacks = makeStacks(map);
+		long stackBytes = usedMemory() - before;
+		
+		before = usedMemory();
+		TileLayers layers = makeLayers(map);
+		long layerBytes = usedMemory() - before;
+		
+		// read each one back a few times, the way tile updates and chunk sends do.
+		long stackTime = 0, layerTime = 0;
+		int check = 0;
+		for(int i = 0; i < READ_PASSES; i++) {
+			long start = System.nanoTime();
+			check += readStacks(stacks);
+			stackTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			check += readLayers(layers);
+			layerTime += System.nanoTime() - start;
+		}
+		
+		System.out.println("representation | heap (KB) | bytes per tile | read pass (ms)");
+		System.out.printf("object stacks  | %9d | %14.1f | %14.3f%n", stackBytes / 1024, stackBytes / (double) (width * height), stackTime / 1E6 / READ_PASSES);
+		System.out.printf("tile layers    | %9d | %14.1f | %14.3f%n", layerBytes / 1024, layerBytes / (double) (width * height), layerTime / 1E6 / READ_PASSES);
+		System.out.println("layers: "+layers.getMaxHeight()+", data maps kept: "+layers.getDataMapCount()+" (check "+check+')');
+		
+		// keep both alive until they've been measured.
+		if(stacks.length + layers.getWidth() < 0)
+			System.out.println();
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static ArrayTileStack<ServerTileType>[][] makeStacks(TileTypeEnum[][][] map) {
+		ArrayTileStack<ServerTileType>[][] stacks = (ArrayTileStack<ServerTileType>[][]) new ArrayTileStack[map.length][map[0].length];
+		for(int x = 0; x < map.length; x++) {
+			for(int y = 0; y < map[x].length; y++) {
+				ArrayTileStack<ServerTileType> stack = new ArrayTileStack<>(ServerTileType.class);
+				for(TileTypeEnum type: map[x][y]) {
+					ServerTileType tileType = ServerTileType.get(type);
+					stack.addLayer(tileType, tileType.createDataMap());
+				}
+				stacks[x][y] = stack;
+			}
+		}
+		return stacks;
+	}
+	
+	private static TileLayers makeLayers(TileTypeEnum[][][] map) {
+		TileLayers layers = new TileLayers(map.length, map[0].length);
+		for(int x = 0; x < map.length; x++)
+			for(int y = 0; y < map[x].length; y++)
+				for(TileTypeEnum type: map[x][y])
+					layers.pushLayer(layers.getIndex(x, y), type, null);
+		return layers;
+	}
+	
+	private static int readStacks(ArrayTileStack<ServerTileType>[][] stacks) {
+		int sum = 0;
+		for(ArrayTileStack<ServerTileType>[] column: stacks)
+			for(ArrayTileStack<ServerTileType> stack: column)
+				sum += stack.getTopLayer().getTypeEnum().ordinal();
+		return sum;
+	}
+	
+	private static int readLayers(TileLayers layers) {
+		int sum = 0;
+		final int size = layers.getWidth() * layers.getHeight();
+		for(int i = 0; i < size; i++) {
+			synchronized (layers.getLock(i)) {
+				sum += layers.getTopType(i).ordinal();
+			}
+		}
+		return sum;
+	}
+	
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch(InterruptedException ignored) {}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}